@@ -0,0 +1,177 @@
+package org.niogatori.mongohelper.batching;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.annotation.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Bounded queue of items written in batches. The items are optionally grouped by key, each group is batched by size and
+ * delay, and its batches are written one after the other while the groups are written concurrently. Each queued item
+ * completes once its batch is written, or errors when its write failed.
+ */
+@Slf4j
+public class BatchingQueue<E> implements Disposable {
+
+    private final String name;
+    private final int queueDepth;
+    private final Sinks.Many<Queued<E>> sink = Sinks.many().unicast().onBackpressureBuffer();
+    // items queued or being written, bounded by the queue depth
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Disposable subscription;
+
+    @AllArgsConstructor
+    private static class Queued<E> {
+        private final E item;
+        private final Sinks.Empty<Void> written;
+    }
+
+    /**
+     * Items of a batch, the ones not marked as failed are reported as written once the write completes.
+     */
+    public static class Batch<E> {
+        private final List<Queued<E>> queued;
+        private final List<E> items;
+        private final Throwable[] errors;
+
+        private Batch(List<Queued<E>> queued) {
+            this.queued = queued;
+            this.items = queued.stream().map(entry -> entry.item).collect(Collectors.toUnmodifiableList());
+            this.errors = new Throwable[queued.size()];
+        }
+
+        public List<E> getItems() {
+            return items;
+        }
+
+        public int size() {
+            return items.size();
+        }
+
+        /**
+         * Errors the item at the given index of the batch once the write completes.
+         */
+        public void fail(int index, Throwable error) {
+            errors[index] = error;
+        }
+    }
+
+    public BatchingQueue(String name, int queueDepth, int maxBatchSize, Duration maxBatchDelay,
+            Function<Batch<E>, Mono<Void>> writer) {
+        this(name, queueDepth, maxBatchSize, maxBatchDelay, null, writer);
+    }
+
+    /**
+     * @param groupKey key of the items batched together, all the items go in the same batches when null
+     * @param writer writes a batch, erroring fails every item of the batch
+     */
+    public BatchingQueue(String name, int queueDepth, int maxBatchSize, Duration maxBatchDelay,
+            @Nullable Function<E, ?> groupKey, Function<Batch<E>, Mono<Void>> writer) {
+        this.name = name;
+        this.queueDepth = queueDepth;
+        Function<Flux<Queued<E>>, Flux<Void>> batching = group -> group
+                .bufferTimeout(maxBatchSize, maxBatchDelay)
+                // the timer emits batches regardless of the demand, the pending count bounds them
+                .onBackpressureBuffer()
+                .concatMap(queued -> write(new Batch<>(queued), writer));
+        Flux<Queued<E>> queued = sink.asFlux();
+        this.subscription = (Objects.isNull(groupKey) ? batching.apply(queued)
+                : queued.groupBy(entry -> groupKey.apply(entry.item))
+                        // every group needs its own subscriber for its batches to be written concurrently
+                        .flatMap(batching, Integer.MAX_VALUE))
+                                .subscribe();
+    }
+
+    /**
+     * Queues the item right away.
+     *
+     * @return completes once the item has been written, or errors when the queue is full or the write failed
+     */
+    public Mono<Void> offer(E item) {
+        if (pending.incrementAndGet() > queueDepth) {
+            pending.decrementAndGet();
+            return Mono.error(new IllegalStateException("The " + name + " queue is full"));
+        }
+        Sinks.Empty<Void> written = Sinks.empty();
+        Sinks.EmitResult result;
+        synchronized (sink) {
+            result = sink.tryEmitNext(new Queued<>(item, written));
+        }
+        if (result.isFailure()) {
+            pending.decrementAndGet();
+            return Mono.error(new IllegalStateException("The " + name + " queue rejected an item: " + result));
+        }
+        return written.asMono();
+    }
+
+    /**
+     * Queues the items right away.
+     *
+     * @return completes once every item has been written, or errors when the queue is full or a write failed
+     */
+    public Mono<Void> offerAll(Collection<E> items) {
+        List<Mono<Void>> written = new ArrayList<>();
+        items.forEach(item -> written.add(offer(item)));
+        return Mono.when(written);
+    }
+
+    private Mono<Void> write(Batch<E> batch, Function<Batch<E>, Mono<Void>> writer) {
+        return Mono.defer(() -> writer.apply(batch))
+                .doOnSuccess(done -> settle(batch, null))
+                .onErrorResume(error -> {
+                    log.error("Batch of {} item(s) of the {} queue failed", batch.size(), name, error);
+                    settle(batch, error);
+                    return Mono.empty();
+                });
+    }
+
+    private void settle(Batch<E> batch, @Nullable Throwable error) {
+        pending.addAndGet(-batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Throwable itemError = Objects.nonNull(batch.errors[i]) ? batch.errors[i] : error;
+            if (Objects.isNull(itemError)) {
+                batch.queued.get(i).written.tryEmitEmpty();
+            } else {
+                batch.queued.get(i).written.tryEmitError(itemError);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting items, the ones already queued are still written.
+     */
+    public void close() {
+        synchronized (sink) {
+            sink.tryEmitComplete();
+        }
+    }
+
+    /**
+     * @return the number of items queued or being written
+     */
+    public int pending() {
+        return pending.get();
+    }
+
+    @Override
+    public void dispose() {
+        subscription.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return subscription.isDisposed();
+    }
+}
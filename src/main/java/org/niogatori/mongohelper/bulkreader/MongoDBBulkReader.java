@@ -0,0 +1,135 @@
+package org.niogatori.mongohelper.bulkreader;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.niogatori.mongohelper.mapping.DocumentMapper;
+import org.niogatori.mongohelper.models.BulkReadResult;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.niogatori.mongohelper.mapping.DocumentMapper.MONGO_ID;
+
+/**
+ * Reads documents by id with chunked {@code $in} queries. Ids are encoded like the keys given to
+ * {@link org.niogatori.mongohelper.bulkwriter.MongoDBBulkWriter}, so the same id objects or {@code { _id: <id> }}
+ * documents can be used to write and read. The {@code _id} is always returned, even when a projection excludes it.
+ */
+@Slf4j
+@Repository
+public class MongoDBBulkReader<T> {
+
+    private final ReactiveMongoTemplate template;
+    @Getter
+    private final DocumentMapper documentMapper;
+
+    @Getter
+    @Setter
+    private int chunkSize = 1000;
+    @Getter
+    @Setter
+    private int concurrency = 4;
+
+    public MongoDBBulkReader(ReactiveMongoTemplate template) {
+        this.template = template;
+        this.documentMapper = new DocumentMapper(template.getConverter());
+    }
+
+    public String getCollectionName(Class<T> clazz) {
+        return template.getCollectionName(clazz);
+    }
+
+    public Flux<T> findAllByIds(Class<T> clazz, @NonNull Collection<?> ids) {
+        return findAllByIds(clazz, Flux.fromIterable(ids), null);
+    }
+
+    public Flux<T> findAllByIds(Class<T> clazz, @NonNull Flux<?> ids) {
+        return findAllByIds(clazz, ids, null);
+    }
+
+    /**
+     * Streams the documents matching the ids as soon as each chunk is read, without any order guarantee.
+     */
+    public Flux<T> findAllByIds(Class<T> clazz, @NonNull Flux<?> ids, @Nullable Document projection) {
+        String collectionName = template.getCollectionName(clazz);
+        return ids.map(documentMapper::toIdValue)
+                .buffer(chunkSize)
+                .flatMap(idValues -> findRaw(collectionName, idValues, projection), concurrency)
+                .map(document -> documentMapper.read(clazz, document));
+    }
+
+    public Flux<BulkReadResult<T>> findAllByIdsInOrder(Class<T> clazz, @NonNull Collection<?> ids) {
+        return findAllByIdsInOrder(clazz, Flux.fromIterable(ids), null);
+    }
+
+    /**
+     * Emits one result per requested id, in the order of the ids. An id without document is emitted as a miss.
+     */
+    public Flux<BulkReadResult<T>> findAllByIdsInOrder(Class<T> clazz, @NonNull Flux<?> ids,
+            @Nullable Document projection) {
+        String collectionName = template.getCollectionName(clazz);
+        return ids.buffer(chunkSize)
+                .flatMapSequential(chunk -> {
+                    List<Object> idValues = chunk.stream().map(documentMapper::toIdValue).collect(Collectors.toList());
+                    return findChunk(collectionName, idValues, projection)
+                            .flatMapIterable(found -> {
+                                Map<Object, T> documents = new HashMap<>();
+                                found.forEach((idValue, document) -> documents.put(idValue,
+                                        documentMapper.read(clazz, document)));
+                                return IntStream.range(0, chunk.size())
+                                        .mapToObj(i -> new BulkReadResult<>(chunk.get(i),
+                                                documents.get(idValues.get(i))))
+                                        .collect(Collectors.toList());
+                            });
+                }, concurrency);
+    }
+
+    /**
+     * Reads one chunk of already encoded ids.
+     *
+     * @return the raw documents by {@code _id} value
+     */
+    public Mono<Map<Object, Document>> findChunk(String collectionName, @NonNull Collection<Object> idValues,
+            @Nullable Document projection) {
+        return findRaw(collectionName, idValues, projection)
+                .collectMap(document -> document.get(MONGO_ID));
+    }
+
+    private Flux<Document> findRaw(String collectionName, Collection<Object> idValues,
+            @Nullable Document projection) {
+        if (idValues.isEmpty()) {
+            return Flux.empty();
+        }
+        Document query = new Document(MONGO_ID, new Document("$in", List.copyOf(new LinkedHashSet<>(idValues))));
+        log.debug("Reading {} ids from {}", idValues.size(), collectionName);
+        return template.getCollection(collectionName)
+                .flatMapMany(collection -> collection.find(query)
+                        .projection(Objects.nonNull(projection) ? withId(projection) : null)
+                        .batchSize(chunkSize));
+    }
+
+    private static Document withId(Document projection) {
+        Object idProjection = projection.get(MONGO_ID);
+        if (Boolean.FALSE.equals(idProjection)
+                || idProjection instanceof Number && ((Number) idProjection).intValue() == 0) {
+            Document result = new Document(projection);
+            result.remove(MONGO_ID);
+            return result;
+        }
+        return projection;
+    }
+}
@@ -0,0 +1,120 @@
+package org.niogatori.mongohelper.bulkreader;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.niogatori.mongohelper.mapping.DocumentMapper;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.Nullable;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the single id lookups of one collection received within a short window, or until a batch size is reached,
+ * and reads them with one {@code $in} query. Lookups of an id already waiting for a query share its result.
+ */
+@Slf4j
+public class MongoDBLoadCoalescer<T> {
+
+    private final MongoDBBulkReader<T> reader;
+    private final Class<T> clazz;
+    private final String collectionName;
+    private final DocumentMapper documentMapper;
+    private final Duration window;
+    private final int maxBatchSize;
+    private final Document projection;
+    private final Scheduler scheduler;
+
+    private final Object lock = new Object();
+    private final Map<Object, Mono<Document>> inFlight = new HashMap<>();
+    private Map<Object, Sinks.One<Document>> batch = new LinkedHashMap<>();
+
+    public MongoDBLoadCoalescer(MongoDBBulkReader<T> reader, Class<T> clazz, Duration window, int maxBatchSize) {
+        this(reader, clazz, window, maxBatchSize, null, Schedulers.parallel());
+    }
+
+    public MongoDBLoadCoalescer(MongoDBBulkReader<T> reader, Class<T> clazz, Duration window, int maxBatchSize,
+            @Nullable Document projection, Scheduler scheduler) {
+        this.reader = reader;
+        this.clazz = clazz;
+        this.collectionName = reader.getCollectionName(clazz);
+        this.documentMapper = reader.getDocumentMapper();
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+        this.projection = projection;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return the document of the id, or an empty Mono when it does not exist
+     */
+    public Mono<T> load(Object id) {
+        return Mono.defer(() -> {
+            Object idValue = documentMapper.toIdValue(id);
+            Mono<Document> result;
+            Map<Object, Sinks.One<Document>> fullBatch = null;
+            synchronized (lock) {
+                result = inFlight.get(idValue);
+                if (result == null) {
+                    Sinks.One<Document> sink = Sinks.one();
+                    result = sink.asMono();
+                    inFlight.put(idValue, result);
+                    batch.put(idValue, sink);
+                    if (batch.size() >= maxBatchSize) {
+                        fullBatch = batch;
+                        batch = new LinkedHashMap<>();
+                    } else if (batch.size() == 1) {
+                        Map<Object, Sinks.One<Document>> scheduledBatch = batch;
+                        scheduler.schedule(() -> flush(scheduledBatch), window.toNanos(), TimeUnit.NANOSECONDS);
+                    }
+                }
+            }
+            if (fullBatch != null) {
+                dispatch(fullBatch);
+            }
+            return result.map(document -> documentMapper.read(clazz, document));
+        });
+    }
+
+    private void flush(Map<Object, Sinks.One<Document>> scheduledBatch) {
+        synchronized (lock) {
+            if (batch != scheduledBatch) {
+                // already dispatched because it was full
+                return;
+            }
+            batch = new LinkedHashMap<>();
+        }
+        dispatch(scheduledBatch);
+    }
+
+    private void dispatch(Map<Object, Sinks.One<Document>> sinksById) {
+        log.debug("Coalesced {} lookups on {}", sinksById.size(), collectionName);
+        reader.findChunk(collectionName, sinksById.keySet(), projection)
+                .subscribe(found -> {
+                    release(sinksById);
+                    sinksById.forEach((idValue, sink) -> {
+                        Document document = found.get(idValue);
+                        if (document == null) {
+                            sink.tryEmitEmpty();
+                        } else {
+                            sink.tryEmitValue(document);
+                        }
+                    });
+                }, error -> {
+                    release(sinksById);
+                    sinksById.values().forEach(sink -> sink.tryEmitError(error));
+                });
+    }
+
+    private void release(Map<Object, Sinks.One<Document>> sinksById) {
+        synchronized (lock) {
+            sinksById.keySet().forEach(inFlight::remove);
+        }
+    }
+}
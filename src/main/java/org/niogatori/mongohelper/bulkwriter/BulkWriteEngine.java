@@ -0,0 +1,144 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocumentReader;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.conversions.Bson;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import org.niogatori.mongohelper.tracing.BatchTimings;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Maps the statements of an update command to the driver's {@code bulkWrite}, which sends them as OP_MSG document
+ * sequences and splits the batches exceeding the server limits itself. The {@code comment} and {@code let} of the
+ * command are not supported by the bulkWrite options of this driver version and are ignored.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class BulkWriteEngine implements WriteEngine {
+
+    private static final Codec<Document> DOCUMENT_CODEC =
+            MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+
+    private final ReactiveMongoTemplate template;
+
+    @Override
+    public Flux<Document> execute(UpdateCommand updateCommand) {
+        return Flux.deferContextual(context -> {
+            Optional<BatchTimings> timings = BatchTimings.from(context);
+            long start = System.nanoTime();
+            List<WriteModel<Document>> models = updateCommand.getUpdates().stream()
+                    .map(BulkWriteEngine::toWriteModel)
+                    .collect(Collectors.toList());
+            timings.ifPresent(batchTimings -> batchTimings.recordEncode(System.nanoTime() - start));
+            BulkWriteOptions options = new BulkWriteOptions()
+                    .ordered(updateCommand.isOrdered())
+                    .bypassDocumentValidation(updateCommand.isBypassDocumentValidation());
+            return template.getCollection(updateCommand.getUpdate())
+                    .map(collection -> Objects.isNull(updateCommand.getWriteConcern()) ? collection
+                            : collection.withWriteConcern(updateCommand.getWriteConcern()))
+                    .flatMap(collection -> bulkWrite(collection, models, options, timings));
+        });
+    }
+
+    private static Mono<Document> bulkWrite(MongoCollection<Document> collection, List<WriteModel<Document>> models,
+            BulkWriteOptions options, Optional<BatchTimings> timings) {
+        return Mono.from(collection.bulkWrite(models, options))
+                .map(result -> timed(timings, () -> toReply(result)))
+                .onErrorResume(MongoBulkWriteException.class, error -> timed(timings, () -> toReply(error)));
+    }
+
+    private static <R> R timed(Optional<BatchTimings> timings, Supplier<R> decoder) {
+        long start = System.nanoTime();
+        R reply = decoder.get();
+        timings.ifPresent(batchTimings -> batchTimings.recordDecode(System.nanoTime() - start));
+        return reply;
+    }
+
+    @SuppressWarnings("unchecked")
+    static WriteModel<Document> toWriteModel(Document statement) {
+        Document query = statement.get("q", Document.class);
+        Object update = statement.get("u");
+        UpdateOptions options = new UpdateOptions().upsert(statement.getBoolean("upsert", false));
+        if (statement.containsKey("arrayFilters")) {
+            options.arrayFilters((List<Bson>) statement.get("arrayFilters"));
+        }
+        boolean multi = statement.getBoolean("multi", false);
+        if (update instanceof List) {
+            List<Bson> pipeline = (List<Bson>) update;
+            return multi ? new UpdateManyModel<>(query, pipeline, options)
+                    : new UpdateOneModel<>(query, pipeline, options);
+        }
+        return multi ? new UpdateManyModel<>(query, (Bson) update, options)
+                : new UpdateOneModel<>(query, (Bson) update, options);
+    }
+
+    /**
+     * { n: <matched + upserted>, nModified: ..., upserted: [ { index, _id } ] }
+     */
+    static Document toReply(BulkWriteResult result) {
+        Document reply = new Document("ok", 1);
+        if (!result.wasAcknowledged()) {
+            return reply;
+        }
+        List<Document> upserted = result.getUpserts().stream()
+                .map(upsert -> new Document("index", upsert.getIndex()).append("_id", upsert.getId()))
+                .collect(Collectors.toList());
+        reply.append("n", result.getMatchedCount() + upserted.size())
+                .append("nModified", result.getModifiedCount());
+        if (!upserted.isEmpty()) {
+            reply.append("upserted", upserted);
+        }
+        return reply;
+    }
+
+    /**
+     * Turns the exception back into the reply the server sends for failed statements.
+     */
+    static Mono<Document> toReply(MongoBulkWriteException exception) {
+        Document reply = toReply(exception.getWriteResult());
+        if (!exception.getWriteErrors().isEmpty()) {
+            reply.append("writeErrors", exception.getWriteErrors().stream()
+                    .map(BulkWriteEngine::toWriteError)
+                    .collect(Collectors.toList()));
+        }
+        if (Objects.nonNull(exception.getWriteConcernError())) {
+            reply.append("writeConcernError", new Document("code", exception.getWriteConcernError().getCode())
+                    .append("errmsg", exception.getWriteConcernError().getMessage()));
+        }
+        return Mono.just(reply);
+    }
+
+    private static Document toWriteError(BulkWriteError error) {
+        Document writeError = new Document("index", error.getIndex())
+                .append("code", error.getCode())
+                .append("errmsg", error.getMessage());
+        // the driver only keeps the errInfo of the error, not its keyPattern and keyValue
+        if (!error.getDetails().isEmpty()) {
+            writeError.append("errInfo", DOCUMENT_CODEC.decode(new BsonDocumentReader(error.getDetails()),
+                    DecoderContext.builder().build()));
+        }
+        return writeError;
+    }
+}
@@ -0,0 +1,16 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+@Getter
+@Builder
+public class CounterSettings {
+    @Builder.Default
+    private final Duration flushInterval = Duration.ofSeconds(1);
+    // counters accumulated before a flush is triggered
+    @Builder.Default
+    private final int maxCounters = 100_000;
+}
@@ -0,0 +1,21 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+@Getter
+@Builder
+public class DispatchSettings {
+    // statements waiting in all the collections before submissions are rejected
+    @Builder.Default
+    private final int queueDepth = 100_000;
+    @Builder.Default
+    private final int maxBatchSize = 1000;
+    @Builder.Default
+    private final Duration maxBatchDelay = Duration.ofMillis(10);
+    // commands in flight over all the collections
+    @Builder.Default
+    private final int maxInFlight = 8;
+}
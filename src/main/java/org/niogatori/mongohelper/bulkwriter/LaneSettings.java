@@ -0,0 +1,20 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+@Getter
+@Builder
+public class LaneSettings {
+    @Builder.Default
+    private final int lanes = 4;
+    // statements waiting in each lane before submissions are rejected
+    @Builder.Default
+    private final int queueDepth = 10_000;
+    @Builder.Default
+    private final int maxBatchSize = 1000;
+    @Builder.Default
+    private final Duration maxBatchDelay = Duration.ofMillis(10);
+}
@@ -0,0 +1,187 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.niogatori.mongohelper.throttling.WriteThrottler;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import static org.niogatori.mongohelper.mapping.DocumentMapper.MONGO_ID;
+
+/**
+ * Moves the documents matching a filter, such as one built by {@link MongoDBBulkWriter#toCriteria}, from a collection
+ * to its archive collection, to keep the working set of the hot collection small.
+ * <p>
+ * The documents are moved in chunks: each chunk is copied with unordered replace-upserts, then the documents still
+ * equal to their copy are deleted from the collection. The ids being deleted are checkpointed, so an interrupted move
+ * copies them again and deletes them first when it is run again. The copies wait for the write budget of the archive
+ * collection and the deletes for the one of the collection, set the same throttler on the mover and the writer.
+ */
+@Slf4j
+public class MongoDBArchiveMover<T> {
+
+    public static final String ARCHIVE_SUFFIX = "_archive";
+    public static final String DEFAULT_CHECKPOINT_COLLECTION = "mongoHelperArchiveCheckpoints";
+
+    static final String PENDING_IDS = "pendingIds";
+    static final String NB_MOVED = "nbMoved";
+
+    private final ReactiveMongoTemplate template;
+    private final MongoDBBulkWriter<T> writer;
+
+    @Getter
+    @Setter
+    private int chunkSize = 1000;
+    @Setter
+    private String checkpointCollectionName = DEFAULT_CHECKPOINT_COLLECTION;
+    @Setter
+    private WriteThrottler throttler;
+
+    @AllArgsConstructor
+    private static class Checkpoint {
+        // copied to the archive but maybe not deleted yet
+        private final List<Object> pendingIds;
+        private final long nbMoved;
+    }
+
+    public MongoDBArchiveMover(ReactiveMongoTemplate template, MongoDBBulkWriter<T> writer) {
+        this.template = template;
+        this.writer = writer;
+    }
+
+    public Mono<Long> move(Class<T> clazz, Document criteria) {
+        String collectionName = template.getCollectionName(clazz);
+        return move(collectionName, criteria, collectionName + ARCHIVE_SUFFIX);
+    }
+
+    /**
+     * Moves the matching documents until none is left, then removes the checkpoint.
+     *
+     * @return the number of moved documents, including the ones moved by an interrupted run
+     */
+    public Mono<Long> move(String collectionName, Document criteria, String archiveCollectionName) {
+        Document checkpointId = new Document(MONGO_ID, new Document("collection", collectionName)
+                .append("archive", archiveCollectionName));
+        return loadCheckpoint(checkpointId)
+                .flatMap(checkpoint -> resumePending(collectionName, criteria, archiveCollectionName, checkpointId,
+                        checkpoint))
+                .flatMap(nbMoved -> moveChunks(collectionName, criteria, archiveCollectionName, checkpointId, nbMoved))
+                .flatMap(nbMoved -> deleteCheckpoint(checkpointId).thenReturn(nbMoved))
+                .doOnNext(nbMoved -> log.info("{} document(s) of {} moved to {}", nbMoved, collectionName,
+                        archiveCollectionName));
+    }
+
+    private Mono<Long> moveChunks(String collectionName, Document criteria, String archiveCollectionName,
+            Document checkpointId, long nbMoved) {
+        return template.getCollection(collectionName)
+                .flatMap(collection -> Flux.from(collection.find(criteria)
+                        .sort(new Document(MONGO_ID, 1))
+                        .limit(chunkSize))
+                        .collectList())
+                .flatMap(documents -> {
+                    if (documents.isEmpty()) {
+                        return Mono.just(nbMoved);
+                    }
+                    Mono<Long> moved = moveChunk(collectionName, archiveCollectionName, checkpointId, documents,
+                            nbMoved);
+                    if (documents.size() < chunkSize) {
+                        return moved;
+                    }
+                    return moved.flatMap(nbMovedSoFar -> moveChunks(collectionName, criteria,
+                            archiveCollectionName, checkpointId, nbMovedSoFar));
+                });
+    }
+
+    private Mono<Long> moveChunk(String collectionName, String archiveCollectionName, Document checkpointId,
+            List<Document> documents, long nbMoved) {
+        List<Object> idValues = documents.stream().map(document -> document.get(MONGO_ID))
+                .collect(Collectors.toList());
+        return copy(archiveCollectionName, documents)
+                .then(saveCheckpoint(checkpointId, new Checkpoint(idValues, nbMoved)))
+                .then(deleteCopied(collectionName, checkpointId, documents, nbMoved))
+                .doOnNext(nbMovedSoFar -> log.debug("{} document(s) of {} moved to {}", nbMovedSoFar - nbMoved,
+                        collectionName, archiveCollectionName));
+    }
+
+    /**
+     * Replaces the archived copies, so the archive always gets the current version of a document copied twice.
+     */
+    private Mono<Void> copy(String archiveCollectionName, List<Document> documents) {
+        Mono<Void> permit = Objects.isNull(throttler) ? Mono.empty()
+                : throttler.acquire(archiveCollectionName, documents.size(), 0);
+        List<ReplaceOneModel<Document>> replacements = documents.stream()
+                .map(document -> new ReplaceOneModel<>(new Document(MONGO_ID, document.get(MONGO_ID)), document,
+                        new ReplaceOptions().upsert(true)))
+                .collect(Collectors.toList());
+        return permit.then(template.getCollection(archiveCollectionName))
+                .flatMap(archive -> Mono.from(archive.bulkWrite(replacements, new BulkWriteOptions().ordered(false))))
+                .then();
+    }
+
+    /**
+     * Copies again the pending documents of an interrupted chunk that still match the criteria, as they may have
+     * changed since they were archived, then deletes them.
+     */
+    private Mono<Long> resumePending(String collectionName, Document criteria, String archiveCollectionName,
+            Document checkpointId, Checkpoint checkpoint) {
+        if (checkpoint.pendingIds.isEmpty()) {
+            return Mono.just(checkpoint.nbMoved);
+        }
+        return template.getCollection(collectionName)
+                .flatMap(collection -> Flux.from(collection.find(new Document("$and", List.of(
+                        new Document(MONGO_ID, new Document("$in", checkpoint.pendingIds)), criteria))))
+                        .collectList())
+                .flatMap(documents -> copy(archiveCollectionName, documents)
+                        .then(deleteCopied(collectionName, checkpointId, documents, checkpoint.nbMoved)));
+    }
+
+    /**
+     * Only deletes the documents still equal to their archived copy. A document changed since it was copied is kept in
+     * the collection, to be moved by a next chunk or run if it still matches the criteria.
+     */
+    private Mono<Long> deleteCopied(String collectionName, Document checkpointId, List<Document> copied,
+            long nbMoved) {
+        Mono<Long> nbDeleted = copied.isEmpty() ? Mono.just(0L)
+                : writer.delete(collectionName,
+                        copied.stream().map(document -> document.get(MONGO_ID)).collect(Collectors.toList()),
+                        new Document("$expr", new Document("$in", List.of("$$ROOT",
+                                new Document("$literal", copied)))));
+        return nbDeleted
+                .map(deleted -> nbMoved + deleted)
+                .flatMap(nbMovedSoFar -> saveCheckpoint(checkpointId, new Checkpoint(List.of(), nbMovedSoFar))
+                        .thenReturn(nbMovedSoFar));
+    }
+
+    private Mono<Checkpoint> loadCheckpoint(Document checkpointId) {
+        return template.getCollection(checkpointCollectionName)
+                .flatMap(checkpoints -> Mono.from(checkpoints.find(checkpointId).first()))
+                .map(document -> new Checkpoint(document.getList(PENDING_IDS, Object.class, List.of()),
+                        document.get(NB_MOVED, Number.class).longValue()))
+                .defaultIfEmpty(new Checkpoint(List.of(), 0));
+    }
+
+    private Mono<Void> saveCheckpoint(Document checkpointId, Checkpoint checkpoint) {
+        return template.getCollection(checkpointCollectionName)
+                .flatMap(checkpoints -> Mono.from(checkpoints.replaceOne(checkpointId, new Document(checkpointId)
+                        .append(PENDING_IDS, checkpoint.pendingIds)
+                        .append(NB_MOVED, checkpoint.nbMoved), new ReplaceOptions().upsert(true))))
+                .then();
+    }
+
+    private Mono<Void> deleteCheckpoint(Document checkpointId) {
+        return template.getCollection(checkpointCollectionName)
+                .flatMap(checkpoints -> Mono.from(checkpoints.deleteOne(checkpointId)))
+                .then();
+    }
+}
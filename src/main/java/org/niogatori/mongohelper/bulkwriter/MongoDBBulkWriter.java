@@ -1,9 +1,27 @@
 package org.niogatori.mongohelper.bulkwriter;
 
-import lombok.RequiredArgsConstructor;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.result.DeleteResult;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.niogatori.mongohelper.cache.CacheInvalidationRegistry;
+import org.niogatori.mongohelper.mapping.DocumentMapper;
 import org.niogatori.mongohelper.models.UpdateCommand;
+import org.niogatori.mongohelper.models.UpdateSpec;
+import org.niogatori.mongohelper.models.WriteOptions;
+import org.niogatori.mongohelper.models.WriteOutcome;
+import org.niogatori.mongohelper.throttling.WriteThrottler;
+import org.niogatori.mongohelper.tracing.BatchTimings;
+import org.niogatori.mongohelper.tracing.BatchTrace;
+import org.niogatori.mongohelper.tracing.BatchTraceListener;
 import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.CollectionUtils;
@@ -12,33 +30,79 @@ import reactor.core.publisher.Mono;
 import reactor.util.annotation.NonNull;
 import reactor.util.annotation.Nullable;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.niogatori.mongohelper.mapping.DocumentMapper.MONGO_ID;
 
 @Slf4j
 @Repository
-@RequiredArgsConstructor
 public class MongoDBBulkWriter<T> {
 
-    private static final String CLASS_KEY = "_class";
-    private static final String MONGO_ID = "_id";
+    public static final String DEFAULT_VERSION_FIELD = "version";
+    private static final Codec<Document> DOCUMENT_CODEC =
+            MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+    private static final Integer DUPLICATE_KEY_CODE = 11000;
 
     private final ReactiveMongoTemplate template;
+    private final DocumentMapper documentMapper;
+
+    // runs the update command by default
+    @Setter
+    private WriteEngine engine;
+    @Setter
+    private WriteThrottler throttler;
+    // tracing is also enabled by a trace id in the subscriber context
+    @Setter
+    private BatchTraceListener traceListener;
+    @Setter
+    private CacheInvalidationRegistry cacheInvalidationRegistry;
+    // statements per command and commands in flight of the chunked writes
+    @Getter
+    @Setter
+    private int chunkSize = 1000;
+    @Getter
+    @Setter
+    private int concurrency = 4;
+    // re-applies the conflicting patches of upsertVersioned, which are only reported by default
+    @Setter
+    private VersionConflictResolver conflictResolver;
+    @Setter
+    private int maxConflictRetries = 3;
+
+    public MongoDBBulkWriter(ReactiveMongoTemplate template) {
+        this.template = template;
+        this.documentMapper = new DocumentMapper(template.getConverter());
+        this.engine = new RunCommandWriteEngine(template);
+    }
+
+    public String getCollectionName(Class<?> clazz) {
+        return template.getCollectionName(clazz);
+    }
 
     public Document toDocument(Object objectToSave) {
-        Document document = new Document();
-        template.getConverter().write(objectToSave, document);
-        document.remove(CLASS_KEY);
-        document.remove(MONGO_ID);
-        return document;
+        return documentMapper.toDocument(objectToSave);
+    }
+
+    public Document toDocument(Object objectToSave, Collection<String> fieldMask) {
+        return documentMapper.toDocument(objectToSave, fieldMask);
     }
 
     public Document toIdDocument(Object id) {
-        Document idDocument = new Document();
-        template.getConverter().write(id, idDocument);
-        idDocument.remove(CLASS_KEY);
-        return new Document(MONGO_ID, idDocument);
+        return documentMapper.toIdDocument(id);
     }
 
     public Document toCriteria(List<Document> criteria, LogicalOperator logicalOperator) {
@@ -64,18 +128,44 @@ public class MongoDBBulkWriter<T> {
 
     public Mono<Integer> upsertMany(Class<T> clazz, Document queries, Document fieldsToSet,
             List<String> fieldsToUnset, Document fieldsToSetOnInsert) {
+        return upsertMany(clazz, queries, fieldsToSet, fieldsToUnset, fieldsToSetOnInsert, WriteOptions.ORDERED);
+    }
+
+    public Mono<Integer> upsertMany(Class<T> clazz, Document queries, Document fieldsToSet,
+            List<String> fieldsToUnset, Document fieldsToSetOnInsert, WriteOptions writeOptions) {
         UpdateCommand updateCommand = UpdateCommand.builder()
                 .update(template.getCollectionName(clazz))
-                .ordered(true)
+                .ordered(writeOptions.isOrdered())
                 .bypassDocumentValidation(false)
-                .build();
-        return template.getMongoDatabase()
-                .map(mongoDatabase -> mongoDatabase.runCommand(updateCommand
-                        .withUpdates(queries, fieldsToSet, fieldsToUnset, fieldsToSetOnInsert, true, true).asBson()))
-                .flatMapMany(Mono::from)
-                .doOnNext(MongoDBBulkWriter::logErrors)
-                .map(MongoDBBulkWriter::getNbTotalChanges)
-                .reduce(Integer::sum);
+                .build()
+                .withUpdates(queries, fieldsToSet, fieldsToUnset, fieldsToSetOnInsert, true, true);
+        return execute(updateCommand);
+    }
+
+    /**
+     * Applies each filter and patch pair with its own statement, packed in commands of {@code chunkSize} statements.
+     * Ordered commands are run one after the other so that the specs are applied in order.
+     *
+     * @return the number of upserted and modified documents
+     */
+    public Mono<Integer> upsertMany(Class<T> clazz, @NonNull List<UpdateSpec> updateSpecs) {
+        return upsertMany(clazz, updateSpecs, WriteOptions.ORDERED);
+    }
+
+    public Mono<Integer> upsertMany(Class<T> clazz, @NonNull List<UpdateSpec> updateSpecs,
+            WriteOptions writeOptions) {
+        String collectionName = template.getCollectionName(clazz);
+        Flux<UpdateCommand> updateCommands = Flux.fromIterable(updateSpecs)
+                .buffer(chunkSize)
+                .map(chunk -> writeOptions.apply(UpdateCommand.builder()
+                        .update(collectionName)
+                        .ordered(writeOptions.isOrdered())
+                        .bypassDocumentValidation(false)
+                        .build()
+                        .withUpdates(chunk)));
+        Flux<Integer> nbChanges = writeOptions.isOrdered() ? updateCommands.concatMap(this::execute)
+                : updateCommands.flatMap(this::execute, concurrency);
+        return nbChanges.reduce(0, Integer::sum);
     }
 
     public Mono<Integer> upsert(Class<T> clazz, @NonNull Map<Document, Optional<Document>> objectsToSaveById) {
@@ -89,27 +179,417 @@ public class MongoDBBulkWriter<T> {
 
     public Mono<Integer> upsert(Class<T> clazz, @NonNull Map<Document, Optional<Document>> objectsToSaveById,
             @Nullable List<String> fieldsToUnset, Map<String, Object> fieldsToSetOnInsert) {
+        return this.upsert(clazz, objectsToSaveById, fieldsToUnset, fieldsToSetOnInsert, WriteOptions.ORDERED);
+    }
+
+    public Mono<Integer> upsert(Class<T> clazz, @NonNull Map<Document, Optional<Document>> objectsToSaveById,
+            @Nullable List<String> fieldsToUnset, Map<String, Object> fieldsToSetOnInsert,
+            WriteOptions writeOptions) {
         if (objectsToSaveById.isEmpty()) {
             return Mono.just(0);
         }
+        return execute(toUpdateCommand(clazz, objectsToSaveById, fieldsToUnset, fieldsToSetOnInsert, writeOptions));
+    }
 
-        UpdateCommand updateCommand = UpdateCommand.builder()
+    public UpdateCommand toUpdateCommand(Class<T> clazz, @NonNull Map<Document, Optional<Document>> objectsToSaveById,
+            @Nullable List<String> fieldsToUnset, Map<String, Object> fieldsToSetOnInsert) {
+        return toUpdateCommand(clazz, objectsToSaveById, fieldsToUnset, fieldsToSetOnInsert, WriteOptions.ORDERED);
+    }
+
+    public UpdateCommand toUpdateCommand(Class<T> clazz, @NonNull Map<Document, Optional<Document>> objectsToSaveById,
+            @Nullable List<String> fieldsToUnset, Map<String, Object> fieldsToSetOnInsert,
+            WriteOptions writeOptions) {
+        return writeOptions.apply(UpdateCommand.builder()
                 .update(template.getCollectionName(clazz))
-                .ordered(true)
+                .ordered(writeOptions.isOrdered())
+                .bypassDocumentValidation(false)
+                .build()
+                .withUpdates(objectsToSaveById, fieldsToUnset, toDocument(fieldsToSetOnInsert), true, true));
+    }
+
+    /**
+     * Upserts like {@link #upsert}, but the existing documents receiving the same patch are updated by a single
+     * statement on their ids, so a patch shared by many documents is sent once. The existing ids are read first, a
+     * document deleted in between is not recreated.
+     */
+    public Mono<Integer> upsertGrouped(Class<T> clazz, @NonNull Map<Document, Optional<Document>> objectsToSaveById,
+            @Nullable List<String> fieldsToUnset, Map<String, Object> fieldsToSetOnInsert) {
+        return upsertGrouped(clazz, objectsToSaveById, fieldsToUnset, fieldsToSetOnInsert, WriteOptions.ORDERED);
+    }
+
+    public Mono<Integer> upsertGrouped(Class<T> clazz, @NonNull Map<Document, Optional<Document>> objectsToSaveById,
+            @Nullable List<String> fieldsToUnset, Map<String, Object> fieldsToSetOnInsert,
+            WriteOptions writeOptions) {
+        if (objectsToSaveById.isEmpty()) {
+            return Mono.just(0);
+        }
+        String collectionName = template.getCollectionName(clazz);
+        return findExistingIdValues(collectionName, objectsToSaveById.keySet())
+                .map(existingIdValues -> UpdateCommand.builder()
+                        .update(collectionName)
+                        .ordered(writeOptions.isOrdered())
+                        .bypassDocumentValidation(false)
+                        .build()
+                        .withGroupedUpdates(objectsToSaveById, existingIdValues, fieldsToUnset,
+                                toDocument(fieldsToSetOnInsert), chunkSize))
+                .flatMap(this::execute);
+    }
+
+    private Mono<Set<BsonValue>> findExistingIdValues(String collectionName, Collection<Document> idDocuments) {
+        return template.getCollection(collectionName)
+                .map(collection -> collection.withDocumentClass(BsonDocument.class))
+                .flatMapMany(collection -> Flux.fromIterable(idDocuments)
+                        .map(idDocument -> idDocument.get(MONGO_ID))
+                        .buffer(chunkSize)
+                        .flatMap(idValues -> collection.find(new Document(MONGO_ID, new Document("$in", idValues)))
+                                .projection(new Document(MONGO_ID, 1)), concurrency))
+                .map(document -> document.get(MONGO_ID))
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Upserts the documents in chunks of {@code chunkSize} statements and emits the outcome of each entry as soon as
+     * its chunk is written, so that they can be acknowledged one by one.
+     */
+    public Flux<WriteOutcome> upsertWithOutcomes(Class<T> clazz,
+            @NonNull Map<Document, Optional<Document>> objectsToSaveById, @Nullable List<String> fieldsToUnset,
+            Map<String, Object> fieldsToSetOnInsert) {
+        return Flux.fromIterable(objectsToSaveById.entrySet())
+                .buffer(chunkSize)
+                .map(chunk -> toUpdateCommand(clazz, chunk.stream().collect(Collectors.toMap(Map.Entry::getKey,
+                        Map.Entry::getValue, (first, second) -> second, LinkedHashMap::new)), fieldsToUnset,
+                        fieldsToSetOnInsert))
+                .flatMap(this::executeWithOutcomes, concurrency);
+    }
+
+    /**
+     * Runs the command and emits exactly one outcome per statement, in the order of the statements. When the command
+     * fails or gets no reply, every statement is reported as failed.
+     */
+    public Flux<WriteOutcome> executeWithOutcomes(UpdateCommand updateCommand) {
+        return executeForReplies(updateCommand)
+                .next()
+                .map(reply -> WriteOutcome.fromReply(updateCommand, reply))
+                .switchIfEmpty(Mono.fromSupplier(() -> WriteOutcome.fromError(updateCommand,
+                        new IllegalStateException("No reply to the update command on " + updateCommand.getUpdate()
+                                + ", its statements may or may not have been applied"))))
+                .onErrorResume(error -> Mono.just(WriteOutcome.fromError(updateCommand, error)))
+                .flatMapIterable(outcomes -> outcomes);
+    }
+
+    public Mono<Long> delete(Class<T> clazz, @NonNull Collection<Object> idValues) {
+        return delete(template.getCollectionName(clazz), idValues);
+    }
+
+    /**
+     * Deletes the documents of the given {@code _id} values in chunks of {@code chunkSize} ids, each chunk waiting for
+     * the write budget of the collection, and evicts them from the caches.
+     *
+     * @return the number of deleted documents
+     */
+    public Mono<Long> delete(String collectionName, @NonNull Collection<Object> idValues) {
+        return delete(collectionName, idValues, new Document());
+    }
+
+    /**
+     * Deletes the documents of the given {@code _id} values that still match the criteria, see
+     * {@link #delete(String, Collection)}.
+     *
+     * @return the number of deleted documents
+     */
+    public Mono<Long> delete(String collectionName, @NonNull Collection<Object> idValues, Document criteria) {
+        return Flux.fromIterable(idValues)
+                .buffer(chunkSize)
+                .flatMap(chunk -> acquirePermit(collectionName, chunk.size())
+                        .then(template.getCollection(collectionName))
+                        .flatMap(collection -> Mono.from(collection.deleteMany(toIdFilter(chunk, criteria))))
+                        .map(DeleteResult::getDeletedCount)
+                        .doOnTerminate(() -> invalidateCaches(collectionName, chunk))
+                        .doOnCancel(() -> invalidateCaches(collectionName, chunk)), concurrency)
+                .reduce(0L, Long::sum);
+    }
+
+    private static Document toIdFilter(List<Object> idValues, Document criteria) {
+        Document idFilter = new Document(MONGO_ID, new Document("$in", idValues));
+        return criteria.isEmpty() ? idFilter : new Document("$and", List.of(idFilter, criteria));
+    }
+
+    /**
+     * Upserts the documents only if they still have their expected version, and increments it, without locks nor
+     * transactions. The version field is the one of the {@code @Version} property of the class, or {@code version}.
+     * <p>
+     * The documents whose version changed are reported as CONFLICT without failing the others. With a conflict
+     * resolver, they are re-read and their resolved patch is written again with the current version, up to
+     * {@code maxConflictRetries} times.
+     *
+     * @param expectedVersions the versions read before patching, the documents without version must not exist yet
+     */
+    public Flux<WriteOutcome> upsertVersioned(Class<T> clazz,
+            @NonNull Map<Document, Optional<Document>> objectsToSaveById, @NonNull Map<Document, Long> expectedVersions,
+            @Nullable List<String> fieldsToUnset, Map<String, Object> fieldsToSetOnInsert) {
+        String collectionName = template.getCollectionName(clazz);
+        String versionField = documentMapper.getVersionField(clazz).orElse(DEFAULT_VERSION_FIELD);
+        Document setOnInsert = toDocument(fieldsToSetOnInsert);
+        return Flux.fromIterable(objectsToSaveById.entrySet())
+                .buffer(chunkSize)
+                .flatMap(chunk -> writeVersioned(collectionName, versionField,
+                        chunk.stream().collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue,
+                                (first, second) -> second, LinkedHashMap::new)),
+                        expectedVersions, fieldsToUnset, setOnInsert, 0), concurrency);
+    }
+
+    private Flux<WriteOutcome> writeVersioned(String collectionName, String versionField,
+            Map<Document, Optional<Document>> objectsToSaveById, Map<Document, Long> expectedVersions,
+            @Nullable List<String> fieldsToUnset, Document fieldsToSetOnInsert, int attempt) {
+        UpdateCommand updateCommand = UpdateCommand.builder()
+                .update(collectionName)
+                .ordered(false)
                 .bypassDocumentValidation(false)
                 .build()
-                .withUpdates(objectsToSaveById, fieldsToUnset, toDocument(fieldsToSetOnInsert), true, true);
+                .withVersionedUpdates(objectsToSaveById, expectedVersions, versionField, fieldsToUnset,
+                        fieldsToSetOnInsert);
+        return executeWithOutcomes(updateCommand)
+                .map(MongoDBBulkWriter::toVersionedOutcome)
+                .collectList()
+                .flatMapMany(outcomes -> {
+                    Map<Document, Optional<Document>> conflicts = new LinkedHashMap<>();
+                    outcomes.stream()
+                            .filter(outcome -> outcome.getStatus() == WriteOutcome.Status.CONFLICT)
+                            .forEach(outcome -> conflicts.put(outcome.getIdDocument(),
+                                    objectsToSaveById.get(outcome.getIdDocument())));
+                    if (conflicts.isEmpty() || Objects.isNull(conflictResolver) || attempt >= maxConflictRetries) {
+                        return Flux.fromIterable(outcomes);
+                    }
+                    return Flux.fromIterable(outcomes)
+                            .filter(outcome -> outcome.getStatus() != WriteOutcome.Status.CONFLICT)
+                            .concatWith(resolveConflicts(collectionName, versionField, conflicts, fieldsToUnset,
+                                    fieldsToSetOnInsert, attempt));
+                });
+    }
+
+    /**
+     * Re-reads the conflicting documents and writes their resolved patches with their current version.
+     */
+    private Flux<WriteOutcome> resolveConflicts(String collectionName, String versionField,
+            Map<Document, Optional<Document>> conflicts, @Nullable List<String> fieldsToUnset,
+            Document fieldsToSetOnInsert, int attempt) {
+        List<Object> idValues = conflicts.keySet().stream().map(idDocument -> idDocument.get(MONGO_ID))
+                .collect(Collectors.toList());
+        return template.getCollection(collectionName)
+                .flatMapMany(collection -> collection.find(new Document(MONGO_ID, new Document("$in", idValues))))
+                .collectMap(document -> new Document(MONGO_ID, document.get(MONGO_ID)))
+                .flatMapMany(currentById -> {
+                    Map<Document, Optional<Document>> resolved = new LinkedHashMap<>();
+                    Map<Document, Long> currentVersions = new LinkedHashMap<>();
+                    List<WriteOutcome> unresolved = new ArrayList<>();
+                    conflicts.forEach((idDocument, patch) -> {
+                        Document current = currentById.get(idDocument);
+                        Optional<Document> resolvedPatch =
+                                conflictResolver.resolve(current, patch.orElseGet(Document::new));
+                        if (resolvedPatch.isEmpty()) {
+                            unresolved.add(new WriteOutcome(idDocument, WriteOutcome.Status.CONFLICT, null,
+                                    "The conflict was not resolved"));
+                            return;
+                        }
+                        resolved.put(idDocument, resolvedPatch);
+                        if (Objects.nonNull(current) && current.get(versionField) instanceof Number) {
+                            currentVersions.put(idDocument, current.get(versionField, Number.class).longValue());
+                        }
+                    });
+                    Flux<WriteOutcome> retried = resolved.isEmpty() ? Flux.empty()
+                            : writeVersioned(collectionName, versionField, resolved, currentVersions,
+                                    fieldsToUnset, fieldsToSetOnInsert, attempt + 1);
+                    return Flux.fromIterable(unresolved).concatWith(retried);
+                });
+    }
+
+    /**
+     * Reports the outcomes by {@code _id}, and the duplicates on {@code _id} raised by outdated versions as conflicts.
+     */
+    private static WriteOutcome toVersionedOutcome(WriteOutcome outcome) {
+        Document idDocument = new Document(MONGO_ID, outcome.getIdDocument().get(MONGO_ID));
+        boolean conflict = outcome.isFailed() && Objects.equals(outcome.getErrorCode(), DUPLICATE_KEY_CODE)
+                && Objects.nonNull(outcome.getErrorKeyPattern())
+                && outcome.getErrorKeyPattern().keySet().equals(Set.of(MONGO_ID));
+        return new WriteOutcome(idDocument, conflict ? WriteOutcome.Status.CONFLICT : outcome.getStatus(),
+                outcome.getErrorCode(), outcome.getErrorMessage(), outcome.getErrorKeyPattern());
+    }
+
+    /**
+     * Runs an {@code update} command made of statements already encoded, such as the ones staged off-heap. The
+     * statements are decoded, so that the command goes through the write engine, the throttler, the tracing and the
+     * cache invalidation like the others.
+     *
+     * @return the replies of the command, in the shape of the {@code update} command reply
+     */
+    public Flux<Document> executeRaw(String collectionName, @NonNull List<RawBsonDocument> statements,
+            boolean ordered) {
+        return Flux.defer(() -> executeForReplies(UpdateCommand.builder()
+                .update(collectionName)
+                .updates(statements.stream()
+                        .map(statement -> DOCUMENT_CODEC.decode(new BsonDocumentReader(statement),
+                                DecoderContext.builder().build()))
+                        .collect(Collectors.toList()))
+                .ordered(ordered)
+                .bypassDocumentValidation(false)
+                .build()));
+    }
 
-        return Flux.just(objectsToSaveById)
-                .flatMapSequential(list -> template.getMongoDatabase()
-                        .map(mongoDatabase -> mongoDatabase.runCommand(updateCommand.asBson()))
-                        .flatMapMany(Mono::from), 1)
-                .doOnNext(MongoDBBulkWriter::logErrors)
+    /**
+     * Runs an already built update command and returns the number of upserted and modified documents.
+     */
+    public Mono<Integer> execute(UpdateCommand updateCommand) {
+        return executeForReplies(updateCommand)
                 .map(MongoDBBulkWriter::getNbTotalChanges)
                 .reduce(Integer::sum);
     }
 
-    private static Integer getNbTotalChanges(@NonNull Document bulkWriteResult) {
+    private Flux<Document> executeForReplies(UpdateCommand updateCommand) {
+        return Flux.deferContextual(context -> {
+            String traceId = context.getOrDefault(BatchTrace.TRACE_ID_KEY, null);
+            if (Objects.isNull(traceListener) && Objects.isNull(traceId)) {
+                return send(updateCommand)
+                        .doOnNext(MongoDBBulkWriter::logErrors)
+                        .doOnTerminate(() -> invalidateCaches(updateCommand))
+                        .doOnCancel(() -> invalidateCaches(updateCommand));
+            }
+            return executeTraced(updateCommand, traceId);
+        });
+    }
+
+    /**
+     * Tags the command with the trace and batch ids in its comment, and reports its timings to the trace listener.
+     */
+    private Flux<Document> executeTraced(UpdateCommand updateCommand, @Nullable String traceId) {
+        String batchId = UUID.randomUUID().toString();
+        UpdateCommand tagged = updateCommand.toBuilder()
+                .comment(BatchTrace.toComment(traceId, batchId, updateCommand.getComment()))
+                .build();
+        BatchTimings timings = new BatchTimings();
+        long queuedAt = System.nanoTime();
+        AtomicLong sentAt = new AtomicLong();
+        AtomicLong repliedAt = new AtomicLong();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        return send(tagged, () -> sentAt.set(System.nanoTime()))
+                .contextWrite(context -> context.put(BatchTimings.CONTEXT_KEY, timings))
+                .doOnNext(reply -> {
+                    repliedAt.compareAndSet(0, System.nanoTime());
+                    long start = System.nanoTime();
+                    logErrors(reply);
+                    timings.recordDecode(System.nanoTime() - start);
+                })
+                .doOnError(error::set)
+                .doOnTerminate(() -> invalidateCaches(tagged))
+                .doOnCancel(() -> invalidateCaches(tagged))
+                .doFinally(signal -> {
+                    if (Objects.nonNull(traceListener)) {
+                        traceListener.onBatch(toTrace(tagged, traceId, batchId, timings, queuedAt, sentAt.get(),
+                                repliedAt.get(), error.get()));
+                    }
+                });
+    }
+
+    private static BatchTrace toTrace(UpdateCommand updateCommand, @Nullable String traceId, String batchId,
+            BatchTimings timings, long queuedAt, long sentAt, long repliedAt, @Nullable Throwable error) {
+        long now = System.nanoTime();
+        long sent = sentAt == 0 ? now : sentAt;
+        long replied = repliedAt == 0 ? now : repliedAt;
+        return BatchTrace.builder()
+                .traceId(traceId)
+                .batchId(batchId)
+                .collectionName(updateCommand.getUpdate())
+                .nbStatements(updateCommand.getUpdates().size())
+                .queueWait(Duration.ofNanos(sent - queuedAt))
+                .encode(Duration.ofNanos(timings.getEncodeNanos()))
+                .execution(Duration.ofNanos(Math.max(0, replied - sent - timings.getEncodeNanos())))
+                .decode(Duration.ofNanos(timings.getDecodeNanos()))
+                .error(error)
+                .build();
+    }
+
+    private Flux<Document> send(UpdateCommand updateCommand) {
+        return send(updateCommand, () -> {
+        });
+    }
+
+    /**
+     * Sends the command once it fits in the write budget. When the budget counts bytes, the command is encoded once to
+     * measure it and those same bytes are sent.
+     */
+    private Flux<Document> send(UpdateCommand updateCommand, Runnable onPermit) {
+        String collectionName = updateCommand.getUpdate();
+        int nbStatements = updateCommand.getUpdates().size();
+        if (Objects.isNull(throttler) || !throttler.isByteLimited(collectionName)) {
+            return acquirePermit(collectionName, nbStatements)
+                    .doOnSuccess(permit -> onPermit.run())
+                    .thenMany(Flux.defer(() -> engine.execute(updateCommand)));
+        }
+        return template.getMongoDatabase().flatMapMany(mongoDatabase -> {
+            RawBsonDocument encoded = updateCommand.asRawBson(mongoDatabase.getCodecRegistry());
+            return throttler.acquire(collectionName, nbStatements, encoded.getByteBuffer().remaining())
+                    .doOnSuccess(permit -> onPermit.run())
+                    .thenMany(Flux.defer(() -> engine.execute(updateCommand, encoded)));
+        });
+    }
+
+    private Mono<Void> acquirePermit(String collectionName, int nbStatements) {
+        return Objects.isNull(throttler) ? Mono.empty() : throttler.acquire(collectionName, nbStatements, 0);
+    }
+
+    private void invalidateCaches(String collectionName, List<Object> idValues) {
+        if (Objects.nonNull(cacheInvalidationRegistry) && cacheInvalidationRegistry.hasCaches(collectionName)) {
+            cacheInvalidationRegistry.invalidate(collectionName, idValues);
+        }
+    }
+
+    private void invalidateCaches(UpdateCommand updateCommand) {
+        invalidateCaches(updateCommand.getUpdate(),
+                () -> updateCommand.getUpdates().stream().map(statement -> statement.get("q", Document.class)));
+    }
+
+    private void invalidateCaches(String collectionName, Supplier<Stream<Document>> queries) {
+        if (Objects.isNull(cacheInvalidationRegistry) || !cacheInvalidationRegistry.hasCaches(collectionName)) {
+            return;
+        }
+        List<Object> idValues = new ArrayList<>();
+        for (Document query : (Iterable<Document>) queries.get()::iterator) {
+            Optional<List<Object>> queriedIdValues = getIdValues(query);
+            if (queriedIdValues.isEmpty()) {
+                // the written documents are unknown
+                cacheInvalidationRegistry.invalidateAll(collectionName);
+                return;
+            }
+            idValues.addAll(queriedIdValues.get());
+        }
+        cacheInvalidationRegistry.invalidate(collectionName, idValues);
+    }
+
+    /**
+     * The other criteria of a query, such as the expected version, only narrow down the documents of its {@code _id}.
+     *
+     * @return the {@code _id} values the query can match, or empty when it does not select by {@code _id} equality
+     */
+    private static Optional<List<Object>> getIdValues(Document query) {
+        if (!query.containsKey(MONGO_ID)) {
+            return Optional.empty();
+        }
+        Object idValue = query.get(MONGO_ID);
+        if (!(idValue instanceof Document)) {
+            return Optional.of(List.of(idValue));
+        }
+        Document idDocument = (Document) idValue;
+        if (idDocument.size() == 1 && idDocument.containsKey("$in")) {
+            return Optional.of(idDocument.getList("$in", Object.class));
+        }
+        // an embedded id, unless it holds operators such as $gt
+        return idDocument.keySet().stream().anyMatch(key -> key.startsWith("$")) ? Optional.empty()
+                : Optional.of(List.of(idValue));
+    }
+
+    /**
+     * @return the number of upserted and modified documents of an {@code update} command reply
+     */
+    public static Integer getNbTotalChanges(@NonNull Document bulkWriteResult) {
         List<Document> upserted =
                 bulkWriteResult.containsKey("upserted") ? bulkWriteResult.getList("upserted", Document.class)
                         : List.of();
@@ -0,0 +1,261 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import org.niogatori.mongohelper.models.WriteOutcome;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.niogatori.mongohelper.mapping.DocumentMapper.MONGO_ID;
+
+/**
+ * Accumulates the increments of counters per document and field in memory, and writes their sums as {@code $inc}
+ * upserts, so that many increments of a counter cost a single statement.
+ * <p>
+ * The increments go to striped adders of the current generation. A flush swaps the generation, waits for the increments
+ * already started on the previous one, then writes its sums in chunks of the writer's {@code chunkSize}. The sums of a
+ * failed chunk, or of a statement rejected by the server, are added back to be written by the next flush, a command
+ * that failed after being partially applied is thus counted twice. Closing the sink writes the pending increments, they
+ * are lost if the process stops without it.
+ */
+@Slf4j
+public class MongoDBCounterSink<T> implements Disposable {
+
+    private static final Duration RUNNING_FLUSH_POLL = Duration.ofMillis(10);
+    // increments in flight take nanoseconds, the flush only polls when a producer was descheduled in the middle of one
+    private static final int IN_FLIGHT_SPINS = 1000;
+    private static final Duration IN_FLIGHT_POLL = Duration.ofMillis(1);
+
+    private final MongoDBBulkWriter<T> writer;
+    private final String collectionName;
+    private final CounterSettings settings;
+    private final AtomicReference<Generation> current = new AtomicReference<>(new Generation());
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+    private final Disposable flushes;
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static class CounterKey {
+        private final Object id;
+        private final String field;
+    }
+
+    private static class Generation {
+        private final Map<CounterKey, LongAdder> counters = new ConcurrentHashMap<>();
+        private final AtomicInteger nbCounters = new AtomicInteger();
+        // increments started on this generation, the flush waits for them after the swap
+        private final LongAdder inFlight = new LongAdder();
+    }
+
+    public MongoDBCounterSink(MongoDBBulkWriter<T> writer, String collectionName, CounterSettings settings) {
+        this.writer = writer;
+        this.collectionName = collectionName;
+        this.settings = settings;
+        this.flushes = Flux.interval(settings.getFlushInterval(), Schedulers.boundedElastic())
+                .onBackpressureDrop()
+                .concatMap(tick -> flush(), 1)
+                .subscribe();
+    }
+
+    public void increment(Object id, String field) {
+        increment(id, field, 1);
+    }
+
+    /**
+     * Adds the delta to the counter without blocking. A flush is triggered once {@code maxCounters} counters are
+     * pending.
+     */
+    public void increment(Object id, String field, long delta) {
+        CounterKey key = new CounterKey(id, field);
+        while (true) {
+            Generation generation = current.get();
+            generation.inFlight.increment();
+            try {
+                // the flush may have swapped the generation before seeing this increment in flight
+                if (generation != current.get()) {
+                    continue;
+                }
+                LongAdder counter = generation.counters.get(key);
+                if (counter == null) {
+                    counter = generation.counters.computeIfAbsent(key, newKey -> {
+                        // a flush running now checks the count again once done
+                        if (generation.nbCounters.incrementAndGet() >= settings.getMaxCounters()
+                                && !flushing.get()) {
+                            scheduleFlush();
+                        }
+                        return new LongAdder();
+                    });
+                }
+                counter.add(delta);
+                return;
+            } finally {
+                generation.inFlight.decrement();
+            }
+        }
+    }
+
+    private void scheduleFlush() {
+        Schedulers.boundedElastic().schedule(() -> flush().subscribe());
+    }
+
+    /**
+     * Writes the sums of the pending increments. A flush already running is not waited for, it is followed by another
+     * one if {@code maxCounters} counters are pending once it is done.
+     *
+     * @return the number of upserted and modified documents
+     */
+    public Mono<Integer> flush() {
+        return Mono.defer(() -> flushing.compareAndSet(false, true) ? flushGeneration() : Mono.just(0));
+    }
+
+    /**
+     * Stops the periodic flushes, then writes the pending increments once the flush already running is done. The sums
+     * of a chunk failing then stay pending until an explicit flush.
+     *
+     * @return the number of upserted and modified documents of the last flush
+     */
+    public Mono<Integer> close() {
+        return Mono.defer(() -> {
+            flushes.dispose();
+            return flushAfterRunning();
+        });
+    }
+
+    private Mono<Integer> flushAfterRunning() {
+        return Mono.defer(() -> flushing.compareAndSet(false, true) ? flushGeneration()
+                : Mono.delay(RUNNING_FLUSH_POLL).then(flushAfterRunning()));
+    }
+
+    private Mono<Integer> flushGeneration() {
+        Generation flushed = current.getAndSet(new Generation());
+        // done before the result is emitted, so that a flush subscribed once it is received is not skipped
+        Runnable done = () -> {
+            flushing.set(false);
+            if (current.get().nbCounters.get() >= settings.getMaxCounters()) {
+                scheduleFlush();
+            }
+        };
+        return awaitIncrements(flushed)
+                .thenMany(Flux.defer(() -> Flux.fromIterable(toChunks(flushed))))
+                .concatMap(this::write)
+                .reduce(0, Integer::sum)
+                .doOnTerminate(done)
+                .doOnCancel(done);
+    }
+
+    /**
+     * Waits for the increments started on the swapped generation, spinning for a while then polling without blocking
+     * the thread.
+     */
+    private static Mono<Void> awaitIncrements(Generation generation) {
+        return Mono.defer(() -> {
+            for (int spins = 0; spins < IN_FLIGHT_SPINS; spins++) {
+                if (generation.inFlight.sum() == 0) {
+                    return Mono.empty();
+                }
+                Thread.onSpinWait();
+            }
+            return Mono.delay(IN_FLIGHT_POLL).then(awaitIncrements(generation));
+        });
+    }
+
+    /**
+     * { id: { field: sum } } of the non zero counters, in chunks of the writer's chunk size.
+     */
+    private List<Map<Object, Document>> toChunks(Generation generation) {
+        List<Map<Object, Document>> chunks = new ArrayList<>();
+        Map<Object, Document> chunk = new LinkedHashMap<>();
+        Map<Object, Document> incrementsById = new LinkedHashMap<>();
+        generation.counters.forEach((key, counter) -> {
+            long sum = counter.sum();
+            if (sum != 0) {
+                incrementsById.computeIfAbsent(key.id, id -> new Document()).append(key.field, sum);
+            }
+        });
+        for (Map.Entry<Object, Document> increments : incrementsById.entrySet()) {
+            chunk.put(increments.getKey(), increments.getValue());
+            if (chunk.size() == writer.getChunkSize()) {
+                chunks.add(chunk);
+                chunk = new LinkedHashMap<>();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private Mono<Integer> write(Map<Object, Document> incrementsById) {
+        UpdateQueryBuilder builder = new UpdateQueryBuilder();
+        List<Document> statements = new ArrayList<>(incrementsById.size());
+        incrementsById.forEach((id, increments) -> statements.add(builder
+                .query(writer.toIdDocument(id))
+                .addIncStage(increments)
+                .isUpsertEnabled(true)
+                .build()));
+        UpdateCommand updateCommand = UpdateCommand.builder()
+                .update(collectionName)
+                .ordered(false)
+                .bypassDocumentValidation(false)
+                .updates(statements)
+                .build();
+        List<Object> ids = new ArrayList<>(incrementsById.keySet());
+        return writer.executeWithOutcomes(updateCommand)
+                .collectList()
+                .map(outcomes -> {
+                    int nbChanges = 0;
+                    List<WriteOutcome> failures = new ArrayList<>();
+                    for (int index = 0; index < outcomes.size(); index++) {
+                        WriteOutcome outcome = outcomes.get(index);
+                        if (outcome.isFailed()) {
+                            failures.add(outcome);
+                            Object id = ids.get(index);
+                            incrementsById.get(id).forEach((field, sum) -> increment(id, field, (Long) sum));
+                        } else if (outcome.getStatus() != WriteOutcome.Status.UNCHANGED) {
+                            nbChanges++;
+                        }
+                    }
+                    if (!failures.isEmpty()) {
+                        log.error("Increments of {} counter document(s) on {} failed, retried by the next flush: {}",
+                                failures.size(), collectionName, failures.get(0).getErrorMessage());
+                    }
+                    return nbChanges;
+                });
+    }
+
+    /**
+     * @return the number of counters incremented since the last flush
+     */
+    public int pendingCounters() {
+        return current.get().nbCounters.get();
+    }
+
+    /**
+     * Closes the sink without waiting for its last flush, see {@link #close()}.
+     */
+    @Override
+    public void dispose() {
+        close().subscribe();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return flushes.isDisposed();
+    }
+}
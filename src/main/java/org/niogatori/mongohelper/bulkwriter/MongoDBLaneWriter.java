@@ -0,0 +1,122 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import org.bson.Document;
+import org.niogatori.mongohelper.batching.BatchingQueue;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import org.niogatori.mongohelper.models.WriteOutcome;
+import org.niogatori.mongohelper.models.WriteOutcomeException;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.niogatori.mongohelper.mapping.DocumentMapper.MONGO_ID;
+
+/**
+ * Writes the statements of a collection through several lanes running concurrently. Each {@code _id} is hashed to a
+ * lane, and each lane sends its statements in ordered, batched commands one after the other, so the patches of a
+ * document are applied in the order they were submitted.
+ */
+public class MongoDBLaneWriter<T> implements Disposable {
+
+    private final MongoDBBulkWriter<T> writer;
+    private final String collectionName;
+    private final List<BatchingQueue<Document>> lanes = new ArrayList<>();
+    private final Disposable.Composite subscriptions = Disposables.composite();
+
+    public MongoDBLaneWriter(MongoDBBulkWriter<T> writer, String collectionName, LaneSettings settings) {
+        this.writer = writer;
+        this.collectionName = collectionName;
+        for (int i = 0; i < settings.getLanes(); i++) {
+            BatchingQueue<Document> lane = new BatchingQueue<>(collectionName + " lane " + i,
+                    settings.getQueueDepth(), settings.getMaxBatchSize(), settings.getMaxBatchDelay(), this::write);
+            lanes.add(lane);
+            subscriptions.add(lane);
+        }
+    }
+
+    public Mono<Void> upsert(Class<T> clazz, @NonNull Map<Document, Optional<Document>> objectsToSaveById,
+            @Nullable List<String> fieldsToUnset, Map<String, Object> fieldsToSetOnInsert) {
+        return Mono.defer(() -> submit(writer.toUpdateCommand(clazz, objectsToSaveById, fieldsToUnset,
+                fieldsToSetOnInsert)));
+    }
+
+    /**
+     * Dispatches the statements of the command to their lanes.
+     *
+     * @return completes once every statement has been written, or errors when a lane is full or a statement failed or
+     *         was not executed after the failure of a previous statement of its batch
+     */
+    public Mono<Void> submit(UpdateCommand updateCommand) {
+        return Mono.defer(() -> {
+            if (!collectionName.equals(updateCommand.getUpdate())) {
+                return Mono.error(new IllegalArgumentException(
+                        "Lanes of " + collectionName + " cannot write " + updateCommand.getUpdate()));
+            }
+            List<Mono<Void>> written = new ArrayList<>();
+            for (Document statement : updateCommand.getUpdates()) {
+                written.add(lanes.get(laneOf(statement)).offer(statement));
+            }
+            return Mono.when(written);
+        });
+    }
+
+    int laneOf(Document statement) {
+        Object idValue = statement.get("q", Document.class).get(MONGO_ID);
+        return Math.floorMod(idValue == null ? 0 : idValue.hashCode(), lanes.size());
+    }
+
+    private Mono<Void> write(BatchingQueue.Batch<Document> batch) {
+        UpdateCommand updateCommand = UpdateCommand.builder()
+                .update(collectionName)
+                .ordered(true)
+                .bypassDocumentValidation(false)
+                .updates(new ArrayList<>(batch.getItems()))
+                .build();
+        return failFailedStatements(writer.executeWithOutcomes(updateCommand), batch);
+    }
+
+    /**
+     * Fails the statements of the batch by their outcome. An ordered command stops at its first failure, the statements
+     * after it are reported as not executed.
+     */
+    static Mono<Void> failFailedStatements(Flux<WriteOutcome> outcomes, BatchingQueue.Batch<?> batch) {
+        return outcomes.index()
+                .filter(outcome -> outcome.getT2().isFailed())
+                .doOnNext(outcome -> batch.fail(outcome.getT1().intValue(),
+                        new WriteOutcomeException(outcome.getT2())))
+                .then();
+    }
+
+    /**
+     * Stops accepting statements, the ones already queued are still written.
+     */
+    public void close() {
+        lanes.forEach(BatchingQueue::close);
+    }
+
+    /**
+     * @return the number of statements queued or being written in each lane
+     */
+    public List<Integer> pendingStatements() {
+        return lanes.stream().map(BatchingQueue::pending).collect(Collectors.toList());
+    }
+
+    @Override
+    public void dispose() {
+        subscriptions.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return subscriptions.isDisposed();
+    }
+}
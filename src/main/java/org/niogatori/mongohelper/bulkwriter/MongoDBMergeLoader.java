@@ -0,0 +1,149 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import com.mongodb.client.model.InsertManyOptions;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.niogatori.mongohelper.cache.CacheInvalidationRegistry;
+import org.niogatori.mongohelper.mapping.DocumentMapper;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.util.CollectionUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.niogatori.mongohelper.mapping.DocumentMapper.MONGO_ID;
+
+/**
+ * Load mode for very large upserts: the patches are inserted unordered into a temporary staging collection, then merged
+ * into the target collection on {@code _id} by a single {@code $merge} aggregation, instead of one upsert lookup per
+ * document. Requires MongoDB 4.2 or later.
+ * <p>
+ * The merge applies the same semantics as the update statements of {@link UpdateQueryBuilder} for top-level fields: the
+ * patch is set, the unset fields are removed and the setOnInsert fields are only written on insertion. The ids of a
+ * load must be unique.
+ */
+@Slf4j
+public class MongoDBMergeLoader<T> {
+
+    static final String PATCH = "patch";
+
+    private final ReactiveMongoTemplate template;
+    private final DocumentMapper documentMapper;
+
+    @Getter
+    @Setter
+    private int chunkSize = 1000;
+    @Getter
+    @Setter
+    private int concurrency = 4;
+    @Setter
+    private CacheInvalidationRegistry cacheInvalidationRegistry;
+
+    public MongoDBMergeLoader(ReactiveMongoTemplate template) {
+        this.template = template;
+        this.documentMapper = new DocumentMapper(template.getConverter());
+    }
+
+    public Mono<Long> load(Class<T> clazz, @NonNull Map<Document, Optional<Document>> objectsToSaveById,
+            @Nullable List<String> fieldsToUnset, @Nullable Map<String, Object> fieldsToSetOnInsert) {
+        return load(clazz, Flux.fromIterable(objectsToSaveById.entrySet()), fieldsToUnset, fieldsToSetOnInsert);
+    }
+
+    /**
+     * @param objectsToSaveById the {@code { _id: ... }} documents and their patches, as built for
+     *        {@link MongoDBBulkWriter#upsert}
+     * @return the number of merged documents
+     */
+    public Mono<Long> load(Class<T> clazz, Flux<Map.Entry<Document, Optional<Document>>> objectsToSaveById,
+            @Nullable List<String> fieldsToUnset, @Nullable Map<String, Object> fieldsToSetOnInsert) {
+        String collectionName = template.getCollectionName(clazz);
+        List<Document> pipeline = toMergePipeline(collectionName, fieldsToUnset,
+                documentMapper.toDocument(fieldsToSetOnInsert));
+        return Mono.usingWhen(Mono.fromSupplier(() -> collectionName + "_staging_" + UUID.randomUUID()),
+                stagingName -> stage(stagingName, objectsToSaveById)
+                        .flatMap(nbStaged -> merge(stagingName, pipeline).thenReturn(nbStaged)),
+                this::drop,
+                (stagingName, error) -> drop(stagingName),
+                this::drop)
+                .doOnNext(nbStaged -> log.debug("{} document(s) merged into {}", nbStaged, collectionName))
+                .doOnTerminate(() -> invalidateCaches(collectionName));
+    }
+
+    /**
+     * [ { $replaceWith: <document to insert> }, { $unset: [...] }, { $merge: { whenMatched: [...] } } ]
+     */
+    public List<Document> toMergePipeline(String collectionName, @Nullable List<String> fieldsToUnset,
+            @Nullable Document fieldsToSetOnInsert) {
+        Document setOnInsert = Objects.isNull(fieldsToSetOnInsert) ? new Document() : fieldsToSetOnInsert;
+        List<Document> pipeline = new ArrayList<>();
+        pipeline.add(new Document("$replaceWith", new Document("$mergeObjects", List.of(
+                new Document("$literal", setOnInsert),
+                "$" + PATCH,
+                new Document(MONGO_ID, "$" + MONGO_ID)))));
+        List<Document> whenMatched = new ArrayList<>();
+        whenMatched.add(new Document("$replaceWith", new Document("$mergeObjects", List.of("$$ROOT",
+                withoutFields("$$new", new ArrayList<>(setOnInsert.keySet()))))));
+        if (!CollectionUtils.isEmpty(fieldsToUnset)) {
+            pipeline.add(new Document("$unset", fieldsToUnset));
+            whenMatched.add(new Document("$unset", fieldsToUnset));
+        }
+        pipeline.add(new Document("$merge", new Document("into", collectionName)
+                .append("on", MONGO_ID)
+                .append("whenMatched", whenMatched)
+                .append("whenNotMatched", "insert")));
+        return pipeline;
+    }
+
+    private Mono<Long> stage(String stagingName, Flux<Map.Entry<Document, Optional<Document>>> objectsToSaveById) {
+        return template.getCollection(stagingName)
+                .flatMapMany(staging -> objectsToSaveById
+                        .map(entry -> toStagedDocument(entry.getKey(), entry.getValue().orElse(null)))
+                        .buffer(chunkSize)
+                        .flatMap(chunk -> Mono.from(staging.insertMany(chunk, new InsertManyOptions().ordered(false)))
+                                .thenReturn((long) chunk.size()), concurrency))
+                .reduce(0L, Long::sum);
+    }
+
+    private Mono<Void> merge(String stagingName, List<Document> pipeline) {
+        return template.getCollection(stagingName)
+                .flatMap(staging -> Mono.from(staging.aggregate(pipeline).allowDiskUse(true).toCollection()));
+    }
+
+    private Mono<Void> drop(String stagingName) {
+        return template.dropCollection(stagingName);
+    }
+
+    private Document toStagedDocument(Document idDocument, @Nullable Document patch) {
+        Document stagedPatch = Objects.isNull(patch) ? new Document() : patch;
+        if (stagedPatch.keySet().stream().anyMatch(field -> field.contains("."))) {
+            throw new IllegalArgumentException("Dotted paths cannot be merged, nest the fields of " + stagedPatch);
+        }
+        return new Document(MONGO_ID, idDocument.get(MONGO_ID)).append(PATCH, stagedPatch);
+    }
+
+    private void invalidateCaches(String collectionName) {
+        if (Objects.nonNull(cacheInvalidationRegistry)) {
+            cacheInvalidationRegistry.invalidateAll(collectionName);
+        }
+    }
+
+    private static Object withoutFields(String variable, List<String> fields) {
+        if (fields.isEmpty()) {
+            return variable;
+        }
+        return new Document("$arrayToObject", new Document("$filter", new Document("input",
+                new Document("$objectToArray", variable))
+                        .append("cond",
+                                new Document("$not", List.of(new Document("$in", List.of("$$this.k", fields)))))));
+    }
+}
@@ -0,0 +1,179 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import lombok.AllArgsConstructor;
+import org.bson.Document;
+import org.niogatori.mongohelper.batching.BatchingQueue;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import org.reactivestreams.Publisher;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Writes the statements of any entity through a single writer. The statements are grouped by collection, each
+ * collection batches them into ordered commands sent one after the other, and the collections are written concurrently
+ * within a global limit of commands in flight. A mixed stream of entities is thus written in full batches, and the
+ * patches of a document are applied in the order they were submitted.
+ */
+public class MongoDBWriteDispatcher implements Disposable {
+
+    private final MongoDBBulkWriter<?> writer;
+    private final Map<Class<?>, String> collectionNames = new ConcurrentHashMap<>();
+    private final BatchingQueue<DispatchedStatement> queue;
+    private final Object permitLock = new Object();
+    private final Queue<Sinks.Empty<Void>> permitWaiters = new ArrayDeque<>();
+    private int availablePermits;
+
+    @AllArgsConstructor
+    private static class DispatchedStatement {
+        private final String collectionName;
+        private final Document statement;
+    }
+
+    public MongoDBWriteDispatcher(MongoDBBulkWriter<?> writer, DispatchSettings settings) {
+        this.writer = writer;
+        this.availablePermits = settings.getMaxInFlight();
+        // the collections are batched apart, the global limit is enforced by the permits
+        this.queue = new BatchingQueue<>("dispatcher", settings.getQueueDepth(), settings.getMaxBatchSize(),
+                settings.getMaxBatchDelay(), dispatched -> dispatched.collectionName, this::write);
+    }
+
+    /**
+     * @return the collection of the class, resolved once from the mapping metadata
+     */
+    public String getCollectionName(Class<?> clazz) {
+        return collectionNames.computeIfAbsent(clazz, writer::getCollectionName);
+    }
+
+    public Mono<Void> upsert(Class<?> clazz, @NonNull Map<Document, Optional<Document>> objectsToSaveById,
+            @Nullable List<String> fieldsToUnset, Map<String, Object> fieldsToSetOnInsert) {
+        return Mono.defer(() -> submit(UpdateCommand.builder()
+                .update(getCollectionName(clazz))
+                .ordered(true)
+                .bypassDocumentValidation(false)
+                .build()
+                .withUpdates(objectsToSaveById, fieldsToUnset, writer.toDocument(fieldsToSetOnInsert), true, true)));
+    }
+
+    /**
+     * Queues the statements of the command with the ones of its collection. The other options of the command are not
+     * kept, the statements are written in ordered commands.
+     *
+     * @return completes once every statement has been written, or errors when the queue is full or a statement failed
+     *         or was not executed after the failure of a previous statement of its batch
+     */
+    public Mono<Void> submit(UpdateCommand updateCommand) {
+        return Mono.defer(() -> queue.offerAll(updateCommand.getUpdates().stream()
+                .map(statement -> new DispatchedStatement(updateCommand.getUpdate(), statement))
+                .collect(Collectors.toList())));
+    }
+
+    private Mono<Void> write(BatchingQueue.Batch<DispatchedStatement> batch) {
+        UpdateCommand updateCommand = UpdateCommand.builder()
+                .update(batch.getItems().get(0).collectionName)
+                .ordered(true)
+                .bypassDocumentValidation(false)
+                .updates(batch.getItems().stream().map(dispatched -> dispatched.statement)
+                        .collect(Collectors.toList()))
+                .build();
+        return MongoDBLaneWriter.failFailedStatements(withPermit(Flux.defer(() -> writer.executeWithOutcomes(
+                updateCommand))), batch);
+    }
+
+    /**
+     * Runs the write once it holds a permit. The permit is only released once acquired, whether the write completes,
+     * fails or is cancelled.
+     */
+    <R> Flux<R> withPermit(Publisher<R> write) {
+        return Flux.usingWhen(acquirePermit(),
+                permit -> write,
+                permit -> Mono.fromRunnable(this::releasePermit),
+                (permit, error) -> Mono.fromRunnable(this::releasePermit),
+                permit -> Mono.fromRunnable(this::releasePermit));
+    }
+
+    private Mono<Boolean> acquirePermit() {
+        return Mono.defer(() -> {
+            Sinks.Empty<Void> waiter = Sinks.empty();
+            synchronized (permitLock) {
+                if (availablePermits > 0) {
+                    availablePermits--;
+                    return Mono.just(true);
+                }
+                permitWaiters.add(waiter);
+            }
+            return waiter.asMono()
+                    .doOnCancel(() -> cancelWaiter(waiter))
+                    .thenReturn(true);
+        });
+    }
+
+    /**
+     * Forgets a cancelled waiter, or passes its permit on when it was handed one in the meantime.
+     */
+    private void cancelWaiter(Sinks.Empty<Void> waiter) {
+        synchronized (permitLock) {
+            if (permitWaiters.remove(waiter)) {
+                return;
+            }
+        }
+        releasePermit();
+    }
+
+    /**
+     * Hands the permit over to the next waiting collection, if any.
+     */
+    private void releasePermit() {
+        Sinks.Empty<Void> waiter;
+        synchronized (permitLock) {
+            waiter = permitWaiters.poll();
+            if (Objects.isNull(waiter)) {
+                availablePermits++;
+                return;
+            }
+        }
+        waiter.tryEmitEmpty();
+    }
+
+    int availablePermits() {
+        synchronized (permitLock) {
+            return availablePermits;
+        }
+    }
+
+    /**
+     * Stops accepting statements, the ones already queued are still written.
+     */
+    public void close() {
+        queue.close();
+    }
+
+    /**
+     * @return the number of statements queued or being written
+     */
+    public int pendingStatements() {
+        return queue.pending();
+    }
+
+    @Override
+    public void dispose() {
+        queue.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return queue.isDisposed();
+    }
+}
@@ -0,0 +1,45 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import org.niogatori.mongohelper.tracing.BatchTimings;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Flux;
+
+import java.util.Optional;
+
+/**
+ * Runs the generic {@code update} command built by {@link UpdateCommand#asBson()}.
+ */
+@RequiredArgsConstructor
+public class RunCommandWriteEngine implements WriteEngine {
+
+    private final ReactiveMongoTemplate template;
+
+    @Override
+    public Flux<Document> execute(UpdateCommand updateCommand) {
+        return Flux.deferContextual(context -> {
+            Optional<BatchTimings> timings = BatchTimings.from(context);
+            return template.getMongoDatabase().flatMapMany(mongoDatabase -> {
+                if (timings.isEmpty()) {
+                    return mongoDatabase.runCommand(updateCommand.asBson());
+                }
+                // encoded here rather than by the driver to time it
+                long start = System.nanoTime();
+                RawBsonDocument command = updateCommand.asRawBson(mongoDatabase.getCodecRegistry());
+                timings.get().recordEncode(System.nanoTime() - start);
+                return mongoDatabase.runCommand(command);
+            });
+        });
+    }
+
+    /**
+     * Sends the encoded command as is rather than encoding it again.
+     */
+    @Override
+    public Flux<Document> execute(UpdateCommand updateCommand, RawBsonDocument encodedCommand) {
+        return template.getMongoDatabase().flatMapMany(mongoDatabase -> mongoDatabase.runCommand(encodedCommand));
+    }
+}
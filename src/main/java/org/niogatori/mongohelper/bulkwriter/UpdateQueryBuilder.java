@@ -17,6 +17,7 @@ public class UpdateQueryBuilder {
     private Document setOperation;
     private Document unsetOperation;
     private Document setOnInsertOperation;
+    private Document incOperation;
     private boolean upsertEnabled = false;
     private boolean multiEnabled = false;
 
@@ -25,7 +26,8 @@ public class UpdateQueryBuilder {
      */
     public Document build() {
         BsonDocument updates =
-                Updates.combine(accumulateStages(setOperation, setOnInsertOperation, unsetOperation)).toBsonDocument();
+                Updates.combine(accumulateStages(setOperation, setOnInsertOperation, unsetOperation, incOperation))
+                        .toBsonDocument();
         Document result = new Document("q", query)
                 .append("u", updates)
                 .append("upsert", upsertEnabled)
@@ -40,6 +42,7 @@ public class UpdateQueryBuilder {
         this.unsetOperation = null;
         this.query = null;
         this.setOnInsertOperation = null;
+        this.incOperation = null;
     }
 
     public UpdateQueryBuilder isUpsertEnabled(boolean enable) {
@@ -96,6 +99,17 @@ public class UpdateQueryBuilder {
         return this;
     }
 
+    public UpdateQueryBuilder addIncStage(Document fieldsToIncrement) {
+        if (fieldsToIncrement != null && !fieldsToIncrement.isEmpty()) {
+            if (this.incOperation == null) {
+                this.incOperation = new Document("$inc", new Document(fieldsToIncrement));
+            } else {
+                fieldsToIncrement.forEach(this.incOperation.get("$inc", Document.class)::append);
+            }
+        }
+        return this;
+    }
+
     private List<Document> accumulateStages(Document... stages) {
         return Arrays.stream(stages)
                 .filter(Objects::nonNull)
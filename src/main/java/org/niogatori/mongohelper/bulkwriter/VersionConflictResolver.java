@@ -0,0 +1,24 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import org.bson.Document;
+import reactor.util.annotation.Nullable;
+
+import java.util.Optional;
+
+/**
+ * Re-applies the patch of a versioned write that lost the race against another writer.
+ */
+@FunctionalInterface
+public interface VersionConflictResolver {
+
+    /**
+     * Re-applies the patch as is.
+     */
+    VersionConflictResolver REAPPLY = (current, patch) -> Optional.of(patch);
+
+    /**
+     * @param current the document as re-read after the conflict, null if it was deleted since
+     * @return the patch to write with the current version, or empty to report the conflict
+     */
+    Optional<Document> resolve(@Nullable Document current, Document patch);
+}
@@ -0,0 +1,26 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import reactor.core.publisher.Flux;
+
+/**
+ * Sends the statements of an update command to the server.
+ */
+public interface WriteEngine {
+
+    /**
+     * @return the replies in the shape of the {@code update} command reply: {@code n}, {@code nModified},
+     *         {@code upserted} and {@code writeErrors}
+     */
+    Flux<Document> execute(UpdateCommand updateCommand);
+
+    /**
+     * Same as {@link #execute(UpdateCommand)} for a command that was already encoded, by default the encoded bytes are
+     * ignored.
+     */
+    default Flux<Document> execute(UpdateCommand updateCommand, RawBsonDocument encodedCommand) {
+        return execute(updateCommand);
+    }
+}
@@ -0,0 +1,46 @@
+package org.niogatori.mongohelper.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Local caches to evict when their collection is written.
+ */
+@Slf4j
+public class CacheInvalidationRegistry {
+
+    private final Map<String, List<InvalidatableCache>> cachesByCollection = new ConcurrentHashMap<>();
+
+    public void register(InvalidatableCache cache) {
+        cachesByCollection.computeIfAbsent(cache.getCollectionName(), name -> new CopyOnWriteArrayList<>()).add(cache);
+    }
+
+    public void unregister(InvalidatableCache cache) {
+        cachesByCollection.getOrDefault(cache.getCollectionName(), List.of()).remove(cache);
+    }
+
+    public Set<String> getCollectionNames() {
+        return cachesByCollection.keySet();
+    }
+
+    public boolean hasCaches(String collectionName) {
+        return !cachesByCollection.getOrDefault(collectionName, List.of()).isEmpty();
+    }
+
+    public void invalidate(String collectionName, Collection<Object> idValues) {
+        if (!idValues.isEmpty()) {
+            cachesByCollection.getOrDefault(collectionName, List.of()).forEach(cache -> cache.invalidate(idValues));
+        }
+    }
+
+    public void invalidateAll(String collectionName) {
+        log.debug("Flushing the caches of {}", collectionName);
+        cachesByCollection.getOrDefault(collectionName, List.of()).forEach(InvalidatableCache::invalidateAll);
+    }
+}
@@ -0,0 +1,20 @@
+package org.niogatori.mongohelper.cache;
+
+import com.github.benmanes.caffeine.cache.Weigher;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+@Getter
+@Builder
+public class CacheSettings<T> {
+    @Builder.Default
+    private final long maximumSize = 10_000;
+    /**
+     * Replaces the maximum size when greater than 0, a weigher is then required.
+     */
+    private final long maximumWeight;
+    private final Weigher<Object, T> weigher;
+    private final Duration expireAfterWrite;
+}
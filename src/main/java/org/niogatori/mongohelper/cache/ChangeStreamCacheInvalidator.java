@@ -0,0 +1,153 @@
+package org.niogatori.mongohelper.cache;
+
+import com.mongodb.MongoServerException;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.reactivestreams.client.ChangeStreamPublisher;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.Nullable;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tails a change stream per watched collection and evicts the changed ids from the caches of the registry, so the
+ * writes of other nodes invalidate the local caches too. The resume tokens are checkpointed in a
+ * {@link ResumeTokenStore}; when no token can be resumed the caches of the collection are flushed instead.
+ */
+@Slf4j
+public class ChangeStreamCacheInvalidator {
+
+    // InvalidResumeToken, ChangeStreamFatalError, ChangeStreamHistoryLost
+    static final Set<Integer> LOST_TOKEN_CODES = Set.of(260, 280, 286);
+    private static final Set<OperationType> FLUSHING_OPERATIONS = Set.of(OperationType.DROP, OperationType.RENAME,
+            OperationType.DROP_DATABASE, OperationType.INVALIDATE);
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
+    private final ReactiveMongoTemplate template;
+    private final CacheInvalidationRegistry registry;
+    private final ResumeTokenStore tokenStore;
+    private final Map<String, Disposable> subscriptions = new ConcurrentHashMap<>();
+
+    @Setter
+    private Duration checkpointInterval = Duration.ofSeconds(1);
+    @Setter
+    private Duration maxRetryBackoff = Duration.ofSeconds(30);
+    // only keeps the fields used to evict the caches in the events
+    @Setter
+    private boolean projected = true;
+
+    public ChangeStreamCacheInvalidator(ReactiveMongoTemplate template, CacheInvalidationRegistry registry,
+            ResumeTokenStore tokenStore) {
+        this.template = template;
+        this.registry = registry;
+        this.tokenStore = tokenStore;
+    }
+
+    /**
+     * Watches every collection having caches in the registry.
+     */
+    public void start() {
+        registry.getCollectionNames().forEach(this::watch);
+    }
+
+    public Disposable watch(String collectionName) {
+        return subscriptions.computeIfAbsent(collectionName, name -> invalidations(name)
+                .subscribe(null, error -> log.error("Stopped watching {}", name, error)));
+    }
+
+    public void stop() {
+        subscriptions.values().forEach(Disposable::dispose);
+        subscriptions.clear();
+    }
+
+    /**
+     * @return never completes, a stream invalidated by a drop or a rename is reopened
+     */
+    Flux<Void> invalidations(String collectionName) {
+        AtomicLong lastCheckpoint = new AtomicLong(System.nanoTime());
+        return tokenStore.load(collectionName)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMapMany(resumeToken -> {
+                    if (resumeToken.isEmpty()) {
+                        // the writes done while nobody was watching are unknown
+                        registry.invalidateAll(collectionName);
+                    }
+                    return openStream(collectionName, resumeToken.orElse(null));
+                })
+                .concatMap(event -> handle(collectionName, event, lastCheckpoint))
+                .onErrorResume(ChangeStreamCacheInvalidator::isLostToken, error -> {
+                    log.warn("Resume token of {} lost, flushing its caches", collectionName, error);
+                    registry.invalidateAll(collectionName);
+                    return tokenStore.delete(collectionName).then(Mono.error(error));
+                })
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofMillis(100))
+                        .maxBackoff(maxRetryBackoff)
+                        .doBeforeRetry(signal -> log.warn("Change stream of {} failed, resuming", collectionName,
+                                signal.failure())))
+                .repeat();
+    }
+
+    Mono<Void> handle(String collectionName, ChangeStreamDocument<Document> event, AtomicLong lastCheckpoint) {
+        if (FLUSHING_OPERATIONS.contains(event.getOperationType())) {
+            registry.invalidateAll(collectionName);
+            // an invalidate token cannot be resumed after
+            return tokenStore.delete(collectionName);
+        }
+        BsonDocument documentKey = event.getDocumentKey();
+        if (Objects.nonNull(documentKey) && documentKey.containsKey("_id")) {
+            registry.invalidate(collectionName, List.of(toIdValue(documentKey.get("_id"))));
+        }
+        long now = System.nanoTime();
+        long last = lastCheckpoint.get();
+        if (now - last >= checkpointInterval.toNanos() && lastCheckpoint.compareAndSet(last, now)) {
+            // replaying the events after the checkpoint on restart is harmless, evictions are idempotent
+            return tokenStore.save(collectionName, event.getResumeToken());
+        }
+        return Mono.empty();
+    }
+
+    private Flux<ChangeStreamDocument<Document>> openStream(String collectionName, @Nullable BsonDocument token) {
+        return template.getCollection(collectionName).flatMapMany(collection -> {
+            ChangeStreamPublisher<Document> publisher = projected
+                    ? collection.watch(List.of(Aggregates.project(Projections.include("operationType",
+                            "documentKey", "updateDescription"))))
+                    : collection.watch();
+            return Objects.isNull(token) ? publisher : publisher.resumeAfter(token);
+        });
+    }
+
+    /**
+     * Decodes an {@code _id} like the documents read by the bulk reader, so it matches the cache keys.
+     */
+    static Object toIdValue(BsonValue id) {
+        return DOCUMENT_CODEC.decode(new BsonDocumentReader(new BsonDocument("_id", id)),
+                DecoderContext.builder().build()).get("_id");
+    }
+
+    private static boolean isLostToken(Throwable error) {
+        return error instanceof MongoServerException
+                && LOST_TOKEN_CODES.contains(((MongoServerException) error).getCode());
+    }
+}
@@ -0,0 +1,15 @@
+package org.niogatori.mongohelper.cache;
+
+import java.util.Collection;
+
+/**
+ * Local cache of documents keyed by their encoded {@code _id} value.
+ */
+public interface InvalidatableCache {
+
+    String getCollectionName();
+
+    void invalidate(Collection<Object> idValues);
+
+    void invalidateAll();
+}
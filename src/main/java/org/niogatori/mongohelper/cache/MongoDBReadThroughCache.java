@@ -0,0 +1,142 @@
+package org.niogatori.mongohelper.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.Getter;
+import org.niogatori.mongohelper.bulkreader.MongoDBBulkReader;
+import org.niogatori.mongohelper.mapping.DocumentMapper;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded read-through cache of the documents of one collection, keyed by their encoded {@code _id}. Register it in the
+ * {@link CacheInvalidationRegistry} of the bulk writer to evict the documents it writes.
+ */
+public class MongoDBReadThroughCache<T> implements InvalidatableCache {
+
+    @Getter
+    private final String collectionName;
+    private final DocumentMapper documentMapper;
+    private final Function<Object, Mono<T>> loader;
+    private final Cache<Object, T> cache;
+    // stamps of the ids being loaded, bumped when they are invalidated so a load started before a write never caches
+    // the value it read, without discarding the loads of the other ids
+    private final Map<Object, LoadStamp> loadStamps = new ConcurrentHashMap<>();
+    // bumped when the whole cache is invalidated
+    private final AtomicLong generation = new AtomicLong();
+
+    public MongoDBReadThroughCache(MongoDBBulkReader<T> reader, Class<T> clazz, CacheSettings<T> settings) {
+        this(reader, clazz, settings, idValue -> reader.findChunk(reader.getCollectionName(clazz), List.of(idValue),
+                null)
+                .flatMap(found -> Mono.justOrEmpty(found.get(idValue)))
+                .map(document -> reader.getDocumentMapper().read(clazz, document)));
+    }
+
+    /**
+     * @param loader reads the document of an encoded id, like {@code MongoDBLoadCoalescer::load}
+     */
+    public MongoDBReadThroughCache(MongoDBBulkReader<T> reader, Class<T> clazz, CacheSettings<T> settings,
+            Function<Object, Mono<T>> loader) {
+        this.collectionName = reader.getCollectionName(clazz);
+        this.documentMapper = reader.getDocumentMapper();
+        this.loader = loader;
+        this.cache = buildCache(settings);
+    }
+
+    public Mono<T> get(Object id) {
+        return Mono.defer(() -> {
+            Object idValue = documentMapper.toIdValue(id);
+            T cached = cache.getIfPresent(idValue);
+            if (Objects.nonNull(cached)) {
+                return Mono.just(cached);
+            }
+            long loadGeneration = generation.get();
+            long loadStamp = loadStamps.compute(idValue, (key, stamp) -> Objects.isNull(stamp) ? new LoadStamp()
+                    : stamp.retain()).stamp;
+            return loader.apply(idValue)
+                    .doOnNext(document -> loadStamps.computeIfPresent(idValue, (key, stamp) -> {
+                        if (stamp.stamp == loadStamp && generation.get() == loadGeneration) {
+                            cache.put(idValue, document);
+                        }
+                        return stamp;
+                    }))
+                    .doFinally(signal -> loadStamps.computeIfPresent(idValue, (key, stamp) -> stamp.release()));
+        });
+    }
+
+    @Override
+    public void invalidate(Collection<Object> idValues) {
+        idValues.forEach(idValue -> loadStamps.computeIfPresent(idValue, (key, stamp) -> stamp.bump()));
+        cache.invalidateAll(idValues);
+    }
+
+    @Override
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        cache.cleanUp();
+        return cache.estimatedSize();
+    }
+
+    /**
+     * @return the hit, miss and eviction counters
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public void bindTo(MeterRegistry meterRegistry) {
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, collectionName);
+    }
+
+    /**
+     * Invalidation stamp of an id, shared by its loads in flight. Only changed under the lock of its map entry.
+     */
+    private static class LoadStamp {
+        private long stamp;
+        private int nbLoads = 1;
+
+        private LoadStamp retain() {
+            nbLoads++;
+            return this;
+        }
+
+        private LoadStamp release() {
+            return --nbLoads == 0 ? null : this;
+        }
+
+        private LoadStamp bump() {
+            stamp++;
+            return this;
+        }
+    }
+
+    private static <T> Cache<Object, T> buildCache(CacheSettings<T> settings) {
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().recordStats();
+        if (Objects.nonNull(settings.getExpireAfterWrite())) {
+            builder.expireAfterWrite(settings.getExpireAfterWrite());
+        }
+        if (settings.getMaximumWeight() > 0) {
+            if (Objects.isNull(settings.getWeigher())) {
+                throw new IllegalArgumentException("A weigher is required to bound the cache by weight");
+            }
+            return builder.maximumWeight(settings.getMaximumWeight())
+                    .weigher(settings.getWeigher())
+                    .build();
+        }
+        return builder.maximumSize(settings.getMaximumSize()).build();
+    }
+}
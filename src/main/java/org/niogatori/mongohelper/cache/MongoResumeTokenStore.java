@@ -0,0 +1,58 @@
+package org.niogatori.mongohelper.cache;
+
+import com.mongodb.client.model.ReplaceOptions;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Mono;
+
+/**
+ * Stores the resume tokens in a MongoDB collection, one document per node and watched collection. Each node keeps its
+ * own tokens because each one has to see every change to evict its local caches.
+ */
+public class MongoResumeTokenStore implements ResumeTokenStore {
+
+    public static final String DEFAULT_COLLECTION = "mongoHelperResumeTokens";
+
+    private final ReactiveMongoTemplate template;
+    private final String storeCollectionName;
+    private final String nodeId;
+
+    public MongoResumeTokenStore(ReactiveMongoTemplate template, String nodeId) {
+        this(template, DEFAULT_COLLECTION, nodeId);
+    }
+
+    public MongoResumeTokenStore(ReactiveMongoTemplate template, String storeCollectionName, String nodeId) {
+        this.template = template;
+        this.storeCollectionName = storeCollectionName;
+        this.nodeId = nodeId;
+    }
+
+    @Override
+    public Mono<BsonDocument> load(String collectionName) {
+        return template.getCollection(storeCollectionName)
+                .flatMap(collection -> Mono.from(collection.find(toId(collectionName)).first()))
+                .map(document -> document.get("resumeToken", Document.class).toBsonDocument());
+    }
+
+    @Override
+    public Mono<Void> save(String collectionName, BsonDocument resumeToken) {
+        Document id = toId(collectionName);
+        return template.getCollection(storeCollectionName)
+                .flatMap(collection -> Mono.from(collection.replaceOne(id,
+                        new Document(id).append("resumeToken", resumeToken),
+                        new ReplaceOptions().upsert(true))))
+                .then();
+    }
+
+    @Override
+    public Mono<Void> delete(String collectionName) {
+        return template.getCollection(storeCollectionName)
+                .flatMap(collection -> Mono.from(collection.deleteOne(toId(collectionName))))
+                .then();
+    }
+
+    private Document toId(String collectionName) {
+        return new Document("_id", new Document("node", nodeId).append("collection", collectionName));
+    }
+}
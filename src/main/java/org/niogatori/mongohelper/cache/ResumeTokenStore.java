@@ -0,0 +1,16 @@
+package org.niogatori.mongohelper.cache;
+
+import org.bson.BsonDocument;
+import reactor.core.publisher.Mono;
+
+/**
+ * Persists the last change stream resume token of each watched collection.
+ */
+public interface ResumeTokenStore {
+
+    Mono<BsonDocument> load(String collectionName);
+
+    Mono<Void> save(String collectionName, BsonDocument resumeToken);
+
+    Mono<Void> delete(String collectionName);
+}
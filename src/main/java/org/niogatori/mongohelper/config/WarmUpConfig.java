@@ -0,0 +1,20 @@
+package org.niogatori.mongohelper.config;
+
+import org.niogatori.mongohelper.warmup.MongoDBWarmUp;
+import org.niogatori.mongohelper.warmup.WarmUpProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+@Configuration
+@EnableConfigurationProperties(WarmUpProperties.class)
+public class WarmUpConfig {
+
+    @Bean
+    @ConditionalOnProperty(prefix = "mongo-helper.warm-up", name = "enabled", havingValue = "true")
+    MongoDBWarmUp mongoDBWarmUp(ReactiveMongoTemplate reactiveMongoTemplate, WarmUpProperties properties) {
+        return new MongoDBWarmUp(reactiveMongoTemplate, properties);
+    }
+}
@@ -0,0 +1,200 @@
+package org.niogatori.mongohelper.mapping;
+
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.types.Decimal128;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Orders values like the MongoDB server does in its indexes: first by type, in the BSON comparison order, then by
+ * value. Numbers of any type compare by their numeric value and strings by their UTF-8 bytes.
+ */
+public class BsonValueComparator implements Comparator<BsonValue> {
+
+    public static final BsonValueComparator INSTANCE = new BsonValueComparator();
+
+    @Override
+    public int compare(BsonValue first, BsonValue second) {
+        int byType = Integer.compare(typeOrder(first.getBsonType()), typeOrder(second.getBsonType()));
+        if (byType != 0) {
+            return byType;
+        }
+        switch (first.getBsonType()) {
+            case INT32:
+            case INT64:
+            case DOUBLE:
+            case DECIMAL128:
+                return compareNumbers(first, second);
+            case STRING:
+            case SYMBOL:
+                return compareBytes(stringValue(first).getBytes(StandardCharsets.UTF_8),
+                        stringValue(second).getBytes(StandardCharsets.UTF_8));
+            case DOCUMENT:
+                return compareDocuments(first.asDocument(), second.asDocument());
+            case ARRAY:
+                return compareArrays(first.asArray().getValues(), second.asArray().getValues());
+            case BINARY:
+                return compareBinaries(first.asBinary(), second.asBinary());
+            case OBJECT_ID:
+                return first.asObjectId().getValue().compareTo(second.asObjectId().getValue());
+            case BOOLEAN:
+                return Boolean.compare(first.asBoolean().getValue(), second.asBoolean().getValue());
+            case DATE_TIME:
+                return Long.compare(first.asDateTime().getValue(), second.asDateTime().getValue());
+            case TIMESTAMP:
+                return first.asTimestamp().compareTo(second.asTimestamp());
+            case REGULAR_EXPRESSION:
+                return compareRegularExpressions(first.asRegularExpression(), second.asRegularExpression());
+            default:
+                // MinKey, MaxKey, null and undefined have a single value
+                return 0;
+        }
+    }
+
+    private static int typeOrder(BsonType type) {
+        switch (type) {
+            case MIN_KEY:
+                return 0;
+            case UNDEFINED:
+            case NULL:
+                return 1;
+            case INT32:
+            case INT64:
+            case DOUBLE:
+            case DECIMAL128:
+                return 2;
+            case STRING:
+            case SYMBOL:
+                return 3;
+            case DOCUMENT:
+                return 4;
+            case ARRAY:
+                return 5;
+            case BINARY:
+                return 6;
+            case OBJECT_ID:
+                return 7;
+            case BOOLEAN:
+                return 8;
+            case DATE_TIME:
+                return 9;
+            case TIMESTAMP:
+                return 10;
+            case REGULAR_EXPRESSION:
+                return 11;
+            case MAX_KEY:
+                return 13;
+            default:
+                // DBPointer, JavaScript and others, rarely used as keys
+                return 12;
+        }
+    }
+
+    private static int compareNumbers(BsonValue first, BsonValue second) {
+        if (first.isDecimal128() || second.isDecimal128()) {
+            BigDecimal firstDecimal = toBigDecimal(first);
+            BigDecimal secondDecimal = toBigDecimal(second);
+            if (firstDecimal != null && secondDecimal != null) {
+                return firstDecimal.compareTo(secondDecimal);
+            }
+            return Double.compare(toDouble(first), toDouble(second));
+        }
+        if (first.isDouble() || second.isDouble()) {
+            return Double.compare(first.asNumber().doubleValue(), second.asNumber().doubleValue());
+        }
+        return Long.compare(first.asNumber().longValue(), second.asNumber().longValue());
+    }
+
+    /**
+     * @return null for NaN and infinities
+     */
+    private static BigDecimal toBigDecimal(BsonValue number) {
+        if (number.isDecimal128()) {
+            Decimal128 decimal = number.asDecimal128().getValue();
+            if (decimal.isNaN() || decimal.isInfinite()) {
+                return null;
+            }
+            try {
+                return decimal.bigDecimalValue();
+            } catch (ArithmeticException e) {
+                // negative zero
+                return BigDecimal.ZERO;
+            }
+        }
+        if (number.isDouble()) {
+            double value = number.asDouble().getValue();
+            return Double.isFinite(value) ? new BigDecimal(value) : null;
+        }
+        return BigDecimal.valueOf(number.asNumber().longValue());
+    }
+
+    private static double toDouble(BsonValue number) {
+        return number.isDecimal128() ? number.asDecimal128().getValue().doubleValue()
+                : number.asNumber().doubleValue();
+    }
+
+    private static String stringValue(BsonValue value) {
+        return value.isSymbol() ? value.asSymbol().getSymbol() : value.asString().getValue();
+    }
+
+    private int compareDocuments(BsonDocument first, BsonDocument second) {
+        Iterator<Map.Entry<String, BsonValue>> firstFields = first.entrySet().iterator();
+        Iterator<Map.Entry<String, BsonValue>> secondFields = second.entrySet().iterator();
+        while (firstFields.hasNext() && secondFields.hasNext()) {
+            Map.Entry<String, BsonValue> firstField = firstFields.next();
+            Map.Entry<String, BsonValue> secondField = secondFields.next();
+            int result = Integer.compare(typeOrder(firstField.getValue().getBsonType()),
+                    typeOrder(secondField.getValue().getBsonType()));
+            if (result == 0) {
+                result = compareBytes(firstField.getKey().getBytes(StandardCharsets.UTF_8),
+                        secondField.getKey().getBytes(StandardCharsets.UTF_8));
+            }
+            if (result == 0) {
+                result = compare(firstField.getValue(), secondField.getValue());
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Boolean.compare(firstFields.hasNext(), secondFields.hasNext());
+    }
+
+    private int compareArrays(List<BsonValue> first, List<BsonValue> second) {
+        for (int i = 0; i < Math.min(first.size(), second.size()); i++) {
+            int result = compare(first.get(i), second.get(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(first.size(), second.size());
+    }
+
+    private static int compareBinaries(BsonBinary first, BsonBinary second) {
+        int result = Integer.compare(first.getData().length, second.getData().length);
+        if (result == 0) {
+            result = Integer.compare(Byte.toUnsignedInt(first.getType()), Byte.toUnsignedInt(second.getType()));
+        }
+        return result == 0 ? compareBytes(first.getData(), second.getData()) : result;
+    }
+
+    private static int compareRegularExpressions(BsonRegularExpression first, BsonRegularExpression second) {
+        int result = compareBytes(first.getPattern().getBytes(StandardCharsets.UTF_8),
+                second.getPattern().getBytes(StandardCharsets.UTF_8));
+        return result == 0 ? compareBytes(first.getOptions().getBytes(StandardCharsets.UTF_8),
+                second.getOptions().getBytes(StandardCharsets.UTF_8)) : result;
+    }
+
+    private static int compareBytes(byte[] first, byte[] second) {
+        return Arrays.compareUnsigned(first, second);
+    }
+}
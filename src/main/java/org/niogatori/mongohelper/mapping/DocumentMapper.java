@@ -0,0 +1,113 @@
+package org.niogatori.mongohelper.mapping;
+
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.mapping.PersistentPropertyPath;
+import org.springframework.data.mapping.context.MappingContext;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import reactor.util.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Converts Java objects into the BSON documents sent by the bulk writer and reader.
+ */
+@RequiredArgsConstructor
+public class DocumentMapper {
+
+    public static final String CLASS_KEY = "_class";
+    public static final String MONGO_ID = "_id";
+
+    private final MongoConverter converter;
+
+    public Document toDocument(Object objectToSave) {
+        Document document = new Document();
+        converter.write(objectToSave, document);
+        document.remove(CLASS_KEY);
+        document.remove(MONGO_ID);
+        return document;
+    }
+
+    /**
+     * Encodes only the properties of the field mask, as {@code $set} fields. The nested values are flattened into
+     * dotted paths like {@code partialObject.nbItems}, so that setting them keeps the sibling fields of the stored
+     * document, and their null fields are skipped.
+     *
+     * @param fieldMask paths of the properties to encode, like {@code name} or {@code partialObject.nbItems}
+     */
+    public Document toDocument(Object objectToSave, Collection<String> fieldMask) {
+        MappingContext<? extends MongoPersistentEntity<?>, MongoPersistentProperty> mappingContext =
+                converter.getMappingContext();
+        Document document = new Document();
+        for (String propertyPath : fieldMask) {
+            PersistentPropertyPath<MongoPersistentProperty> path =
+                    mappingContext.getPersistentPropertyPath(propertyPath, objectToSave.getClass());
+            Object value = objectToSave;
+            for (MongoPersistentProperty property : path) {
+                value = Objects.isNull(value) ? null
+                        : mappingContext.getRequiredPersistentEntity(property.getOwner().getType())
+                                .getPropertyAccessor(value)
+                                .getProperty(property);
+            }
+            Object encoded = Objects.isNull(value) ? null
+                    : converter.convertToMongoType(value, path.getRequiredLeafProperty().getTypeInformation());
+            flatten(path.toDotPath(MongoPersistentProperty::getFieldName), encoded, document);
+        }
+        document.remove(MONGO_ID);
+        return document;
+    }
+
+    private static void flatten(String fieldPath, @Nullable Object value, Document flattened) {
+        if (!(value instanceof Document)) {
+            flattened.append(fieldPath, value);
+            return;
+        }
+        ((Document) value).forEach((field, nestedValue) -> {
+            if (!CLASS_KEY.equals(field) && Objects.nonNull(nestedValue)) {
+                flatten(fieldPath + "." + field, nestedValue, flattened);
+            }
+        });
+    }
+
+    public Document toIdDocument(Object id) {
+        return new Document(MONGO_ID, toIdValue(id));
+    }
+
+    /**
+     * Encodes an id as stored in the {@code _id} field. Documents in the {@code { _id: <value> }} format returned by
+     * {@link #toIdDocument(Object)} are unwrapped.
+     */
+    public Object toIdValue(Object id) {
+        if (id instanceof Document && ((Document) id).size() == 1 && ((Document) id).containsKey(MONGO_ID)) {
+            return ((Document) id).get(MONGO_ID);
+        }
+        if (isSimpleType(id.getClass())) {
+            return converter.convertToMongoType(id);
+        }
+        Document idDocument = new Document();
+        converter.write(id, idDocument);
+        idDocument.remove(CLASS_KEY);
+        return idDocument;
+    }
+
+    /**
+     * @return the field of the {@code @Version} property of the class, if it has one
+     */
+    public Optional<String> getVersionField(Class<?> clazz) {
+        return Optional.ofNullable(converter.getMappingContext().getPersistentEntity(clazz))
+                .map(MongoPersistentEntity::getVersionProperty)
+                .map(MongoPersistentProperty::getFieldName);
+    }
+
+    private boolean isSimpleType(Class<?> type) {
+        return converter.getMappingContext().getPersistentEntity(type) == null;
+    }
+
+    public <T> T read(Class<T> clazz, Document document) {
+        return converter.read(clazz, document);
+    }
+}
@@ -0,0 +1,20 @@
+package org.niogatori.mongohelper.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Objects;
+
+/**
+ * Document found for a requested id, {@code document} is null when nothing matches the id.
+ */
+@Data
+@AllArgsConstructor
+public class BulkReadResult<T> {
+    private Object id;
+    private T document;
+
+    public boolean isFound() {
+        return Objects.nonNull(document);
+    }
+}
@@ -1,26 +1,44 @@
 package org.niogatori.mongohelper.models;
 
+import com.mongodb.MongoClientSettings;
 import com.mongodb.WriteConcern;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import org.bson.BsonDocument;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecRegistry;
 import org.niogatori.mongohelper.bulkwriter.UpdateQueryBuilder;
+import org.niogatori.mongohelper.mapping.BsonValueComparator;
 import reactor.util.annotation.NonNull;
 import reactor.util.annotation.Nullable;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static org.niogatori.mongohelper.mapping.DocumentMapper.MONGO_ID;
+
 @EqualsAndHashCode
-@Builder
+@Builder(toBuilder = true)
 @AllArgsConstructor
 @Data
 public class UpdateCommand {
+    private static final Codec<Document> DOCUMENT_CODEC =
+            MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+
     private String update;
     private List<Document> updates;
     private boolean ordered;
@@ -42,6 +60,52 @@ public class UpdateCommand {
         return updateCommand;
     }
 
+    public RawBsonDocument asRawBson() {
+        return new RawBsonDocument(asBson(), DOCUMENT_CODEC);
+    }
+
+    public RawBsonDocument asRawBson(CodecRegistry codecRegistry) {
+        return new RawBsonDocument(asBson(), codecRegistry.get(Document.class));
+    }
+
+    public int bsonSize() {
+        return asRawBson().getByteBuffer().remaining();
+    }
+
+    public static UpdateCommand fromBson(@NonNull Document updateCommand) {
+        return UpdateCommand.builder()
+                .update(updateCommand.getString("update"))
+                .updates(updateCommand.getList("updates", Document.class))
+                .ordered(updateCommand.getBoolean("ordered", true))
+                .bypassDocumentValidation(updateCommand.getBoolean("bypassDocumentValidation", false))
+                .let(updateCommand.get("let", Document.class))
+                .comment(updateCommand.getString("comment"))
+                .writeConcern(toWriteConcern(updateCommand.get("writeConcern")))
+                .build();
+    }
+
+    private static WriteConcern toWriteConcern(@Nullable Object writeConcern) {
+        if (Objects.isNull(writeConcern)) {
+            return null;
+        }
+        BsonDocument document = writeConcern instanceof BsonDocument ? (BsonDocument) writeConcern
+                : ((Document) writeConcern).toBsonDocument();
+        BsonValue w = document.get("w");
+        WriteConcern result = WriteConcern.ACKNOWLEDGED;
+        if (w != null && w.isNumber()) {
+            result = new WriteConcern(w.asNumber().intValue());
+        } else if (w != null && w.isString()) {
+            result = new WriteConcern(w.asString().getValue());
+        }
+        if (document.containsKey("wtimeout")) {
+            result = result.withWTimeout(document.getNumber("wtimeout").longValue(), TimeUnit.MILLISECONDS);
+        }
+        if (document.containsKey("j")) {
+            result = result.withJournal(document.getBoolean("j").getValue());
+        }
+        return result;
+    }
+
     public UpdateCommand withUpdates(@NonNull Map<Document, Optional<Document>> objectsToSaveById,
             @Nullable List<String> fieldsToUnset, Document fieldsToSetOnInsert, boolean upsertEnabled,
             boolean multiEnabled) {
@@ -58,6 +122,153 @@ public class UpdateCommand {
         return this;
     }
 
+    /**
+     * Builds upsert statements applied only if the document still has the expected version, and incrementing it:
+     * 
+     * <pre>
+     * { q: { _id: ..., version: <expected> }, u: { $set: ..., $inc: { version: 1 } }, upsert: true }
+     * </pre>
+     * 
+     * A document without expected version must not exist yet. When the version changed, the upsert fails with a
+     * duplicate key error on {@code _id} at the index of the statement. The version field of the patches is ignored.
+     */
+    public UpdateCommand withVersionedUpdates(@NonNull Map<Document, Optional<Document>> objectsToSaveById,
+            @NonNull Map<Document, Long> expectedVersions, @NonNull String versionField,
+            @Nullable List<String> fieldsToUnset, @Nullable Document fieldsToSetOnInsert) {
+        Document setOnInsert = withoutField(fieldsToSetOnInsert, versionField);
+        this.updates = objectsToSaveById.entrySet().stream()
+                .map(entry -> new UpdateQueryBuilder()
+                        .query(new Document(entry.getKey()).append(versionField,
+                                expectedVersions.containsKey(entry.getKey()) ? expectedVersions.get(entry.getKey())
+                                        : new Document("$exists", false)))
+                        .addSetStage(withoutField(entry.getValue().orElse(null), versionField))
+                        .addUnsetStage(fieldsToUnset)
+                        .addSetOnInsertStage(setOnInsert)
+                        .addIncStage(new Document(versionField, 1))
+                        .isUpsertEnabled(true)
+                        .build())
+                .collect(Collectors.toList());
+        return this;
+    }
+
+    private static Document withoutField(@Nullable Document document, String field) {
+        if (Objects.isNull(document) || !document.containsKey(field)) {
+            return document;
+        }
+        Document copy = new Document(document);
+        copy.remove(field);
+        return copy;
+    }
+
+    /**
+     * Groups the entries whose patch encodes to the same bytes. The existing ids of a group are updated together by
+     * {@code multi} statements on {@code _id: { $in: [...] }}, of at most {@code maxIdsPerStatement} ids, and the other
+     * ids are upserted one by one.
+     *
+     * @param existingIdValues the encoded {@code _id} values found in the collection
+     */
+    public UpdateCommand withGroupedUpdates(@NonNull Map<Document, Optional<Document>> objectsToSaveById,
+            @NonNull Set<BsonValue> existingIdValues, @Nullable List<String> fieldsToUnset,
+            @Nullable Document fieldsToSetOnInsert, int maxIdsPerStatement) {
+        Map<ByteBuffer, List<Map.Entry<Document, Optional<Document>>>> existingByPatch = new LinkedHashMap<>();
+        List<Document> upserts = new ArrayList<>();
+        boolean unsetting = Objects.nonNull(fieldsToUnset) && !fieldsToUnset.isEmpty();
+        for (Map.Entry<Document, Optional<Document>> entry : objectsToSaveById.entrySet()) {
+            // a multi statement needs update operators
+            boolean groupable = unsetting || entry.getValue().filter(patch -> !patch.isEmpty()).isPresent();
+            if (groupable && existingIdValues.contains(entry.getKey().toBsonDocument().get(MONGO_ID))) {
+                ByteBuffer patch = new RawBsonDocument(entry.getValue().orElseGet(Document::new), DOCUMENT_CODEC)
+                        .getByteBuffer().asNIO();
+                existingByPatch.computeIfAbsent(patch, key -> new ArrayList<>()).add(entry);
+            } else {
+                upserts.add(toUpsertStatement(entry, fieldsToUnset, fieldsToSetOnInsert));
+            }
+        }
+        List<Document> statements = new ArrayList<>();
+        for (List<Map.Entry<Document, Optional<Document>>> group : existingByPatch.values()) {
+            for (int from = 0; from < group.size(); from += maxIdsPerStatement) {
+                List<Map.Entry<Document, Optional<Document>>> ids =
+                        group.subList(from, Math.min(from + maxIdsPerStatement, group.size()));
+                // a single id is still upserted in case it was deleted since
+                statements.add(ids.size() == 1 ? toUpsertStatement(ids.get(0), fieldsToUnset, fieldsToSetOnInsert)
+                        : toGroupedStatement(ids, fieldsToUnset));
+            }
+        }
+        statements.addAll(upserts);
+        this.updates = statements;
+        return this;
+    }
+
+    private static Document toUpsertStatement(Map.Entry<Document, Optional<Document>> entry,
+            @Nullable List<String> fieldsToUnset, @Nullable Document fieldsToSetOnInsert) {
+        return new UpdateQueryBuilder()
+                .query(entry.getKey())
+                .addSetStage(entry.getValue().orElse(null))
+                .addUnsetStage(fieldsToUnset)
+                .addSetOnInsertStage(fieldsToSetOnInsert)
+                .isUpsertEnabled(true)
+                .build();
+    }
+
+    /**
+     * { q: { _id: { $in: [...] } }, u: <patch>, multi: true }
+     */
+    private static Document toGroupedStatement(List<Map.Entry<Document, Optional<Document>>> entries,
+            @Nullable List<String> fieldsToUnset) {
+        List<Object> idValues = entries.stream().map(entry -> entry.getKey().get(MONGO_ID))
+                .collect(Collectors.toList());
+        return new UpdateQueryBuilder()
+                .query(new Document(MONGO_ID, new Document("$in", idValues)))
+                .addSetStage(entries.get(0).getValue().orElse(null))
+                .addUnsetStage(fieldsToUnset)
+                .isMultiEnabled(true)
+                .build();
+    }
+
+    /**
+     * Builds one upsert statement per spec, in the order of the specs.
+     */
+    public UpdateCommand withUpdates(@NonNull List<UpdateSpec> updateSpecs) {
+        this.updates = updateSpecs.stream()
+                .map(updateSpec -> new UpdateQueryBuilder()
+                        .query(updateSpec.getCriteria())
+                        .addSetStage(updateSpec.getFieldsToSet())
+                        .addUnsetStage(updateSpec.getFieldsToUnset())
+                        .addSetOnInsertStage(updateSpec.getFieldsToSetOnInsert())
+                        .isUpsertEnabled(true)
+                        .isMultiEnabled(updateSpec.isMulti())
+                        .build())
+                .collect(Collectors.toList());
+        return this;
+    }
+
+    /**
+     * Sorts the statements by a key of their query, in the order of the index on that key, so that consecutive
+     * statements hit neighbouring index pages. Only the statements of an unordered command can be reordered.
+     *
+     * @param keyPath path of the key in the queries, like {@code _id} or {@code _id.reference}
+     */
+    public UpdateCommand sortedBy(@NonNull String keyPath) {
+        if (ordered) {
+            throw new IllegalStateException("The statements of an ordered command cannot be reordered");
+        }
+        this.updates = updates.stream()
+                .map(statement -> Map.entry(getQueryKey(statement, keyPath), statement))
+                .sorted(Map.Entry.comparingByKey(BsonValueComparator.INSTANCE))
+                .map(Map.Entry::getValue)
+                .collect(Collectors.toList());
+        return this;
+    }
+
+    private static BsonValue getQueryKey(Document statement, String keyPath) {
+        BsonValue value = statement.get("q", Document.class).toBsonDocument();
+        for (String field : keyPath.split("\\.")) {
+            // a missing key is indexed as null
+            value = value.isDocument() ? value.asDocument().get(field, BsonNull.VALUE) : BsonNull.VALUE;
+        }
+        return value;
+    }
+
     public UpdateCommand withUpdates(Document fieldsToQuery, @Nullable Document fieldsToSet,
             @Nullable List<String> fieldsToUnset, Document fieldsToSetOnInsert, boolean upsertEnabled,
             boolean multiEnabled) {
@@ -0,0 +1,26 @@
+package org.niogatori.mongohelper.models;
+
+import lombok.Builder;
+import lombok.Value;
+import org.bson.Document;
+import reactor.util.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * One filter and its patch, applied by a single statement of an {@code update} command.
+ */
+@Value
+@Builder
+public class UpdateSpec {
+    Document criteria;
+    @Nullable
+    Document fieldsToSet;
+    @Nullable
+    List<String> fieldsToUnset;
+    @Nullable
+    Document fieldsToSetOnInsert;
+    // updates every matching document instead of the first one
+    @Builder.Default
+    boolean multi = true;
+}
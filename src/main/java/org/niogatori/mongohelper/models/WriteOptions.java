@@ -0,0 +1,29 @@
+package org.niogatori.mongohelper.models;
+
+import lombok.Builder;
+import lombok.Value;
+import reactor.util.annotation.Nullable;
+
+/**
+ * Per-call options of the upserts of {@code MongoDBBulkWriter}, so that callers sharing the writer do not change each
+ * other's writes.
+ */
+@Value
+@Builder
+public class WriteOptions {
+    public static final WriteOptions ORDERED = WriteOptions.builder().build();
+
+    // unordered commands go on after a failed statement and can be sorted
+    @Builder.Default
+    boolean ordered = true;
+    // key of the queries to sort the statements of unordered commands by, for index locality
+    @Nullable
+    String sortKey;
+
+    /**
+     * Sorts the statements of an unordered command by the sort key, ordered commands are left as is.
+     */
+    public UpdateCommand apply(UpdateCommand updateCommand) {
+        return ordered || sortKey == null ? updateCommand : updateCommand.sortedBy(sortKey);
+    }
+}
@@ -0,0 +1,119 @@
+package org.niogatori.mongohelper.models;
+
+import com.mongodb.MongoServerException;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.bson.Document;
+import reactor.util.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Outcome of the statement written for one entry of {@code objectsToSaveById}.
+ */
+@Data
+@AllArgsConstructor
+public class WriteOutcome {
+
+    public enum Status {
+        UPSERTED,
+        MODIFIED,
+        UNCHANGED,
+        // matched, but the reply does not tell whether this statement modified the document
+        MATCHED,
+        // the version expected by a versioned write was outdated
+        CONFLICT,
+        FAILED
+    }
+
+    private Document idDocument;
+    private Status status;
+    private Integer errorCode;
+    private String errorMessage;
+    // key pattern of the unique index a duplicate key error was raised on, when the reply tells it
+    private Document errorKeyPattern;
+
+    public WriteOutcome(Document idDocument, Status status, Integer errorCode, String errorMessage) {
+        this(idDocument, status, errorCode, errorMessage, null);
+    }
+
+    public boolean isFailed() {
+        return status == Status.FAILED;
+    }
+
+    /**
+     * Correlates the statements of the command with the {@code upserted} and {@code writeErrors} indexes of its reply.
+     * The reply only counts the modified documents, so the statements matching existing documents are MODIFIED or
+     * UNCHANGED when all or none of them modified a document, and MATCHED otherwise.
+     */
+    public static List<WriteOutcome> fromReply(UpdateCommand updateCommand, Document reply) {
+        List<Document> statements = updateCommand.getUpdates();
+        Set<Integer> upserted = new HashSet<>();
+        reply.getList("upserted", Document.class, List.of())
+                .forEach(upsert -> upserted.add(upsert.getInteger("index")));
+        Map<Integer, Document> writeErrors = new HashMap<>();
+        reply.getList("writeErrors", Document.class, List.of())
+                .forEach(writeError -> writeErrors.put(writeError.getInteger("index"), writeError));
+        // an ordered command stops at its first error
+        int firstError = writeErrors.keySet().stream().mapToInt(Integer::intValue).min().orElse(statements.size());
+        int executed = updateCommand.isOrdered() ? firstError : statements.size();
+        int nbMatched = reply.getInteger("n", 0) - upserted.size();
+        int nbModified = reply.getInteger("nModified", 0);
+        Status matchedStatus = nbModified == 0 ? Status.UNCHANGED
+                : nbModified == nbMatched ? Status.MODIFIED : Status.MATCHED;
+
+        List<WriteOutcome> outcomes = new ArrayList<>();
+        for (int index = 0; index < statements.size(); index++) {
+            Document idDocument = statements.get(index).get("q", Document.class);
+            Document writeError = writeErrors.get(index);
+            if (writeError != null) {
+                outcomes.add(new WriteOutcome(idDocument, Status.FAILED, writeError.getInteger("code"),
+                        writeError.getString("errmsg"), getKeyPattern(writeError)));
+            } else if (index >= executed) {
+                outcomes.add(new WriteOutcome(idDocument, Status.FAILED, null,
+                        "Not executed after the failure of statement " + firstError));
+            } else if (upserted.contains(index)) {
+                outcomes.add(new WriteOutcome(idDocument, Status.UPSERTED, null, null));
+            } else {
+                outcomes.add(new WriteOutcome(idDocument, matchedStatus, null, null));
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * Duplicate key errors report the {@code keyPattern} and {@code keyValue} of the violated index, at the top level
+     * of the write error or in its {@code errInfo}.
+     */
+    @Nullable
+    private static Document getKeyPattern(Document writeError) {
+        Document errInfo = writeError.get("errInfo", new Document());
+        for (Document source : List.of(writeError, errInfo)) {
+            if (source.get("keyPattern") instanceof Document) {
+                return source.get("keyPattern", Document.class);
+            }
+            if (source.get("keyValue") instanceof Document) {
+                Document keyPattern = new Document();
+                source.get("keyValue", Document.class).keySet().forEach(key -> keyPattern.append(key, 1));
+                return keyPattern;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a failed outcome for each statement of a command that could not be run
+     */
+    public static List<WriteOutcome> fromError(UpdateCommand updateCommand, Throwable error) {
+        Integer errorCode = error instanceof MongoServerException ? ((MongoServerException) error).getCode() : null;
+        List<WriteOutcome> outcomes = new ArrayList<>();
+        updateCommand.getUpdates().forEach(statement -> outcomes.add(new WriteOutcome(
+                statement.get("q", Document.class), Status.FAILED, errorCode, error.getMessage())));
+        return outcomes;
+    }
+}
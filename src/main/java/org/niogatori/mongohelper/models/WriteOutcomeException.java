@@ -0,0 +1,20 @@
+package org.niogatori.mongohelper.models;
+
+import lombok.Getter;
+
+/**
+ * Failure of a single statement, reported by the writers that complete each statement on its own.
+ */
+@Getter
+public class WriteOutcomeException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient WriteOutcome outcome;
+
+    public WriteOutcomeException(WriteOutcome outcome) {
+        super(String.format("Statement on %s failed with code %s: %s", outcome.getIdDocument(),
+                outcome.getErrorCode(), outcome.getErrorMessage()));
+        this.outcome = outcome;
+    }
+}
@@ -0,0 +1,285 @@
+package org.niogatori.mongohelper.spool;
+
+import com.mongodb.MongoClientSettings;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.niogatori.mongohelper.bulkwriter.MongoDBBulkWriter;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Local write-ahead log of update commands. Producers are acknowledged as soon as their command is appended to the
+ * active segment, and {@link #replay()} applies the spooled commands in order through the {@link MongoDBBulkWriter}
+ * once MongoDB accepts writes again. Fully applied segments are deleted. {@link #close()} releases the segment files,
+ * the pending commands are replayed by the next spool opened on the directory.
+ */
+@Slf4j
+public class MongoDBWriteAheadSpool<T> {
+
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "spool.checkpoint";
+    private static final Codec<Document> DOCUMENT_CODEC =
+            MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+
+    private final MongoDBBulkWriter<T> writer;
+    private final SpoolSettings settings;
+    private final TreeMap<Long, SpoolSegment> segments = new TreeMap<>();
+    private final AtomicBoolean replaying = new AtomicBoolean(false);
+    private boolean closed;
+
+    private long checkpointSegmentId;
+    private int checkpointOffset;
+    private long readSegmentId;
+    private int readOffset;
+
+    public MongoDBWriteAheadSpool(MongoDBBulkWriter<T> writer, SpoolSettings settings) {
+        this.writer = writer;
+        this.settings = settings;
+        recover();
+    }
+
+    public Mono<Void> upsert(Class<T> clazz, @NonNull Map<Document, Optional<Document>> objectsToSaveById,
+            @Nullable List<String> fieldsToUnset, Map<String, Object> fieldsToSetOnInsert) {
+        if (objectsToSaveById.isEmpty()) {
+            return Mono.empty();
+        }
+        return Mono.fromSupplier(
+                () -> writer.toUpdateCommand(clazz, objectsToSaveById, fieldsToUnset, fieldsToSetOnInsert))
+                .flatMap(this::append);
+    }
+
+    public Mono<Void> append(UpdateCommand updateCommand) {
+        return Mono.fromRunnable(() -> {
+            ByteBuffer byteBuffer = updateCommand.asRawBson().getByteBuffer().asNIO();
+            byte[] payload = new byte[byteBuffer.remaining()];
+            byteBuffer.get(payload);
+            appendRecord(payload);
+        });
+    }
+
+    /**
+     * Applies every pending command in append order. Replay stops at the first failed command, which is retried by the
+     * next replay.
+     *
+     * @return the number of upserted and modified documents
+     */
+    public Mono<Integer> replay() {
+        return Mono.defer(() -> {
+            synchronized (this) {
+                checkOpen();
+            }
+            if (!replaying.compareAndSet(false, true)) {
+                return Mono.just(0);
+            }
+            rewindToCheckpoint();
+            return Flux.<SpoolRecord>generate(sink -> {
+                SpoolRecord record = readNext();
+                if (record == null) {
+                    sink.complete();
+                } else {
+                    sink.next(record);
+                }
+            })
+                    .concatMap(record -> writer.execute(record.getCommand())
+                            .defaultIfEmpty(0)
+                            .doOnNext(nbChanges -> acknowledge(record)), 1)
+                    .reduce(0, Integer::sum)
+                    .doFinally(signal -> replaying.set(false));
+        });
+    }
+
+    /**
+     * Replays the spool periodically, failures are logged and retried on the next tick.
+     */
+    public Disposable startReplaying(Duration period) {
+        return Flux.interval(period, Schedulers.boundedElastic())
+                .concatMap(tick -> replay()
+                        .doOnError(e -> log.warn("Spool replay failed, it will be retried: {}", e.getMessage()))
+                        .onErrorResume(e -> Mono.empty()), 1)
+                .subscribe();
+    }
+
+    public synchronized long pendingSegments() {
+        return segments.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        SpoolSegment last = segments.lastEntry().getValue();
+        return checkpointSegmentId == last.getId() && checkpointOffset == last.getWritePosition();
+    }
+
+    /**
+     * Forces and unmaps the segments and closes their files. Appends and replays fail afterwards.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segments.values().forEach(SpoolSegment::close);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The spool of " + settings.getDirectory() + " is closed");
+        }
+    }
+
+    private synchronized void appendRecord(byte[] payload) {
+        checkOpen();
+        SpoolSegment active = segments.lastEntry().getValue();
+        if (SpoolSegment.RECORD_HEADER_SIZE + payload.length > active.capacity()) {
+            throw new IllegalArgumentException(String.format("Update command of %d bytes exceeds the spool segment "
+                    + "size of %d bytes", payload.length, active.capacity()));
+        }
+        if (!active.append(payload, settings.isForceOnAppend())) {
+            if (segments.size() >= settings.getMaxSegments()) {
+                throw new IllegalStateException(String.format("Spool disk quota of %d bytes is exceeded",
+                        settings.getMaxDiskUsage()));
+            }
+            active = openSegment(active.getId() + 1);
+            active.append(payload, settings.isForceOnAppend());
+        }
+    }
+
+    private synchronized void rewindToCheckpoint() {
+        readSegmentId = checkpointSegmentId;
+        readOffset = checkpointOffset;
+    }
+
+    private synchronized SpoolRecord readNext() {
+        checkOpen();
+        while (true) {
+            Map.Entry<Long, SpoolSegment> entry = segments.ceilingEntry(readSegmentId);
+            if (entry.getKey() != readSegmentId) {
+                // the segment has been compacted meanwhile
+                readSegmentId = entry.getKey();
+                readOffset = 0;
+            }
+            SpoolSegment segment = entry.getValue();
+            byte[] payload = segment.read(readOffset);
+            if (payload != null) {
+                int nextOffset = readOffset + SpoolSegment.RECORD_HEADER_SIZE + payload.length;
+                SpoolRecord record = new SpoolRecord(readSegmentId, nextOffset,
+                        UpdateCommand.fromBson(new RawBsonDocument(payload).decode(DOCUMENT_CODEC)));
+                readOffset = nextOffset;
+                return record;
+            }
+            Long nextSegmentId = segments.higherKey(readSegmentId);
+            if (nextSegmentId == null) {
+                return null;
+            }
+            readSegmentId = nextSegmentId;
+            readOffset = 0;
+        }
+    }
+
+    private synchronized void acknowledge(SpoolRecord record) {
+        checkpointSegmentId = record.getSegmentId();
+        checkpointOffset = record.getNextOffset();
+        Long nextSegmentId = segments.higherKey(checkpointSegmentId);
+        if (nextSegmentId != null && checkpointOffset == segments.get(checkpointSegmentId).getWritePosition()) {
+            checkpointSegmentId = nextSegmentId;
+            checkpointOffset = 0;
+        }
+        writeCheckpoint();
+        deleteSegmentsBefore(checkpointSegmentId);
+    }
+
+    private void deleteSegmentsBefore(long segmentId) {
+        Map<Long, SpoolSegment> applied = segments.headMap(segmentId);
+        applied.values().forEach(SpoolSegment::delete);
+        applied.clear();
+    }
+
+    @Value
+    private static class SpoolRecord {
+        long segmentId;
+        int nextOffset;
+        UpdateCommand command;
+    }
+
+    private void recover() {
+        try {
+            Files.createDirectories(settings.getDirectory());
+            try (Stream<Path> files = Files.list(settings.getDirectory())) {
+                List<Long> segmentIds = files.map(path -> path.getFileName().toString())
+                        .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                        .map(name -> Long.parseLong(
+                                name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                        .sorted()
+                        .collect(Collectors.toList());
+                segmentIds.forEach(this::openSegment);
+            }
+            readCheckpoint();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        deleteSegmentsBefore(checkpointSegmentId);
+        if (segments.isEmpty()) {
+            openSegment(checkpointSegmentId);
+            checkpointOffset = 0;
+        } else if (segments.firstKey() > checkpointSegmentId) {
+            checkpointSegmentId = segments.firstKey();
+            checkpointOffset = 0;
+        }
+        rewindToCheckpoint();
+    }
+
+    private SpoolSegment openSegment(long id) {
+        Path path = settings.getDirectory().resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        SpoolSegment segment = SpoolSegment.open(path, id, settings.getSegmentSize());
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void readCheckpoint() throws IOException {
+        Path checkpoint = settings.getDirectory().resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpoint)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+            checkpointSegmentId = buffer.getLong();
+            checkpointOffset = buffer.getInt();
+        } else if (!segments.isEmpty()) {
+            checkpointSegmentId = segments.firstKey();
+            checkpointOffset = 0;
+        }
+    }
+
+    private void writeCheckpoint() {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + Integer.BYTES)
+                .putLong(checkpointSegmentId)
+                .putInt(checkpointOffset);
+        Path checkpoint = settings.getDirectory().resolve(CHECKPOINT_FILE);
+        Path tmp = settings.getDirectory().resolve(CHECKPOINT_FILE + ".tmp");
+        try {
+            Files.write(tmp, buffer.array());
+            Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
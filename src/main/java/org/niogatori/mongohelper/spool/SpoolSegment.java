@@ -0,0 +1,173 @@
+package org.niogatori.mongohelper.spool;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import reactor.util.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped spool file made of records laid out as { length: int, crc32: long, payload: byte[] }. A zero length
+ * marks the end of the written records.
+ */
+@Slf4j
+class SpoolSegment {
+
+    static final int RECORD_HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+    @Getter
+    private final long id;
+    @Getter
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    @Getter
+    private int writePosition;
+    private boolean closed;
+
+    private SpoolSegment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static SpoolSegment open(Path path, long id, int size) {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            SpoolSegment segment = new SpoolSegment(id, path, channel,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            segment.writePosition = segment.recoverWritePosition();
+            return segment;
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    boolean append(byte[] payload, boolean force) {
+        checkOpen();
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+        if (writePosition + recordSize > buffer.capacity()) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        // the length is written last so a torn record is never seen as complete
+        buffer.putLong(writePosition + Integer.BYTES, crc.getValue());
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(writePosition + RECORD_HEADER_SIZE);
+        slice.put(payload);
+        buffer.putInt(writePosition, payload.length);
+        writePosition += recordSize;
+        if (force) {
+            buffer.force();
+        }
+        return true;
+    }
+
+    /**
+     * @return the payload of the record starting at offset, or null when there is no valid record there
+     */
+    byte[] read(int offset) {
+        checkOpen();
+        if (offset + RECORD_HEADER_SIZE > buffer.capacity()) {
+            return null;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || offset + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset + RECORD_HEADER_SIZE);
+        slice.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (crc.getValue() != buffer.getLong(offset + Integer.BYTES)) {
+            log.error("Spool record at {}:{} has an invalid checksum, the rest of the segment is ignored.",
+                    path.getFileName(), offset);
+            return null;
+        }
+        return payload;
+    }
+
+    /**
+     * Forces the written records to disk, unmaps the buffer and closes the file, so that its disk and address space are
+     * released now rather than when the buffer is garbage collected. The segment cannot be used afterwards.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        unmap(buffer);
+        closeQuietly(channel);
+    }
+
+    void delete() {
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Unable to delete spool segment {}", path, e);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Spool segment " + path.getFileName() + " is closed");
+        }
+    }
+
+    /**
+     * There is no public API to unmap a buffer before Java 19, the unsupported Unsafe#invokeCleaner is used when
+     * available, otherwise the mapping is released by the garbage collector.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Unable to unmap a spool segment, it is released by the garbage collector", e);
+        }
+    }
+
+    private static void closeQuietly(@Nullable FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Unable to close a spool segment", e);
+        }
+    }
+
+    private int recoverWritePosition() {
+        int position = 0;
+        byte[] payload;
+        while ((payload = read(position)) != null) {
+            position += RECORD_HEADER_SIZE + payload.length;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,24 @@
+package org.niogatori.mongohelper.spool;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.nio.file.Path;
+
+@Getter
+@Builder
+public class SpoolSettings {
+    @NonNull
+    private final Path directory;
+    @Builder.Default
+    private final int segmentSize = 64 * 1024 * 1024;
+    @Builder.Default
+    private final long maxDiskUsage = 1024L * 1024 * 1024;
+    @Builder.Default
+    private final boolean forceOnAppend = false;
+
+    int getMaxSegments() {
+        return (int) Math.max(1, maxDiskUsage / segmentSize);
+    }
+}
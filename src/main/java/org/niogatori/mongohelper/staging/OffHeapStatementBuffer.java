@@ -0,0 +1,174 @@
+package org.niogatori.mongohelper.staging;
+
+import com.mongodb.MongoClientSettings;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.niogatori.mongohelper.bulkwriter.MongoDBBulkWriter;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stages the pending statements of a collection encoded in a bounded ring of direct memory, so that a backlog of
+ * statements does not grow the heap. Producers are acknowledged once their statements are staged, and the staged
+ * statements are written in order by ordered commands. A statement stays staged until a command wrote it or the server
+ * rejected it, so a statement may be written twice when a command failed after being applied.
+ * <p>
+ * The staged statements are lost if the process stops, use the {@code MongoDBWriteAheadSpool} when they must survive.
+ */
+@Slf4j
+public class OffHeapStatementBuffer<T> implements Disposable {
+
+    private static final Codec<Document> DOCUMENT_CODEC =
+            MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+
+    private final MongoDBBulkWriter<T> writer;
+    private final String collectionName;
+    private final StagingSettings settings;
+    private final StatementRing ring;
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+    private final AtomicLong nbFailedStatements = new AtomicLong();
+    private final Disposable flushes;
+
+    public OffHeapStatementBuffer(MongoDBBulkWriter<T> writer, String collectionName, StagingSettings settings) {
+        this.writer = writer;
+        this.collectionName = collectionName;
+        this.settings = settings;
+        this.ring = new StatementRing(settings.getCapacity());
+        this.flushes = Flux.interval(settings.getFlushInterval(), Schedulers.boundedElastic())
+                .onBackpressureDrop()
+                .concatMap(tick -> flush(), 1)
+                .subscribe();
+    }
+
+    public Mono<Void> upsert(Class<T> clazz, @NonNull Map<Document, Optional<Document>> objectsToSaveById,
+            @Nullable List<String> fieldsToUnset, Map<String, Object> fieldsToSetOnInsert) {
+        if (objectsToSaveById.isEmpty()) {
+            return Mono.empty();
+        }
+        return Mono.fromSupplier(
+                () -> writer.toUpdateCommand(clazz, objectsToSaveById, fieldsToUnset, fieldsToSetOnInsert))
+                .flatMap(this::append);
+    }
+
+    /**
+     * Stages the statements of the command. When the buffer is full, the statements staged before are still written.
+     *
+     * @return completes once the statements are staged, or errors when the buffer is full
+     */
+    public Mono<Void> append(UpdateCommand updateCommand) {
+        return Mono.fromRunnable(() -> {
+            if (!collectionName.equals(updateCommand.getUpdate())) {
+                throw new IllegalArgumentException(
+                        "The buffer of " + collectionName + " cannot stage " + updateCommand.getUpdate());
+            }
+            for (Document statement : updateCommand.getUpdates()) {
+                ByteBuffer encoded = new RawBsonDocument(statement, DOCUMENT_CODEC).getByteBuffer().asNIO();
+                byte[] payload = new byte[encoded.remaining()];
+                encoded.get(payload);
+                if (!ring.offer(payload)) {
+                    throw new IllegalStateException(String.format("The staging buffer of %s is full, %d bytes are "
+                            + "pending", collectionName, ring.usedBytes()));
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the staged statements until the buffer is empty. Flushes are also run every {@code flushInterval}.
+     *
+     * @return the number of upserted and modified documents
+     */
+    public Mono<Integer> flush() {
+        return Mono.defer(() -> {
+            if (!flushing.compareAndSet(false, true)) {
+                return Mono.just(0);
+            }
+            AtomicBoolean drained = new AtomicBoolean(false);
+            AtomicInteger nbChanges = new AtomicInteger();
+            return Mono.defer(() -> {
+                List<RawBsonDocument> batch = ring.peek(settings.getMaxBatchSize(), settings.getMaxBatchBytes());
+                if (batch.isEmpty()) {
+                    drained.set(true);
+                    return Mono.<Integer>empty();
+                }
+                return write(batch);
+            })
+                    .repeat(() -> !drained.get())
+                    .doOnNext(nbChanges::addAndGet)
+                    .then(Mono.fromSupplier(nbChanges::get))
+                    .onErrorResume(error -> {
+                        log.error("Staged statements of {} not written, retried by the next flush", collectionName,
+                                error);
+                        return Mono.just(nbChanges.get());
+                    })
+                    .doFinally(signal -> flushing.set(false));
+        });
+    }
+
+    /**
+     * A batch failing as a whole is retried, and stays staged when its retries failed. The statement rejected by the
+     * server is released and counted as failed, and the statements after it, which the ordered command did not run,
+     * stay staged for the next batch.
+     */
+    private Mono<Integer> write(List<RawBsonDocument> batch) {
+        return Mono.defer(() -> writer.executeRaw(collectionName, batch, true).next())
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("No reply to the batch of " + batch.size()
+                        + " staged statement(s) on " + collectionName)))
+                .retryWhen(Retry.backoff(settings.getMaxRetries(), settings.getRetryBackoff())
+                        .doBeforeRetry(retry -> log.warn("Batch of {} staged statement(s) on {} failed, retrying",
+                                batch.size(), collectionName, retry.failure())))
+                .map(reply -> {
+                    int firstError = reply.getList("writeErrors", Document.class, List.of()).stream()
+                            .mapToInt(writeError -> writeError.getInteger("index"))
+                            .min()
+                            .orElse(-1);
+                    if (firstError < 0) {
+                        ring.release(batch.size());
+                    } else {
+                        ring.release(firstError + 1);
+                        nbFailedStatements.incrementAndGet();
+                    }
+                    return MongoDBBulkWriter.getNbTotalChanges(reply);
+                });
+    }
+
+    /**
+     * @return the bytes of the statements staged and not written yet
+     */
+    public long pendingBytes() {
+        return ring.usedBytes();
+    }
+
+    /**
+     * @return the number of staged statements rejected by the server, which are not retried
+     */
+    public long failedStatements() {
+        return nbFailedStatements.get();
+    }
+
+    @Override
+    public void dispose() {
+        flushes.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return flushes.isDisposed();
+    }
+}
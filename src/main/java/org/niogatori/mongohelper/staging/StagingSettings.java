@@ -0,0 +1,26 @@
+package org.niogatori.mongohelper.staging;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+@Getter
+@Builder
+public class StagingSettings {
+    // direct memory reserved for the encoded statements
+    @Builder.Default
+    private final int capacity = 64 * 1024 * 1024;
+    @Builder.Default
+    private final int maxBatchSize = 1000;
+    // well below the 16MB limit of a command
+    @Builder.Default
+    private final int maxBatchBytes = 8 * 1024 * 1024;
+    @Builder.Default
+    private final Duration flushInterval = Duration.ofMillis(10);
+    // a batch failing after its retries stays staged, and is retried by the next flush
+    @Builder.Default
+    private final int maxRetries = 5;
+    @Builder.Default
+    private final Duration retryBackoff = Duration.ofMillis(100);
+}
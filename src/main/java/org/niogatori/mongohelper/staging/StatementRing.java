@@ -0,0 +1,171 @@
+package org.niogatori.mongohelper.staging;
+
+import org.bson.RawBsonDocument;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded ring of encoded statements in direct memory, for many producers and a single consumer. Records are laid out
+ * as { length: int, payload: byte[] } aligned on 8 bytes. Producers claim their space with a CAS, copy their payload
+ * and publish the length last, so the consumer stops at the first record still being copied. A negative length pads the
+ * end of the buffer when a record does not fit before it. Consumed bytes are zeroed before being released.
+ */
+class StatementRing {
+
+    static final int HEADER_SIZE = Integer.BYTES;
+    private static final int ALIGNMENT = Long.BYTES;
+    private static final int PADDING = -1;
+    private static final byte[] ZEROS = new byte[4096];
+    private static final VarHandle LENGTH =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    // positions grow forever, their offset in the buffer is position % capacity
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long released;
+    private long readPosition;
+    // positions after each record of the last peek
+    private final List<Long> peekedEnds = new ArrayList<>();
+
+    StatementRing(int capacity) {
+        this.capacity = capacity / ALIGNMENT * ALIGNMENT;
+        if (this.capacity < ALIGNMENT) {
+            throw new IllegalArgumentException("The capacity must be at least " + ALIGNMENT + " bytes");
+        }
+        // the lengths are read and written with memory fences, which requires aligned offsets
+        this.buffer = ByteBuffer.allocateDirect(this.capacity + ALIGNMENT).alignedSlice(ALIGNMENT);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the bytes claimed by the producers and not consumed yet
+     */
+    long usedBytes() {
+        return claimed.get() - released;
+    }
+
+    /**
+     * @return false when the ring has not enough free space left for the payload
+     */
+    boolean offer(byte[] payload) {
+        int recordSize = align(HEADER_SIZE + payload.length);
+        if (recordSize > capacity) {
+            throw new IllegalArgumentException(String.format("Statement of %d bytes exceeds the staging capacity of "
+                    + "%d bytes", payload.length, capacity));
+        }
+        while (true) {
+            long position = claimed.get();
+            int offset = (int) (position % capacity);
+            int padding = offset + recordSize > capacity ? capacity - offset : 0;
+            long next = position + padding + recordSize;
+            if (next - released > capacity) {
+                return false;
+            }
+            if (claimed.compareAndSet(position, next)) {
+                if (padding > 0) {
+                    LENGTH.setRelease(buffer, offset, PADDING);
+                    offset = 0;
+                }
+                ByteBuffer slice = buffer.duplicate();
+                slice.position(offset + HEADER_SIZE);
+                slice.put(payload);
+                LENGTH.setRelease(buffer, offset, payload.length);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Copies the next published records to a single heap array and releases their space. Must only be called by one
+     * thread at a time.
+     *
+     * @return up to maxRecords statements of at most maxBytes in total, unless the first one is larger
+     */
+    List<RawBsonDocument> drain(int maxRecords, int maxBytes) {
+        List<RawBsonDocument> statements = peek(maxRecords, maxBytes);
+        release(statements.size());
+        return statements;
+    }
+
+    /**
+     * Copies the next published records to a single heap array, they are peeked again until released. Must only be
+     * called by the thread releasing them.
+     *
+     * @return up to maxRecords statements of at most maxBytes in total, unless the first one is larger
+     */
+    List<RawBsonDocument> peek(int maxRecords, int maxBytes) {
+        List<int[]> records = new ArrayList<>();
+        peekedEnds.clear();
+        long position = readPosition;
+        int totalBytes = 0;
+        while (records.size() < maxRecords) {
+            int offset = (int) (position % capacity);
+            int length = (int) LENGTH.getAcquire(buffer, offset);
+            if (length == PADDING) {
+                position += capacity - offset;
+                continue;
+            }
+            if (length == 0 || (!records.isEmpty() && totalBytes + length > maxBytes)) {
+                break;
+            }
+            records.add(new int[] {offset + HEADER_SIZE, length});
+            totalBytes += length;
+            position += align(HEADER_SIZE + length);
+            peekedEnds.add(position);
+        }
+        List<RawBsonDocument> statements = new ArrayList<>(records.size());
+        byte[] bytes = new byte[totalBytes];
+        int copied = 0;
+        for (int[] record : records) {
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(record[0]);
+            slice.get(bytes, copied, record[1]);
+            statements.add(new RawBsonDocument(bytes, copied, record[1]));
+            copied += record[1];
+        }
+        return statements;
+    }
+
+    /**
+     * Releases the space of the first records of the last peek.
+     */
+    void release(int nbRecords) {
+        if (nbRecords == 0) {
+            return;
+        }
+        long position = peekedEnds.get(nbRecords - 1);
+        zero(readPosition, position);
+        readPosition = position;
+        released = position;
+        peekedEnds.clear();
+    }
+
+    /**
+     * A record may start at any aligned offset, the consumed bytes are cleared so that none is seen as a length.
+     */
+    private void zero(long from, long to) {
+        ByteBuffer slice = buffer.duplicate();
+        long position = from;
+        while (position < to) {
+            int offset = (int) (position % capacity);
+            int length = (int) Math.min(Math.min(to - position, capacity - offset), ZEROS.length);
+            slice.position(offset);
+            slice.put(ZEROS, 0, length);
+            position += length;
+        }
+    }
+
+    private static int align(int size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
@@ -0,0 +1,48 @@
+package org.niogatori.mongohelper.throttling;
+
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Token bucket refilled at a constant rate and holding up to one second of tokens. A reservation larger than the
+ * available tokens is granted right away and paid back by delaying the caller.
+ */
+class TokenBucket {
+
+    private final Clock clock;
+    private long ratePerSecond;
+    private double capacity;
+    private double tokens;
+    private long lastRefillMillis;
+
+    TokenBucket(Clock clock, long ratePerSecond) {
+        this.clock = clock;
+        this.lastRefillMillis = clock.millis();
+        setRate(ratePerSecond);
+        this.tokens = capacity;
+    }
+
+    synchronized void setRate(long ratePerSecond) {
+        refill();
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = ratePerSecond;
+        this.tokens = Math.min(tokens, capacity);
+    }
+
+    synchronized Duration reserve(long permits) {
+        refill();
+        tokens -= permits;
+        if (tokens >= 0) {
+            return Duration.ZERO;
+        }
+        return Duration.ofMillis((long) Math.ceil(-tokens * 1000 / ratePerSecond));
+    }
+
+    private void refill() {
+        long now = clock.millis();
+        if (now > lastRefillMillis) {
+            tokens = Math.min(capacity, tokens + (now - lastRefillMillis) * ratePerSecond / 1000d);
+            lastRefillMillis = now;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.niogatori.mongohelper.throttling;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Write rate allowed on a collection, a budget lower than or equal to 0 is unlimited. No write is allowed on a paused
+ * collection, whatever its rates.
+ */
+@Value
+@Builder
+public class WriteBudget {
+    long statementsPerSecond;
+    long bytesPerSecond;
+    boolean paused;
+
+    public static WriteBudget paused() {
+        return WriteBudget.builder().paused(true).build();
+    }
+
+    public boolean isStatementLimited() {
+        return statementsPerSecond > 0;
+    }
+
+    public boolean isByteLimited() {
+        return bytesPerSecond > 0;
+    }
+}
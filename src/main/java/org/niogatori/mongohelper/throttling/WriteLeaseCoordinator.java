@@ -0,0 +1,268 @@
+package org.niogatori.mongohelper.throttling;
+
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOptions;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static org.niogatori.mongohelper.mapping.DocumentMapper.MONGO_ID;
+
+/**
+ * Shares the write budget of a collection between all the instances writing to it. The total budget is stored in a
+ * lease collection, with one lease per instance:
+ *
+ * <pre>
+ * { _id: <collection>, statementsPerSecond: ..., bytesPerSecond: ..., leases: [ { instanceId, expiresAt } ] }
+ * </pre>
+ *
+ * Each instance renews its lease with an atomic findAndModify, which also drops the expired leases, and sets its share
+ * of the total budget on its throttler. The leases expire with the server clock, so the share of an instance that
+ * stopped goes back to the others after {@code leaseDuration}. An instance pauses its writes when its lease is new and
+ * not yet seen by the others, or may have expired because its renewals failed, so that the shares of all the instances
+ * add up to at most the total.
+ */
+@Slf4j
+public class WriteLeaseCoordinator implements Disposable {
+
+    public static final String DEFAULT_LEASE_COLLECTION = "mongoHelperWriteLeases";
+
+    static final String STATEMENTS_PER_SECOND = "statementsPerSecond";
+    static final String BYTES_PER_SECOND = "bytesPerSecond";
+    static final String LEASES = "leases";
+    static final String INSTANCE_ID = "instanceId";
+    static final String EXPIRES_AT = "expiresAt";
+
+    private final ReactiveMongoTemplate template;
+    private final WriteThrottler throttler;
+    @Getter
+    private final String instanceId;
+    private final Set<String> collectionNames = ConcurrentHashMap.newKeySet();
+    private final Disposable.Swap renewals = Disposables.swap();
+    private final Map<String, LeaseState> leaseStates = new ConcurrentHashMap<>();
+
+    @Setter
+    private String leaseCollectionName = DEFAULT_LEASE_COLLECTION;
+    // renew well before the leases expire, a renewal may fail once without losing the lease
+    @Setter
+    private Duration leaseDuration = Duration.ofSeconds(30);
+    @Setter
+    private Duration renewInterval = Duration.ofSeconds(10);
+    @Setter
+    private Clock clock = Clock.systemUTC();
+
+    private static class LeaseState {
+        // local time of the first renewal of the current lease
+        private Instant leasedSince;
+        // local time after which the lease may have expired on the server
+        private Instant deadline;
+        // an instance alone, or renewed for renewInterval, is in the shares of the others
+        private boolean seenByOthers;
+        private final Deque<LeaseCount> leaseCounts = new ArrayDeque<>();
+    }
+
+    @AllArgsConstructor
+    private static class LeaseCount {
+        private final Instant seenAt;
+        private final int nbLeases;
+    }
+
+    public WriteLeaseCoordinator(ReactiveMongoTemplate template, WriteThrottler throttler) {
+        this(template, throttler, UUID.randomUUID().toString());
+    }
+
+    public WriteLeaseCoordinator(ReactiveMongoTemplate template, WriteThrottler throttler, String instanceId) {
+        this.template = template;
+        this.throttler = throttler;
+        this.instanceId = instanceId;
+    }
+
+    /**
+     * Sets the budget shared by all the instances, the shares change when the leases are renewed.
+     */
+    public Mono<Void> setTotalBudget(String collectionName, WriteBudget budget) {
+        return template.getCollection(leaseCollectionName)
+                .flatMap(leases -> Mono.from(leases.updateOne(new Document(MONGO_ID, collectionName),
+                        new Document("$set", new Document(STATEMENTS_PER_SECOND, budget.getStatementsPerSecond())
+                                .append(BYTES_PER_SECOND, budget.getBytesPerSecond())),
+                        new UpdateOptions().upsert(true))))
+                .then();
+    }
+
+    /**
+     * Leases a share of the budget of the collection, now and every {@code renewInterval} until disposed.
+     */
+    public synchronized void coordinate(String collectionName) {
+        collectionNames.add(collectionName);
+        if (renewals.get() == null) {
+            renewals.update(Flux.interval(Duration.ZERO, renewInterval, Schedulers.parallel())
+                    .onBackpressureDrop()
+                    .concatMap(tick -> Flux.fromIterable(collectionNames)
+                            .concatMap(name -> renew(name)
+                                    .timeout(renewInterval)
+                                    .onErrorResume(error -> {
+                                        log.warn("Write lease of {} on {} not renewed", instanceId, name, error);
+                                        pauseIfLapsed(name);
+                                        return Mono.empty();
+                                    })),
+                            1)
+                    .subscribe());
+        }
+    }
+
+    /**
+     * Renews the lease of this instance and sets its share of the budget on the throttler. A collection without budget
+     * is not throttled.
+     *
+     * @return the share of this instance, or an empty Mono when the collection has no budget
+     */
+    public Mono<WriteBudget> renew(String collectionName) {
+        return Mono.defer(() -> {
+            Instant sentAt = clock.instant();
+            return template.getCollection(leaseCollectionName)
+                    .flatMap(leases -> Mono.from(leases.findOneAndUpdate(new Document(MONGO_ID, collectionName),
+                            toRenewal(), new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER))))
+                    .map(budget -> {
+                        WriteBudget share = toShare(collectionName, budget, sentAt);
+                        throttler.setBudget(collectionName, share);
+                        return share;
+                    })
+                    .switchIfEmpty(Mono.fromRunnable(() -> {
+                        leaseStates.remove(collectionName);
+                        throttler.removeBudget(collectionName);
+                    }));
+        });
+    }
+
+    /**
+     * The other instances only see a new lease at their next renewal, it is paused until then unless it is the only
+     * one. The shares are sized against the most leases seen within {@code leaseDuration}, and the remainder of the
+     * total is given to the first instances by id, so that they add up to at most the total.
+     */
+    private WriteBudget toShare(String collectionName, Document budget, Instant sentAt) {
+        List<String> instanceIds = budget.getList(LEASES, Document.class, List.of()).stream()
+                .map(lease -> lease.getString(INSTANCE_ID))
+                .sorted()
+                .collect(Collectors.toList());
+        Instant now = clock.instant();
+        LeaseState state = leaseStates.computeIfAbsent(collectionName, name -> new LeaseState());
+        synchronized (state) {
+            if (Objects.isNull(state.leasedSince) || now.isAfter(state.deadline)) {
+                state.leasedSince = sentAt;
+                state.seenByOthers = false;
+            }
+            state.deadline = sentAt.plus(leaseDuration);
+            if (instanceIds.size() == 1 || !now.isBefore(state.leasedSince.plus(renewInterval))) {
+                state.seenByOthers = true;
+            }
+            state.leaseCounts.addLast(new LeaseCount(now, instanceIds.size()));
+            while (state.leaseCounts.getFirst().seenAt.isBefore(now.minus(leaseDuration))) {
+                state.leaseCounts.removeFirst();
+            }
+            if (!state.seenByOthers) {
+                return WriteBudget.paused();
+            }
+            int nbLeases = state.leaseCounts.stream().mapToInt(leaseCount -> leaseCount.nbLeases).max().orElse(1);
+            int rank = Math.max(0, instanceIds.indexOf(instanceId));
+            long statementsTotal = total(budget.get(STATEMENTS_PER_SECOND, Number.class));
+            long bytesTotal = total(budget.get(BYTES_PER_SECOND, Number.class));
+            long statements = share(statementsTotal, nbLeases, rank);
+            long bytes = share(bytesTotal, nbLeases, rank);
+            if ((statementsTotal > 0 && statements == 0) || (bytesTotal > 0 && bytes == 0)) {
+                return WriteBudget.paused();
+            }
+            return WriteBudget.builder().statementsPerSecond(statements).bytesPerSecond(bytes).build();
+        }
+    }
+
+    /**
+     * The lease may have expired on the server once its deadline passed, and the other instances shared the budget
+     * without this one: its writes are paused until it is renewed.
+     */
+    private void pauseIfLapsed(String collectionName) {
+        LeaseState state = leaseStates.get(collectionName);
+        if (Objects.nonNull(state) && clock.instant().isAfter(state.deadline)) {
+            log.warn("Write lease of {} on {} lapsed, writes paused until it is renewed", instanceId, collectionName);
+            throttler.setBudget(collectionName, WriteBudget.paused());
+        }
+    }
+
+    /**
+     * Keeps the unexpired leases of the other instances, and extends the lease of this one, using the server clock:
+     *
+     * <pre>
+     * [ { $set: { leases: { $concatArrays: [ { $filter: ... }, [ { instanceId, expiresAt: $$NOW + duration } ] ] } } } ]
+     * </pre>
+     */
+    private List<Document> toRenewal() {
+        Document otherLiveLeases = new Document("$filter", new Document("input",
+                new Document("$ifNull", List.of("$" + LEASES, List.of())))
+                        .append("cond", new Document("$and", List.of(
+                                new Document("$gt", List.of("$$this." + EXPIRES_AT, "$$NOW")),
+                                new Document("$ne",
+                                        List.of("$$this." + INSTANCE_ID, new Document("$literal", instanceId)))))));
+        Document lease = new Document(INSTANCE_ID, new Document("$literal", instanceId))
+                .append(EXPIRES_AT, new Document("$add", List.of("$$NOW", leaseDuration.toMillis())));
+        return List.of(new Document("$set", new Document(LEASES,
+                new Document("$concatArrays", List.of(otherLiveLeases, List.of(lease))))));
+    }
+
+    private static long total(Number total) {
+        return total == null ? 0 : total.longValue();
+    }
+
+    /**
+     * An unlimited total stays unlimited, a limited one may give no share to the last instances.
+     */
+    private static long share(long total, int nbLeases, int rank) {
+        if (total <= 0) {
+            return total;
+        }
+        long nbShares = Math.max(1, nbLeases);
+        return total / nbShares + (rank < total % nbShares ? 1 : 0);
+    }
+
+    /**
+     * Stops coordinating the collection and gives the share of this instance back to the others.
+     */
+    public Mono<Void> release(String collectionName) {
+        collectionNames.remove(collectionName);
+        leaseStates.remove(collectionName);
+        return template.getCollection(leaseCollectionName)
+                .flatMap(leases -> Mono.from(leases.updateOne(new Document(MONGO_ID, collectionName),
+                        new Document("$pull", new Document(LEASES, new Document(INSTANCE_ID, instanceId))))))
+                .then(Mono.fromRunnable(() -> throttler.removeBudget(collectionName)));
+    }
+
+    @Override
+    public void dispose() {
+        renewals.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return renewals.isDisposed();
+    }
+}
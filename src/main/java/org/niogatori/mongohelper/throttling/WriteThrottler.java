@@ -0,0 +1,129 @@
+package org.niogatori.mongohelper.throttling;
+
+import lombok.extern.slf4j.Slf4j;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per collection rate limiter of the bulk writes. Budgets can be changed at any time, the callers exceeding their
+ * budget are delayed with a timer instead of parking a thread, and the callers of a paused collection wait until it is
+ * resumed.
+ */
+@Slf4j
+public class WriteThrottler {
+
+    // the writes waiting on a paused collection check again at this interval
+    private static final Duration PAUSED_RECHECK_INTERVAL = Duration.ofMillis(100);
+
+    private final Clock clock;
+    private final Map<String, CollectionBuckets> bucketsByCollection = new ConcurrentHashMap<>();
+
+    public WriteThrottler(Clock clock) {
+        this.clock = clock;
+    }
+
+    public void setBudget(String collectionName, WriteBudget budget) {
+        bucketsByCollection.compute(collectionName, (name, buckets) -> {
+            CollectionBuckets updated = Objects.isNull(buckets) ? new CollectionBuckets() : buckets;
+            updated.budget = budget;
+            updated.statements = updateBucket(updated.statements, budget.getStatementsPerSecond());
+            updated.bytes = updateBucket(updated.bytes, budget.getBytesPerSecond());
+            return updated;
+        });
+        if (budget.isPaused()) {
+            log.info("Writes to {} are paused", collectionName);
+        } else {
+            log.info("Write budget of {} is now {} statements/s and {} bytes/s", collectionName,
+                    budget.getStatementsPerSecond(), budget.getBytesPerSecond());
+        }
+    }
+
+    public void removeBudget(String collectionName) {
+        bucketsByCollection.remove(collectionName);
+    }
+
+    public Optional<WriteBudget> getBudget(String collectionName) {
+        return Optional.ofNullable(bucketsByCollection.get(collectionName)).map(buckets -> buckets.budget);
+    }
+
+    /**
+     * @return whether the budget of the collection counts bytes, i.e. whether commands need to be measured
+     */
+    public boolean isByteLimited(String collectionName) {
+        CollectionBuckets buckets = bucketsByCollection.get(collectionName);
+        return Objects.nonNull(buckets) && Objects.nonNull(buckets.bytes);
+    }
+
+    /**
+     * Completes once the command fits in the budget of its collection. Measuring the command encodes it, callers that
+     * send it encoded should rather measure those bytes with {@link #acquire(String, long, long)}.
+     */
+    public Mono<Void> acquire(UpdateCommand updateCommand) {
+        return Mono.defer(() -> {
+            CollectionBuckets buckets = bucketsByCollection.get(updateCommand.getUpdate());
+            if (Objects.isNull(buckets)) {
+                return Mono.empty();
+            }
+            if (buckets.budget.isPaused()) {
+                return Mono.delay(PAUSED_RECHECK_INTERVAL).then(acquire(updateCommand));
+            }
+            long bytes = Objects.nonNull(buckets.bytes) ? updateCommand.bsonSize() : 0;
+            return delay(buckets, updateCommand.getUpdates().size(), bytes);
+        });
+    }
+
+    public Mono<Void> acquire(String collectionName, long statements, long bytes) {
+        return Mono.defer(() -> {
+            CollectionBuckets buckets = bucketsByCollection.get(collectionName);
+            if (Objects.isNull(buckets)) {
+                return Mono.empty();
+            }
+            if (buckets.budget.isPaused()) {
+                return Mono.delay(PAUSED_RECHECK_INTERVAL).then(acquire(collectionName, statements, bytes));
+            }
+            return delay(buckets, statements, bytes);
+        });
+    }
+
+    private Mono<Void> delay(CollectionBuckets buckets, long statements, long bytes) {
+        Duration delay = Duration.ZERO;
+        TokenBucket statementBucket = buckets.statements;
+        TokenBucket byteBucket = buckets.bytes;
+        if (Objects.nonNull(statementBucket)) {
+            delay = statementBucket.reserve(statements);
+        }
+        if (Objects.nonNull(byteBucket)) {
+            Duration byteDelay = byteBucket.reserve(bytes);
+            delay = byteDelay.compareTo(delay) > 0 ? byteDelay : delay;
+        }
+        if (delay.isZero()) {
+            return Mono.empty();
+        }
+        log.debug("Write delayed by {} ms to respect the budget", delay.toMillis());
+        return Mono.delay(delay).then();
+    }
+
+    private TokenBucket updateBucket(TokenBucket bucket, long ratePerSecond) {
+        if (ratePerSecond <= 0) {
+            return null;
+        }
+        if (Objects.isNull(bucket)) {
+            return new TokenBucket(clock, ratePerSecond);
+        }
+        bucket.setRate(ratePerSecond);
+        return bucket;
+    }
+
+    private static class CollectionBuckets {
+        private volatile WriteBudget budget;
+        private volatile TokenBucket statements;
+        private volatile TokenBucket bytes;
+    }
+}
@@ -0,0 +1,228 @@
+package org.niogatori.mongohelper.timeseries;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.niogatori.mongohelper.batching.BatchingQueue;
+import org.niogatori.mongohelper.mapping.BsonValueComparator;
+import org.niogatori.mongohelper.mapping.DocumentMapper;
+import org.niogatori.mongohelper.throttling.WriteThrottler;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.mapping.TimeSeries;
+import org.springframework.data.mongodb.core.timeseries.Granularity;
+import org.springframework.util.StringUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Inserts the measurements of an entity annotated with {@link TimeSeries} into its time-series collection. The
+ * measurements are buffered, each batch is sorted by meta field then time so that the measurements of a series land in
+ * the same buckets, and written with an unordered insert.
+ */
+@Slf4j
+public class MongoDBTimeSeriesWriter<T> implements Disposable {
+
+    private static final Comparator<Measurement> BUCKET_ORDER = Comparator
+            .<Measurement, BsonValue>comparing(measurement -> measurement.meta, BsonValueComparator.INSTANCE)
+            .thenComparing(measurement -> measurement.time, BsonValueComparator.INSTANCE);
+
+    private final ReactiveMongoTemplate template;
+    private final DocumentMapper documentMapper;
+    @Getter
+    private final String collectionName;
+    @Getter
+    private final String timeField;
+    @Getter
+    private final String metaField;
+    @Getter
+    private final Granularity granularity;
+    private final BatchingQueue<Measurement> queue;
+
+    @Setter
+    private WriteThrottler throttler;
+
+    @AllArgsConstructor
+    private static class Measurement {
+        private final Document document;
+        private final BsonValue meta;
+        private final BsonValue time;
+    }
+
+    public MongoDBTimeSeriesWriter(ReactiveMongoTemplate template, Class<T> clazz, TimeSeriesSettings settings) {
+        MongoPersistentEntity<?> entity = template.getConverter().getMappingContext()
+                .getRequiredPersistentEntity(clazz);
+        TimeSeries timeSeries = entity.findAnnotation(TimeSeries.class);
+        if (Objects.isNull(timeSeries)) {
+            throw new IllegalArgumentException(clazz.getName() + " is not annotated with @TimeSeries");
+        }
+        this.template = template;
+        this.documentMapper = new DocumentMapper(template.getConverter());
+        this.collectionName = template.getCollectionName(clazz);
+        this.timeField = getFieldName(entity, timeSeries.timeField());
+        this.metaField = StringUtils.hasText(timeSeries.metaField()) ? getFieldName(entity, timeSeries.metaField())
+                : null;
+        this.granularity = timeSeries.granularity();
+        this.queue = new BatchingQueue<>(collectionName + " time-series", settings.getQueueDepth(),
+                settings.getMaxBatchSize(), settings.getMaxBatchDelay(), this::write);
+    }
+
+    private static String getFieldName(MongoPersistentEntity<?> entity, String propertyName) {
+        MongoPersistentProperty property = entity.getPersistentProperty(propertyName);
+        return Objects.isNull(property) ? propertyName : property.getFieldName();
+    }
+
+    /**
+     * Creates the time-series collection when it does not exist, or checks that the existing collection is a
+     * time-series collection with the same time and meta fields and granularity.
+     *
+     * @return errors with an {@link IllegalStateException} when the existing collection does not match
+     */
+    public Mono<Void> ensureCollection() {
+        return template.getMongoDatabase()
+                .flatMap(database -> Mono.from(database.listCollections()
+                        .filter(new Document("name", collectionName))
+                        .first()))
+                .flatMap(collectionInfo -> validate(collectionInfo).thenReturn(true))
+                .switchIfEmpty(Mono.defer(() -> createCollection().thenReturn(true)))
+                .then();
+    }
+
+    private Mono<Void> createCollection() {
+        CollectionOptions.TimeSeriesOptions options = CollectionOptions.TimeSeriesOptions.timeSeries(timeField)
+                .granularity(granularity);
+        if (Objects.nonNull(metaField)) {
+            options = options.metaField(metaField);
+        }
+        log.info("Creating the time-series collection {} on {}", collectionName, timeField);
+        return template.createCollection(collectionName, CollectionOptions.empty().timeSeries(options)).then();
+    }
+
+    private Mono<Void> validate(Document collectionInfo) {
+        Document timeSeriesOptions = collectionInfo.get("options", new Document()).get("timeseries", Document.class);
+        if (Objects.isNull(timeSeriesOptions)) {
+            return Mono.error(new IllegalStateException(collectionName + " is not a time-series collection"));
+        }
+        if (!timeField.equals(timeSeriesOptions.getString("timeField"))
+                || !Objects.equals(metaField, timeSeriesOptions.getString("metaField"))) {
+            return Mono.error(new IllegalStateException(String.format("Time-series collection %s has the time field "
+                    + "%s and the meta field %s, expected %s and %s", collectionName,
+                    timeSeriesOptions.getString("timeField"), timeSeriesOptions.getString("metaField"), timeField,
+                    metaField)));
+        }
+        String expectedGranularity = toServerGranularity(granularity);
+        if (!expectedGranularity.equals(timeSeriesOptions.getString("granularity"))) {
+            return Mono.error(new IllegalStateException(String.format("Time-series collection %s has the granularity "
+                    + "%s, expected %s", collectionName, timeSeriesOptions.getString("granularity"),
+                    expectedGranularity)));
+        }
+        return Mono.empty();
+    }
+
+    /**
+     * The server buckets by seconds when no granularity is set.
+     */
+    private static String toServerGranularity(Granularity granularity) {
+        return Granularity.DEFAULT == granularity ? "seconds" : granularity.name().toLowerCase(Locale.ROOT);
+    }
+
+    public Mono<Void> insert(T measurement) {
+        return insert(List.of(measurement));
+    }
+
+    /**
+     * Queues the measurements for the next batch.
+     *
+     * @return completes once every measurement has been written, or errors when the queue is full or the insert of a
+     *         measurement failed, nothing is queued when a measurement cannot be mapped
+     */
+    public Mono<Void> insert(Collection<T> measurements) {
+        return Mono.defer(() -> {
+            // mapped before queueing any, so that a mapping error leaves the queue untouched
+            List<Measurement> mapped = measurements.stream()
+                    .map(measurement -> toMeasurement(documentMapper.toDocument(measurement)))
+                    .collect(Collectors.toList());
+            return queue.offerAll(mapped);
+        });
+    }
+
+    private Measurement toMeasurement(Document document) {
+        BsonDocument sortKey = new Document("meta", Objects.isNull(metaField) ? null : document.get(metaField))
+                .append("time", document.get(timeField))
+                .toBsonDocument();
+        return new Measurement(document, sortKey.get("meta", BsonNull.VALUE), sortKey.get("time", BsonNull.VALUE));
+    }
+
+    /**
+     * Unordered inserts go on after a failed measurement, only the ones at the indexes of the write errors failed. A
+     * write concern error fails the whole batch.
+     */
+    private Mono<Void> write(BatchingQueue.Batch<Measurement> batch) {
+        List<Measurement> measurements = batch.getItems();
+        // indexes of the batch in bucket order
+        List<Integer> sorted = IntStream.range(0, measurements.size()).boxed()
+                .sorted(Comparator.comparing(measurements::get, BUCKET_ORDER))
+                .collect(Collectors.toList());
+        List<Document> documents = sorted.stream().map(index -> measurements.get(index).document)
+                .collect(Collectors.toList());
+        Mono<Void> permit = Objects.isNull(throttler) ? Mono.empty()
+                : throttler.acquire(collectionName, documents.size(), 0);
+        return permit.then(template.getCollection(collectionName))
+                .flatMap(collection -> Mono.from(collection.insertMany(documents,
+                        new InsertManyOptions().ordered(false))))
+                .then()
+                .onErrorResume(MongoBulkWriteException.class, error -> {
+                    if (Objects.nonNull(error.getWriteConcernError())) {
+                        // the inserted measurements may not be durable, none of them is reported as written
+                        return Mono.error(error);
+                    }
+                    List<BulkWriteError> writeErrors = error.getWriteErrors();
+                    log.error("{} of {} measurement(s) not inserted into {}", writeErrors.size(), documents.size(),
+                            collectionName, error);
+                    writeErrors.forEach(writeError -> batch.fail(sorted.get(writeError.getIndex()), error));
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Stops accepting measurements, the ones already queued are still written.
+     */
+    public void close() {
+        queue.close();
+    }
+
+    /**
+     * @return the number of measurements queued or being written
+     */
+    public int pendingMeasurements() {
+        return queue.pending();
+    }
+
+    @Override
+    public void dispose() {
+        queue.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return queue.isDisposed();
+    }
+}
@@ -0,0 +1,18 @@
+package org.niogatori.mongohelper.timeseries;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+@Getter
+@Builder
+public class TimeSeriesSettings {
+    // measurements waiting before submissions are rejected
+    @Builder.Default
+    private final int queueDepth = 100_000;
+    @Builder.Default
+    private final int maxBatchSize = 1000;
+    @Builder.Default
+    private final Duration maxBatchDelay = Duration.ofMillis(100);
+}
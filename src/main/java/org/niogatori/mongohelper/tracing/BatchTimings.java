@@ -0,0 +1,38 @@
+package org.niogatori.mongohelper.tracing;
+
+import reactor.util.context.ContextView;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encoding and decoding time spent on a traced command, put in the Reactor {@code Context} for the write engines to
+ * record their share.
+ */
+public class BatchTimings {
+
+    public static final String CONTEXT_KEY = "mongoHelper.batchTimings";
+
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+
+    public static Optional<BatchTimings> from(ContextView context) {
+        return context.getOrEmpty(CONTEXT_KEY);
+    }
+
+    public void recordEncode(long nanos) {
+        encodeNanos.addAndGet(nanos);
+    }
+
+    public void recordDecode(long nanos) {
+        decodeNanos.addAndGet(nanos);
+    }
+
+    public long getEncodeNanos() {
+        return encodeNanos.get();
+    }
+
+    public long getDecodeNanos() {
+        return decodeNanos.get();
+    }
+}
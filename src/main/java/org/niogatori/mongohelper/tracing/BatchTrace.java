@@ -0,0 +1,49 @@
+package org.niogatori.mongohelper.tracing;
+
+import lombok.Builder;
+import lombok.Value;
+import reactor.util.annotation.Nullable;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Timings of one command sent by the bulk writer. The trace and batch ids are also sent in the {@code comment} of the
+ * command, so the profiler entries and the {@code currentOp} output can be joined with the application traces.
+ */
+@Value
+@Builder
+public class BatchTrace {
+
+    public static final String TRACE_ID_KEY = "mongoHelper.traceId";
+
+    @Nullable
+    String traceId;
+    String batchId;
+    String collectionName;
+    int nbStatements;
+    // building the payload sent to the server
+    Duration encode;
+    // waiting for the write budget of the collection
+    Duration queueWait;
+    // from sending the command to receiving its reply
+    Duration execution;
+    // turning the reply into counts and logged errors
+    Duration decode;
+    @Nullable
+    Throwable error;
+
+    /**
+     * @return a function to pass to {@code contextWrite} to tag the batches of a write with a trace id
+     */
+    public static Function<Context, Context> withTraceId(String traceId) {
+        return context -> context.put(TRACE_ID_KEY, traceId);
+    }
+
+    public static String toComment(@Nullable String traceId, String batchId, @Nullable String comment) {
+        String tags = (Objects.isNull(traceId) ? "" : "traceId=" + traceId + " ") + "batchId=" + batchId;
+        return Objects.isNull(comment) ? tags : tags + " " + comment;
+    }
+}
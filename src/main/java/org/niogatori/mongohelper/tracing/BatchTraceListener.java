@@ -0,0 +1,10 @@
+package org.niogatori.mongohelper.tracing;
+
+/**
+ * Receives the trace of each command once it completed, failed or was cancelled.
+ */
+@FunctionalInterface
+public interface BatchTraceListener {
+
+    void onBatch(BatchTrace trace);
+}
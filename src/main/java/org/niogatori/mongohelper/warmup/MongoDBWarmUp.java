@@ -0,0 +1,127 @@
+package org.niogatori.mongohelper.warmup;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.niogatori.mongohelper.mapping.DocumentMapper;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.mapping.PropertyHandler;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.util.ClassUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import static org.niogatori.mongohelper.mapping.DocumentMapper.MONGO_ID;
+
+/**
+ * Initializes on start what the first writes would otherwise initialize while their commands wait: the mapping metadata
+ * and collection names of the entities, the codecs, the code paths building and encoding the commands, and the pooled
+ * connections. The application is started once the warm-up is done, failed or timed out.
+ */
+@Slf4j
+public class MongoDBWarmUp implements ApplicationRunner {
+
+    private static final Map<Class<?>, Object> SAMPLE_VALUES = Map.of(String.class, "warm-up", Integer.class, 0,
+            Long.class, 0L, Double.class, 0d, Float.class, 0f, Short.class, (short) 0, Byte.class, (byte) 0,
+            Boolean.class, false,
+            Character.class, "w");
+
+    private final ReactiveMongoTemplate template;
+    private final DocumentMapper documentMapper;
+    private final WarmUpProperties properties;
+
+    public MongoDBWarmUp(ReactiveMongoTemplate template, WarmUpProperties properties) {
+        this.template = template;
+        this.documentMapper = new DocumentMapper(template.getConverter());
+        this.properties = properties;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.nanoTime();
+        try {
+            warmUp().block(properties.getTimeout());
+            log.info("MongoDB warm-up done in {} ms", Duration.ofNanos(System.nanoTime() - start).toMillis());
+        } catch (RuntimeException error) {
+            log.warn("MongoDB warm-up not completed after {} ms", Duration.ofNanos(System.nanoTime() - start)
+                    .toMillis(), error);
+        }
+    }
+
+    public Mono<Void> warmUp() {
+        return Mono.fromRunnable(this::warmUpEntities)
+                .subscribeOn(Schedulers.boundedElastic())
+                .and(openConnections());
+    }
+
+    private void warmUpEntities() {
+        for (Class<?> clazz : properties.getEntityClasses()) {
+            try {
+                warmUpEntity(clazz);
+            } catch (RuntimeException error) {
+                log.warn("MongoDB warm-up of {} failed", clazz.getSimpleName(), error);
+            }
+        }
+    }
+
+    private void warmUpEntity(Class<?> clazz) {
+        MongoPersistentEntity<?> entity = template.getConverter().getMappingContext()
+                .getRequiredPersistentEntity(clazz);
+        String collectionName = template.getCollectionName(clazz);
+        Object sample = documentMapper.read(clazz, toSampleDocument(entity));
+        for (int i = 0; i < properties.getIterations(); i++) {
+            buildCommand(collectionName, sample, i).asRawBson();
+        }
+        log.debug("Warmed up {} in {}", clazz.getSimpleName(), collectionName);
+    }
+
+    /**
+     * A stored document of the entity, with a value for each property of a simple type, so that reading it runs the
+     * instantiation of the entity.
+     */
+    private static Document toSampleDocument(MongoPersistentEntity<?> entity) {
+        Document document = new Document();
+        entity.doWithProperties((PropertyHandler<MongoPersistentProperty>) property -> {
+            Class<?> type = ClassUtils.resolvePrimitiveIfNecessary(property.getType());
+            Object value = SAMPLE_VALUES.get(type);
+            if (Objects.nonNull(value)) {
+                document.put(property.getFieldName(), value);
+            }
+        });
+        return document;
+    }
+
+    /**
+     * A command like the ones of upsert, with patches converted from an instance of the entity by the mapper.
+     */
+    private UpdateCommand buildCommand(String collectionName, Object sample, int iteration) {
+        Map<Document, Optional<Document>> patchesById = new LinkedHashMap<>();
+        for (int i = 0; i < properties.getStatementsPerCommand(); i++) {
+            patchesById.put(new Document(MONGO_ID, "warm-up-" + iteration + "-" + i),
+                    Optional.of(documentMapper.toDocument(sample)));
+        }
+        return UpdateCommand.builder()
+                .update(collectionName)
+                .ordered(true)
+                .bypassDocumentValidation(false)
+                .build()
+                .withUpdates(patchesById, null, documentMapper.toDocument(Map.of("warmUp", true)), true, true);
+    }
+
+    private Mono<Void> openConnections() {
+        return template.getMongoDatabase()
+                .flatMapMany(database -> Flux.range(0, properties.getConnections())
+                        .flatMap(i -> database.runCommand(new Document("ping", 1)), properties.getConnections()))
+                .then();
+    }
+}
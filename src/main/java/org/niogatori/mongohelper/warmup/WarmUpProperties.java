@@ -0,0 +1,23 @@
+package org.niogatori.mongohelper.warmup;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ConfigurationProperties("mongo-helper.warm-up")
+public class WarmUpProperties {
+    private boolean enabled = false;
+    // entities whose mapping metadata and collection names are resolved
+    private List<Class<?>> entityClasses = new ArrayList<>();
+    // synthetic commands built and encoded per entity, to compile the hot paths
+    private int iterations = 1000;
+    private int statementsPerCommand = 100;
+    // concurrent pings, which open as many pooled connections
+    private int connections = 4;
+    // the application starts anyway once exceeded
+    private Duration timeout = Duration.ofSeconds(30);
+}
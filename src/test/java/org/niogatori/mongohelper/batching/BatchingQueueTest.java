@@ -0,0 +1,125 @@
+package org.niogatori.mongohelper.batching;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BatchingQueueTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    // long enough for the items offered together to share their batches
+    private static final Duration BATCH_DELAY = Duration.ofMillis(200);
+
+    private final List<List<String>> written = new CopyOnWriteArrayList<>();
+    private BatchingQueue<String> queue;
+
+    @AfterEach
+    void tearDown() {
+        queue.dispose();
+    }
+
+    private BatchingQueue<String> queue(int queueDepth, Function<BatchingQueue.Batch<String>, Mono<Void>> writer) {
+        return new BatchingQueue<>("test", queueDepth, 3, BATCH_DELAY, writer);
+    }
+
+    private Mono<Void> record(BatchingQueue.Batch<String> batch) {
+        written.add(new ArrayList<>(batch.getItems()));
+        return Mono.empty();
+    }
+
+    @Nested
+    class BatchTest {
+        @Test
+        void shouldWriteItemsInBatchesOfMaxSize() {
+            queue = queue(100, BatchingQueueTest.this::record);
+
+            StepVerifier.create(queue.offerAll(List.of("a", "b", "c", "d")))
+                    .expectComplete()
+                    .verify(TIMEOUT);
+
+            assertThat(written).containsExactly(List.of("a", "b", "c"), List.of("d"));
+            assertThat(queue.pending()).isZero();
+        }
+
+        @Test
+        void shouldBatchGroupsApart() {
+            queue = new BatchingQueue<>("test", 100, 3, BATCH_DELAY, item -> item.charAt(0),
+                    BatchingQueueTest.this::record);
+
+            StepVerifier.create(queue.offerAll(List.of("a1", "b1", "a2", "b2")))
+                    .expectComplete()
+                    .verify(TIMEOUT);
+
+            assertThat(written).containsExactlyInAnyOrder(List.of("a1", "a2"), List.of("b1", "b2"));
+        }
+    }
+
+    @Nested
+    class FailureTest {
+        @Test
+        void shouldOnlyFailTheMarkedItems() {
+            IllegalStateException error = new IllegalStateException("boom");
+            queue = queue(100, batch -> {
+                batch.fail(1, error);
+                return Mono.empty();
+            });
+
+            Mono<Void> first = queue.offer("a");
+            Mono<Void> second = queue.offer("b");
+
+            StepVerifier.create(first).expectComplete().verify(TIMEOUT);
+            StepVerifier.create(second).expectErrorMatches(error::equals).verify(TIMEOUT);
+            assertThat(queue.pending()).isZero();
+        }
+
+        @Test
+        void shouldFailEveryItemOfAFailedWrite() {
+            queue = queue(100, batch -> Mono.error(new IllegalStateException("boom")));
+
+            StepVerifier.create(queue.offerAll(List.of("a", "b")))
+                    .expectErrorMessage("boom")
+                    .verify(TIMEOUT);
+            assertThat(queue.pending()).isZero();
+        }
+
+        @Test
+        void shouldRejectItemsBeyondTheQueueDepth() {
+            Sinks.Empty<Void> blocked = Sinks.empty();
+            queue = queue(2, batch -> blocked.asMono());
+
+            Mono<Void> queued = queue.offerAll(List.of("a", "b"));
+
+            StepVerifier.create(queue.offer("c"))
+                    .expectErrorMessage("The test queue is full")
+                    .verify(TIMEOUT);
+            blocked.tryEmitEmpty();
+            StepVerifier.create(queued).expectComplete().verify(TIMEOUT);
+        }
+    }
+
+    @Nested
+    class CloseTest {
+        @Test
+        void shouldWriteQueuedItemsButRejectNewOnesOnceClosed() {
+            queue = queue(100, BatchingQueueTest.this::record);
+
+            Mono<Void> queued = queue.offer("a");
+            queue.close();
+
+            StepVerifier.create(queued).expectComplete().verify(TIMEOUT);
+            StepVerifier.create(queue.offer("b")).expectError(IllegalStateException.class).verify(TIMEOUT);
+            assertThat(written).containsExactly(List.of("a"));
+        }
+    }
+}
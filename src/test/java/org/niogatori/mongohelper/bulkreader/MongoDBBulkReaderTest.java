@@ -0,0 +1,105 @@
+package org.niogatori.mongohelper.bulkreader;
+
+import lombok.Data;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.niogatori.mongohelper.config.TestConfig;
+import org.niogatori.mongohelper.models.BulkReadResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Import(TestConfig.class)
+@DataMongoTest
+class MongoDBBulkReaderTest {
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    private MongoDBBulkReader<MyObject> mongoDBBulkReader;
+
+    @Data
+    static class MyId {
+        private final String reference;
+        private final int bu;
+    }
+
+    @Data
+    @org.springframework.data.mongodb.core.mapping.Document("MyObject")
+    static class MyObject {
+        @Id
+        private final MyId id;
+        private final String name;
+        private final Integer nbItems;
+    }
+
+    @BeforeEach
+    void setup() {
+        this.mongoDBBulkReader = new MongoDBBulkReader<>(reactiveMongoTemplate);
+        this.mongoDBBulkReader.setChunkSize(2);
+        reactiveMongoTemplate.dropCollection(MyObject.class).block();
+        reactiveMongoTemplate.insertAll(IntStream.range(0, 5)
+                .mapToObj(i -> new MyObject(new MyId("myObject" + i, 1), "name" + i, i))
+                .collect(Collectors.toList())).blockLast();
+    }
+
+    @Nested
+    class FindAllByIdsTest {
+        @Test
+        void shouldFindDocumentsOverSeveralChunks() {
+            List<MyId> ids = List.of(new MyId("myObject0", 1), new MyId("myObject3", 1), new MyId("myObject4", 1),
+                    new MyId("unknown", 1));
+
+            StepVerifier.create(mongoDBBulkReader.findAllByIds(MyObject.class, ids).collectList())
+                    .assertNext(found -> assertThat(found)
+                            .extracting(MyObject::getName)
+                            .containsExactlyInAnyOrder("name0", "name3", "name4"))
+                    .verifyComplete();
+        }
+
+        @Test
+        void shouldApplyProjection() {
+            StepVerifier.create(mongoDBBulkReader.findAllByIds(MyObject.class, Flux.just(new MyId("myObject1", 1)),
+                    new Document("name", 1)))
+                    .expectNext(new MyObject(new MyId("myObject1", 1), "name1", null))
+                    .verifyComplete();
+        }
+
+        @Test
+        void shouldFindDocumentsFromIdDocuments() {
+            Document idDocument = new Document("_id", new Document("reference", "myObject2").append("bu", 1));
+
+            StepVerifier.create(mongoDBBulkReader.findAllByIds(MyObject.class, List.of(idDocument)))
+                    .expectNext(new MyObject(new MyId("myObject2", 1), "name2", 2))
+                    .verifyComplete();
+        }
+    }
+
+    @Nested
+    class FindAllByIdsInOrderTest {
+        @Test
+        void shouldEmitResultsInInputOrderWithMisses() {
+            List<MyId> ids = List.of(new MyId("myObject4", 1), new MyId("unknown", 1), new MyId("myObject0", 1),
+                    new MyId("myObject2", 1));
+
+            StepVerifier.create(mongoDBBulkReader.findAllByIdsInOrder(MyObject.class, ids))
+                    .expectNext(new BulkReadResult<>(ids.get(0), new MyObject(ids.get(0), "name4", 4)))
+                    .expectNext(new BulkReadResult<>(ids.get(1), null))
+                    .expectNext(new BulkReadResult<>(ids.get(2), new MyObject(ids.get(2), "name0", 0)))
+                    .expectNext(new BulkReadResult<>(ids.get(3), new MyObject(ids.get(3), "name2", 2)))
+                    .verifyComplete();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.niogatori.mongohelper.bulkreader;
+
+import lombok.Data;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.niogatori.mongohelper.mapping.DocumentMapper;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MongoDBLoadCoalescerTest {
+
+    private static final Duration WINDOW = Duration.ofMillis(5);
+
+    private MongoDBBulkReader<MyObject> reader;
+    private VirtualTimeScheduler scheduler;
+    private MongoDBLoadCoalescer<MyObject> coalescer;
+
+    @Data
+    static class MyObject {
+        @Id
+        private final String id;
+        private final String name;
+    }
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE,
+                new MongoMappingContext());
+        converter.afterPropertiesSet();
+        reader = mock(MongoDBBulkReader.class);
+        when(reader.getDocumentMapper()).thenReturn(new DocumentMapper(converter));
+        when(reader.getCollectionName(MyObject.class)).thenReturn("MyObject");
+        when(reader.findChunk(eq("MyObject"), anyCollection(), any())).thenAnswer(invocation -> {
+            Collection<Object> ids = invocation.getArgument(1);
+            return Mono.just(ids.stream()
+                    .filter(id -> !"unknown".equals(id))
+                    .collect(Collectors.toMap(id -> id, id -> new Document("_id", id).append("name", "name-" + id))));
+        });
+        scheduler = VirtualTimeScheduler.create();
+        coalescer = new MongoDBLoadCoalescer<>(reader, MyObject.class, WINDOW, 3, null, scheduler);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Collection<Object>> capturedChunks(int times) {
+        ArgumentCaptor<Collection<Object>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(reader, times(times)).findChunk(eq("MyObject"), captor.capture(), any());
+        return captor.getAllValues();
+    }
+
+    @Nested
+    class WindowTest {
+        @Test
+        void shouldQueryLookupsOfTheWindowTogether() {
+            Mono<MyObject> first = coalescer.load("a").cache();
+            Mono<MyObject> second = coalescer.load("b").cache();
+            first.subscribe();
+            second.subscribe();
+
+            verify(reader, never()).findChunk(any(), anyCollection(), any());
+            scheduler.advanceTimeBy(WINDOW);
+
+            StepVerifier.create(first).expectNext(new MyObject("a", "name-a")).verifyComplete();
+            StepVerifier.create(second).expectNext(new MyObject("b", "name-b")).verifyComplete();
+            assertThat(capturedChunks(1).get(0)).containsExactly("a", "b");
+        }
+
+        @Test
+        void shouldCompleteEmptyWhenIdIsMissing() {
+            Mono<MyObject> missing = coalescer.load("unknown").cache();
+            missing.subscribe();
+            scheduler.advanceTimeBy(WINDOW);
+
+            StepVerifier.create(missing).verifyComplete();
+        }
+
+        @Test
+        void shouldPropagateQueryErrorToEveryLookup() {
+            when(reader.findChunk(eq("MyObject"), anyCollection(), any()))
+                    .thenReturn(Mono.error(new IllegalStateException("timeout")));
+            Mono<MyObject> first = coalescer.load("a").cache();
+            Mono<MyObject> second = coalescer.load("b").cache();
+            first.subscribe(value -> {
+            }, error -> {
+            });
+            second.subscribe(value -> {
+            }, error -> {
+            });
+            scheduler.advanceTimeBy(WINDOW);
+
+            StepVerifier.create(first).verifyError(IllegalStateException.class);
+            StepVerifier.create(second).verifyError(IllegalStateException.class);
+        }
+    }
+
+    @Nested
+    class BatchSizeTest {
+        @Test
+        void shouldQueryAsSoonAsBatchIsFull() {
+            List.of("a", "b", "c").forEach(id -> coalescer.load(id).subscribe());
+
+            assertThat(capturedChunks(1).get(0)).containsExactly("a", "b", "c");
+            scheduler.advanceTimeBy(WINDOW);
+            capturedChunks(1);
+        }
+    }
+
+    @Nested
+    class DeduplicationTest {
+        @Test
+        void shouldShareInFlightLookupsOfTheSameId() {
+            Mono<MyObject> first = coalescer.load("a").cache();
+            Mono<MyObject> second = coalescer.load("a").cache();
+            first.subscribe();
+            second.subscribe();
+            scheduler.advanceTimeBy(WINDOW);
+
+            StepVerifier.create(first).expectNext(new MyObject("a", "name-a")).verifyComplete();
+            StepVerifier.create(second).expectNext(new MyObject("a", "name-a")).verifyComplete();
+            assertThat(capturedChunks(1).get(0)).containsExactly("a");
+        }
+
+        @Test
+        void shouldQueryAgainOnceLookupIsResolved() {
+            coalescer.load("a").subscribe();
+            scheduler.advanceTimeBy(WINDOW);
+            coalescer.load("a").subscribe();
+            scheduler.advanceTimeBy(WINDOW);
+
+            assertThat(capturedChunks(2)).allSatisfy(ids -> assertThat(ids).containsExactly("a"));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BulkWriteEngineTest {
+
+    private MongoCollection<Document> collection;
+    private BulkWriteEngine engine;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        ReactiveMongoTemplate template = mock(ReactiveMongoTemplate.class);
+        collection = mock(MongoCollection.class);
+        when(template.getCollection("MyCollection")).thenReturn(Mono.just(collection));
+        engine = new BulkWriteEngine(template);
+    }
+
+    private static UpdateCommand command(boolean multi) {
+        return UpdateCommand.builder()
+                .update("MyCollection")
+                .ordered(false)
+                .build()
+                .withUpdates(Map.of(new Document("_id", "a"), Optional.of(new Document("name", "a"))), null, null,
+                        true, multi);
+    }
+
+    private static MongoBulkWriteException bulkWriteException(BulkWriteError... writeErrors) {
+        MongoBulkWriteException exception = mock(MongoBulkWriteException.class);
+        when(exception.getWriteResult()).thenReturn(BulkWriteResult.acknowledged(0, 0, 0, 0, List.of(), List.of()));
+        when(exception.getWriteErrors()).thenReturn(List.of(writeErrors));
+        return exception;
+    }
+
+    @Nested
+    class WriteModelTest {
+        @Test
+        void shouldMapStatementsToUpdateModels() {
+            WriteModel<Document> one = BulkWriteEngine.toWriteModel(command(false).getUpdates().get(0));
+            WriteModel<Document> many = BulkWriteEngine.toWriteModel(command(true).getUpdates().get(0));
+
+            assertThat(one).isInstanceOfSatisfying(UpdateOneModel.class, model -> {
+                assertThat(model.getFilter()).isEqualTo(new Document("_id", "a"));
+                assertThat(model.getOptions().isUpsert()).isTrue();
+            });
+            assertThat(many).isInstanceOf(UpdateManyModel.class);
+        }
+    }
+
+    @Nested
+    class ReplyTest {
+        @Test
+        @SuppressWarnings("unchecked")
+        void shouldMapBulkWriteResultToCommandReply() {
+            when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenReturn(Mono.just(
+                    BulkWriteResult.acknowledged(1, 2, 0, 1, List.of(new BulkWriteUpsert(1, new BsonString("b"))),
+                            List.of())));
+
+            StepVerifier.create(engine.execute(command(false)))
+                    .assertNext(reply -> {
+                        assertThat(reply.getInteger("n")).isEqualTo(3);
+                        assertThat(reply.getInteger("nModified")).isEqualTo(1);
+                        assertThat(reply.getList("upserted", Document.class)).hasSize(1)
+                                .allMatch(upserted -> upserted.getInteger("index") == 1);
+                    })
+                    .verifyComplete();
+            ArgumentCaptor<BulkWriteOptions> options = ArgumentCaptor.forClass(BulkWriteOptions.class);
+            verify(collection).bulkWrite(anyList(), options.capture());
+            assertThat(options.getValue().isOrdered()).isFalse();
+        }
+
+        @Test
+        void shouldMapWriteErrorsToCommandReply() {
+            MongoBulkWriteException exception = bulkWriteException(
+                    new BulkWriteError(11000, "E11000 duplicate key", new BsonDocument(), 0));
+            when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenReturn(Mono.error(exception));
+
+            StepVerifier.create(engine.execute(command(false)))
+                    .assertNext(reply -> assertThat(reply.getList("writeErrors", Document.class))
+                            .containsExactly(new Document("index", 0).append("code", 11000)
+                                    .append("errmsg", "E11000 duplicate key")))
+                    .verifyComplete();
+        }
+
+        @Test
+        void shouldKeepTheErrInfoOfWriteErrors() {
+            MongoBulkWriteException exception = bulkWriteException(new BulkWriteError(11000, "E11000 duplicate key",
+                    new BsonDocument("keyPattern", new BsonDocument("_id", new BsonInt32(1))), 0));
+            when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenReturn(Mono.error(exception));
+
+            StepVerifier.create(engine.execute(command(false)))
+                    .assertNext(reply -> assertThat(reply.getList("writeErrors", Document.class).get(0)
+                            .get("errInfo", Document.class)).isEqualTo(new Document("keyPattern",
+                                    new Document("_id", 1))))
+                    .verifyComplete();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.model.IndexOptions;
+import lombok.Data;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.niogatori.mongohelper.config.TestConfig;
+import org.niogatori.mongohelper.throttling.WriteThrottler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@Import(TestConfig.class)
+@DataMongoTest
+class MongoDBArchiveMoverTest {
+
+    private static final String ARCHIVE = "MyObject" + MongoDBArchiveMover.ARCHIVE_SUFFIX;
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    private MongoDBBulkWriter<MyObject> mongoDBBulkWriter;
+    private MongoDBArchiveMover<MyObject> mongoDBArchiveMover;
+
+    @Data
+    @org.springframework.data.mongodb.core.mapping.Document("MyObject")
+    static class MyObject {
+        @Id
+        private final String id;
+        private final String status;
+    }
+
+    @BeforeEach
+    void setup() {
+        this.mongoDBBulkWriter = new MongoDBBulkWriter<>(reactiveMongoTemplate);
+        this.mongoDBArchiveMover = new MongoDBArchiveMover<>(reactiveMongoTemplate, mongoDBBulkWriter);
+        this.mongoDBArchiveMover.setChunkSize(2);
+        reactiveMongoTemplate.dropCollection(MyObject.class).block();
+        reactiveMongoTemplate.dropCollection(ARCHIVE).block();
+        reactiveMongoTemplate.dropCollection(MongoDBArchiveMover.DEFAULT_CHECKPOINT_COLLECTION).block();
+        reactiveMongoTemplate.insertAll(List.of(new MyObject("a", "closed"), new MyObject("b", "open"),
+                new MyObject("c", "closed"), new MyObject("d", "closed"), new MyObject("e", "open"))).blockLast();
+    }
+
+    private List<String> idsOf(String collectionName) {
+        return reactiveMongoTemplate.findAll(Document.class, collectionName)
+                .map(document -> document.getString("_id"))
+                .sort()
+                .collectList()
+                .block();
+    }
+
+    private static Document closed() {
+        return new Document("status", "closed");
+    }
+
+    @Nested
+    class MoveTest {
+        @Test
+        void shouldMoveMatchingDocumentsInChunks() {
+            StepVerifier.create(mongoDBArchiveMover.move(MyObject.class, closed()))
+                    .expectNext(3L)
+                    .verifyComplete();
+
+            assertThat(idsOf("MyObject")).containsExactly("b", "e");
+            assertThat(idsOf(ARCHIVE)).containsExactly("a", "c", "d");
+            assertThat(reactiveMongoTemplate.findAll(MyObject.class, ARCHIVE).collectList().block())
+                    .allMatch(myObject -> "closed".equals(myObject.getStatus()));
+            assertThat(idsOf(MongoDBArchiveMover.DEFAULT_CHECKPOINT_COLLECTION)).isEmpty();
+        }
+
+        @Test
+        void shouldReplaceDocumentsAlreadyArchived() {
+            reactiveMongoTemplate.insert(new MyObject("c", "draft"), ARCHIVE).block();
+
+            StepVerifier.create(mongoDBArchiveMover.move(MyObject.class, closed()))
+                    .expectNext(3L)
+                    .verifyComplete();
+
+            assertThat(idsOf("MyObject")).containsExactly("b", "e");
+            assertThat(idsOf(ARCHIVE)).containsExactly("a", "c", "d");
+            assertThat(reactiveMongoTemplate.findById("c", MyObject.class, ARCHIVE).block())
+                    .isEqualTo(new MyObject("c", "closed"));
+        }
+
+        @Test
+        void shouldNotDeleteDocumentsChangedSinceTheirCopy() {
+            // "a" is updated once, after the first chunk is copied and before it is deleted
+            AtomicBoolean updated = new AtomicBoolean();
+            WriteThrottler throttler = mock(WriteThrottler.class);
+            when(throttler.acquire(eq("MyObject"), anyLong(), anyLong())).thenAnswer(invocation -> updated
+                    .compareAndSet(false, true)
+                            ? reactiveMongoTemplate.updateFirst(Query.query(Criteria.where("_id").is("a")),
+                                    Update.update("note", "updated"), "MyObject").then()
+                            : Mono.empty());
+            mongoDBBulkWriter.setThrottler(throttler);
+
+            StepVerifier.create(mongoDBArchiveMover.move(MyObject.class, closed()))
+                    .expectNext(3L)
+                    .verifyComplete();
+
+            assertThat(idsOf("MyObject")).containsExactly("b", "e");
+            assertThat(idsOf(ARCHIVE)).containsExactly("a", "c", "d");
+            assertThat(reactiveMongoTemplate.findById("a", Document.class, ARCHIVE).block())
+                    .containsEntry("note", "updated");
+        }
+
+        @Test
+        void shouldNotDeleteDocumentsMissingFromTheArchive() {
+            // the copies are rejected by another unique index
+            reactiveMongoTemplate.getCollection(ARCHIVE)
+                    .flatMap(archive -> Mono.from(archive.createIndex(new Document("status", 1),
+                            new IndexOptions().unique(true))))
+                    .block();
+            reactiveMongoTemplate.insert(new MyObject("z", "closed"), ARCHIVE).block();
+
+            StepVerifier.create(mongoDBArchiveMover.move(MyObject.class, closed()))
+                    .verifyError(MongoBulkWriteException.class);
+
+            assertThat(idsOf("MyObject")).containsExactly("a", "b", "c", "d", "e");
+        }
+    }
+
+    @Nested
+    class ResumeTest {
+        private void interruptedAfterCopying(String id) {
+            reactiveMongoTemplate.insert(new Document("_id", new Document("collection", "MyObject")
+                    .append("archive", ARCHIVE))
+                            .append(MongoDBArchiveMover.PENDING_IDS, List.of(id))
+                            .append(MongoDBArchiveMover.NB_MOVED, 10L),
+                    MongoDBArchiveMover.DEFAULT_CHECKPOINT_COLLECTION).block();
+        }
+
+        @Test
+        void shouldCopyAgainTheIdsOfAnInterruptedChunkBeforeDeletingThem() {
+            // "c" was copied, then changed before being deleted
+            reactiveMongoTemplate.insert(new MyObject("c", "draft"), ARCHIVE).block();
+            interruptedAfterCopying("c");
+
+            StepVerifier.create(mongoDBArchiveMover.move(MyObject.class, closed()))
+                    .expectNext(13L)
+                    .verifyComplete();
+
+            assertThat(idsOf("MyObject")).containsExactly("b", "e");
+            assertThat(idsOf(ARCHIVE)).containsExactly("a", "c", "d");
+            assertThat(reactiveMongoTemplate.findById("c", MyObject.class, ARCHIVE).block())
+                    .isEqualTo(new MyObject("c", "closed"));
+        }
+
+        @Test
+        void shouldNotDeleteTheIdsOfAnInterruptedChunkThatNoLongerMatch() {
+            // "b" was copied, then reopened before being deleted
+            reactiveMongoTemplate.insert(new MyObject("b", "closed"), ARCHIVE).block();
+            interruptedAfterCopying("b");
+
+            StepVerifier.create(mongoDBArchiveMover.move(MyObject.class, closed()))
+                    .expectNext(13L)
+                    .verifyComplete();
+
+            assertThat(idsOf("MyObject")).containsExactly("b", "e");
+            assertThat(reactiveMongoTemplate.findById("b", MyObject.class).block())
+                    .isEqualTo(new MyObject("b", "open"));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import org.niogatori.mongohelper.models.WriteOutcome;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MongoDBBulkWriterOutcomesTest {
+
+    private ReactiveMongoTemplate template;
+    private WriteEngine engine;
+    private MongoDBBulkWriter<Object> writer;
+
+    static class MyVersionedObject {
+        private String name;
+        @Version
+        private Long version;
+    }
+
+    @BeforeEach
+    void setup() {
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE,
+                new MongoMappingContext());
+        converter.afterPropertiesSet();
+        template = mock(ReactiveMongoTemplate.class);
+        when(template.getConverter()).thenReturn(converter);
+        engine = mock(WriteEngine.class);
+        writer = new MongoDBBulkWriter<>(template);
+        writer.setEngine(engine);
+    }
+
+    private static UpdateCommand command(String... ids) {
+        Map<Document, Optional<Document>> objectsToSaveById = new LinkedHashMap<>();
+        for (String id : ids) {
+            objectsToSaveById.put(new Document("_id", id), Optional.of(new Document("name", id)));
+        }
+        return UpdateCommand.builder()
+                .update("MyCollection")
+                .ordered(true)
+                .build()
+                .withUpdates(objectsToSaveById, null, null, true, false);
+    }
+
+    @Nested
+    class ExecuteWithOutcomesTest {
+        @Test
+        void shouldReportEveryStatementOfACommandWithoutReply() {
+            doReturn(Flux.empty()).when(engine).execute(any());
+
+            StepVerifier.create(writer.executeWithOutcomes(command("a", "b")).collectList())
+                    .assertNext(outcomes -> {
+                        assertThat(outcomes).extracting(outcome -> outcome.getIdDocument().get("_id"))
+                                .containsExactly("a", "b");
+                        assertThat(outcomes).allMatch(WriteOutcome::isFailed);
+                        assertThat(outcomes.get(0).getErrorMessage()).contains("No reply");
+                    })
+                    .verifyComplete();
+        }
+
+        @Test
+        void shouldReportEveryStatementOfAFailedCommand() {
+            doReturn(Flux.error(new IllegalStateException("boom"))).when(engine).execute(any());
+
+            StepVerifier.create(writer.executeWithOutcomes(command("a", "b")).collectList())
+                    .assertNext(outcomes -> assertThat(outcomes).extracting(WriteOutcome::getErrorMessage)
+                            .containsExactly("boom", "boom"))
+                    .verifyComplete();
+        }
+
+        @Test
+        void shouldMapTheReplyPerStatement() {
+            doReturn(Flux.just(new Document("n", 1).append("nModified", 1)
+                    .append("writeErrors", List.of(new Document("index", 1).append("code", 2)
+                            .append("errmsg", "bad"))))).when(engine).execute(any());
+
+            StepVerifier.create(writer.executeWithOutcomes(command("a", "b", "c")).collectList())
+                    .assertNext(outcomes -> assertThat(outcomes).extracting(WriteOutcome::getStatus)
+                            .containsExactly(WriteOutcome.Status.MODIFIED, WriteOutcome.Status.FAILED,
+                                    WriteOutcome.Status.FAILED))
+                    .verifyComplete();
+        }
+    }
+
+    @Nested
+    class VersionConflictTest {
+        @Test
+        void shouldOnlyReportDuplicatesOnIdAsConflicts() {
+            when(template.getCollectionName(MyVersionedObject.class)).thenReturn("MyVersionedObject");
+            MongoDBBulkWriter<MyVersionedObject> versionedWriter = new MongoDBBulkWriter<>(template);
+            versionedWriter.setEngine(engine);
+            doReturn(Flux.just(new Document("n", 0).append("nModified", 0).append("writeErrors", List.of(
+                    new Document("index", 0).append("code", 11000).append("errmsg", "E11000 duplicate key")
+                            .append("keyPattern", new Document("_id", 1)),
+                    new Document("index", 1).append("code", 11000).append("errmsg", "E11000 duplicate key")
+                            .append("keyPattern", new Document("sku", 1)),
+                    new Document("index", 2).append("code", 11000).append("errmsg", "E11000 duplicate key "
+                            + "collection: db.MyVersionedObject index: _id_ dup key"))))).when(engine).execute(any());
+            Map<Document, Optional<Document>> patches = new LinkedHashMap<>();
+            Map<Document, Long> versions = new LinkedHashMap<>();
+            for (String id : List.of("a", "b", "c")) {
+                patches.put(new Document("_id", id), Optional.of(new Document("name", id)));
+                versions.put(new Document("_id", id), 1L);
+            }
+
+            StepVerifier.create(versionedWriter.upsertVersioned(MyVersionedObject.class, patches, versions, null,
+                    Map.of()).collectList())
+                    .assertNext(outcomes -> assertThat(outcomes).extracting(WriteOutcome::getStatus)
+                            .containsExactly(WriteOutcome.Status.CONFLICT, WriteOutcome.Status.FAILED,
+                                    WriteOutcome.Status.FAILED))
+                    .verifyComplete();
+        }
+    }
+}
@@ -9,6 +9,8 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.niogatori.mongohelper.config.TestConfig;
+import org.niogatori.mongohelper.models.UpdateSpec;
+import org.niogatori.mongohelper.models.WriteOutcome;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
 import org.springframework.context.annotation.ComponentScan;
@@ -259,6 +261,33 @@ class MongoDBBulkWriterTest {
 
     }
 
+    @Nested
+    class UpsertManySpecsTest {
+        @Test
+        void shouldApplyEachSpecInChunks() {
+            MyId myId1 = new MyId("myObject1", 1);
+            MyId myId2 = new MyId("myObject2", 1);
+            MyId myId3 = new MyId("myObject3", 1);
+            reactiveMongoTemplate.insertAll(List.of(new MyObject(myId1, "Riri", null, 0),
+                    new MyObject(myId2, "Fifi", null, 1), new MyObject(myId3, "Loulou", null, 1))).blockLast();
+            mongoDBBulkWriter.setChunkSize(2);
+
+            StepVerifier.create(mongoDBBulkWriter.upsertMany(MyObject.class, List.of(
+                    UpdateSpec.builder().criteria(new Document("nbItems", 1))
+                            .fieldsToSet(new Document("desc", "one")).build(),
+                    UpdateSpec.builder().criteria(new Document("nbItems", 0))
+                            .fieldsToSet(new Document("desc", "none")).build(),
+                    UpdateSpec.builder().criteria(myId3.mapToBSON())
+                            .fieldsToSet(new Document("desc", "last")).multi(false).build())))
+                    .expectNext(4)
+                    .verifyComplete();
+
+            assertThat(reactiveMongoTemplate.findAll(MyObject.class).collectMap(MyObject::getId, MyObject::getDesc)
+                    .block())
+                            .isEqualTo(Map.of(myId1, "none", myId2, "one", myId3, "last"));
+        }
+    }
+
     @Nested
     class UpsertManyUnsetTest {
 
@@ -557,4 +586,130 @@ class MongoDBBulkWriterTest {
                     .verifyComplete();
         }
     }
+
+    @Nested
+    class UpsertGroupedTest {
+        @Test
+        void shouldUpdateExistingDocumentsOfAPatchTogetherAndUpsertTheOthers() {
+            MyId myId1 = new MyId("myObject1", 1);
+            MyId myId2 = new MyId("myObject2", 1);
+            MyId myId3 = new MyId("myObject3", 1);
+            reactiveMongoTemplate.insertAll(List.of(new MyObject(myId1, "Riri", null, 0),
+                    new MyObject(myId2, "Fifi", null, 1))).blockLast();
+            Map<Document, Optional<Document>> map = Map.of(
+                    myId1.mapToBSON(), Optional.of(new Document("desc", "archived")),
+                    myId2.mapToBSON(), Optional.of(new Document("desc", "archived")),
+                    myId3.mapToBSON(), Optional.of(new Document("desc", "archived")));
+
+            StepVerifier.create(mongoDBBulkWriter.upsertGrouped(MyObject.class, map, null, Map.of("nbItems", 10)))
+                    .expectNext(3)
+                    .verifyComplete();
+
+            assertThat(reactiveMongoTemplate.findAll(MyObject.class).collectList().block())
+                    .containsExactlyInAnyOrder(new MyObject(myId1, "Riri", "archived", 0),
+                            new MyObject(myId2, "Fifi", "archived", 1),
+                            new MyObject(myId3, null, "archived", 10));
+        }
+    }
+
+    @Nested
+    class UpsertVersionedTest {
+        private final MyId outdated = new MyId("outdated", 1);
+        private final MyId upToDate = new MyId("upToDate", 1);
+        private final MyId created = new MyId("created", 1);
+
+        @BeforeEach
+        void insertVersionedDocuments() {
+            reactiveMongoTemplate.insert(List.of(
+                    new Document(outdated.mapToBSON()).append("name", "Riri").append("version", 2),
+                    new Document(upToDate.mapToBSON()).append("name", "Fifi").append("version", 5)), "MyObject")
+                    .blockLast();
+        }
+
+        private Map<Document, Optional<Document>> patches() {
+            return Map.of(outdated.mapToBSON(), Optional.of(new Document("desc", "patched")),
+                    upToDate.mapToBSON(), Optional.of(new Document("desc", "patched")),
+                    created.mapToBSON(), Optional.of(new Document("desc", "patched")));
+        }
+
+        private Map<Document, Long> expectedVersions() {
+            return Map.of(outdated.mapToBSON(), 1L, upToDate.mapToBSON(), 5L);
+        }
+
+        private Integer versionOf(MyId myId) {
+            return reactiveMongoTemplate.findById(myId.mapToBSON().get("_id"), Document.class, "MyObject")
+                    .map(document -> document.getInteger("version"))
+                    .block();
+        }
+
+        @Test
+        void shouldReportConflictsWithoutFailingTheOthers() {
+            StepVerifier.create(mongoDBBulkWriter.upsertVersioned(MyObject.class, patches(), expectedVersions(), null,
+                    null).collectMap(WriteOutcome::getIdDocument, WriteOutcome::getStatus))
+                    .expectNext(Map.of(outdated.mapToBSON(), WriteOutcome.Status.CONFLICT,
+                            upToDate.mapToBSON(), WriteOutcome.Status.MODIFIED,
+                            created.mapToBSON(), WriteOutcome.Status.UPSERTED))
+                    .verifyComplete();
+
+            assertThat(versionOf(outdated)).isEqualTo(2);
+            assertThat(versionOf(upToDate)).isEqualTo(6);
+            assertThat(versionOf(created)).isEqualTo(1);
+        }
+
+        @Test
+        void shouldReapplyConflictingPatchesWithTheCurrentVersion() {
+            mongoDBBulkWriter.setConflictResolver(VersionConflictResolver.REAPPLY);
+
+            StepVerifier.create(mongoDBBulkWriter.upsertVersioned(MyObject.class, patches(), expectedVersions(), null,
+                    null).collectMap(WriteOutcome::getIdDocument, WriteOutcome::getStatus))
+                    .expectNext(Map.of(outdated.mapToBSON(), WriteOutcome.Status.MODIFIED,
+                            upToDate.mapToBSON(), WriteOutcome.Status.MODIFIED,
+                            created.mapToBSON(), WriteOutcome.Status.UPSERTED))
+                    .verifyComplete();
+
+            assertThat(versionOf(outdated)).isEqualTo(3);
+        }
+    }
+
+    @Nested
+    class UpsertWithOutcomesTest {
+        @Test
+        void shouldEmitOutcomeOfEachEntry() {
+            MyId existingId = new MyId("existing", 1);
+            MyId newId = new MyId("new", 1);
+            reactiveMongoTemplate.save(new MyObject(existingId, "toto", null, 1)).block();
+            mongoDBBulkWriter.setChunkSize(1);
+
+            Map<Document, Optional<Document>> map = Map.of(
+                    existingId.mapToBSON(), Optional.of(new Document("name", "tata")),
+                    newId.mapToBSON(), Optional.of(new Document("name", "tata")));
+
+            StepVerifier.create(mongoDBBulkWriter.upsertWithOutcomes(MyObject.class, map, null, null)
+                    .collectMap(WriteOutcome::getIdDocument, WriteOutcome::getStatus))
+                    .expectNext(Map.of(existingId.mapToBSON(), WriteOutcome.Status.MODIFIED,
+                            newId.mapToBSON(), WriteOutcome.Status.UPSERTED))
+                    .verifyComplete();
+        }
+    }
+
+    @Nested
+    class DeleteTest {
+        @Test
+        void shouldDeleteDocumentsOfTheIdsInChunks() {
+            MyId myId1 = new MyId("ref1", 1);
+            MyId myId2 = new MyId("ref2", 1);
+            MyId myId3 = new MyId("ref3", 1);
+            reactiveMongoTemplate.insertAll(List.of(new MyObject(myId1, "Riri", null, 0),
+                    new MyObject(myId2, "Fifi", null, 1), new MyObject(myId3, "Loulou", null, 2))).blockLast();
+            mongoDBBulkWriter.setChunkSize(1);
+
+            StepVerifier.create(mongoDBBulkWriter.delete(MyObject.class,
+                    List.of(myId1.mapToBSON().get("_id"), myId2.mapToBSON().get("_id"), "unknown")))
+                    .expectNext(2L)
+                    .verifyComplete();
+
+            assertThat(reactiveMongoTemplate.findAll(MyObject.class).collectList().block())
+                    .containsExactly(new MyObject(myId3, "Loulou", null, 2));
+        }
+    }
 }
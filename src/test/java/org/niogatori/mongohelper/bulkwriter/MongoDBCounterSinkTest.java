@@ -0,0 +1,311 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import org.niogatori.mongohelper.models.WriteOutcome;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MongoDBCounterSinkTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private MongoDBBulkWriter<Object> writer;
+    private List<UpdateCommand> executed;
+    private MongoDBCounterSink<Object> sink;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        writer = mock(MongoDBBulkWriter.class);
+        executed = new CopyOnWriteArrayList<>();
+        when(writer.getChunkSize()).thenReturn(1000);
+        when(writer.toIdDocument(any())).thenAnswer(invocation -> new Document("_id", invocation.getArgument(0)));
+        when(writer.executeWithOutcomes(any())).thenAnswer(invocation -> {
+            UpdateCommand updateCommand = invocation.getArgument(0);
+            executed.add(updateCommand);
+            return upserted(updateCommand);
+        });
+        sink = counterSink(CounterSettings.builder().flushInterval(Duration.ofHours(1)).build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        sink.dispose();
+    }
+
+    private MongoDBCounterSink<Object> counterSink(CounterSettings settings) {
+        return new MongoDBCounterSink<>(writer, "MyCounters", settings);
+    }
+
+    private static Flux<WriteOutcome> upserted(UpdateCommand updateCommand) {
+        return Flux.fromIterable(updateCommand.getUpdates())
+                .map(statement -> new WriteOutcome(statement.get("q", Document.class), WriteOutcome.Status.UPSERTED,
+                        null, null));
+    }
+
+    private List<Document> statements() {
+        List<Document> statements = new ArrayList<>();
+        executed.forEach(updateCommand -> statements.addAll(updateCommand.getUpdates()));
+        return statements;
+    }
+
+    private static BsonDocument incOf(Document statement) {
+        return statement.get("u", BsonDocument.class).getDocument("$inc");
+    }
+
+    private long total(String field) {
+        return statements().stream()
+                .map(MongoDBCounterSinkTest::incOf)
+                .filter(inc -> inc.containsKey(field))
+                .mapToLong(inc -> inc.getInt64(field).getValue())
+                .sum();
+    }
+
+    @Nested
+    class AggregationTest {
+        @Test
+        void shouldWriteTheSumsOfADocumentInOneUpsert() {
+            sink.increment("a", "views");
+            sink.increment("a", "views");
+            sink.increment("a", "clicks", 5);
+            sink.increment("b", "views", -1);
+
+            StepVerifier.create(sink.flush()).expectNext(2).verifyComplete();
+
+            assertThat(executed).hasSize(1);
+            assertThat(statements()).extracting(statement -> statement.get("q")).containsExactlyInAnyOrder(
+                    new Document("_id", "a"), new Document("_id", "b"));
+            Document statementOfA = statements().stream()
+                    .filter(statement -> new Document("_id", "a").equals(statement.get("q")))
+                    .findFirst()
+                    .orElseThrow();
+            assertThat(incOf(statementOfA)).isEqualTo(BsonDocument.parse(
+                    "{ views: { $numberLong: '2' }, clicks: { $numberLong: '5' } }"));
+            assertThat(statementOfA.getBoolean("upsert")).isTrue();
+            assertThat(sink.pendingCounters()).isZero();
+        }
+
+        @Test
+        void shouldSkipCountersSummingToZero() {
+            sink.increment("a", "views", 3);
+            sink.increment("a", "views", -3);
+
+            StepVerifier.create(sink.flush()).expectNext(0).verifyComplete();
+            assertThat(executed).isEmpty();
+        }
+
+        @Test
+        void shouldWriteInChunks() {
+            when(writer.getChunkSize()).thenReturn(2);
+            for (int i = 0; i < 5; i++) {
+                sink.increment("id" + i, "views");
+            }
+
+            sink.flush().block(TIMEOUT);
+
+            assertThat(executed).extracting(updateCommand -> updateCommand.getUpdates().size())
+                    .containsExactly(2, 2, 1);
+        }
+
+        @Test
+        void shouldFlushOnceTheMaxCountersIsReached() {
+            MongoDBCounterSink<Object> small = counterSink(CounterSettings.builder().maxCounters(3)
+                    .flushInterval(Duration.ofHours(1)).build());
+
+            small.increment("a", "views");
+            small.increment("b", "views");
+            small.increment("c", "views");
+
+            StepVerifier.create(Mono.fromSupplier(() -> executed.size()).filter(size -> size > 0)
+                    .repeatWhenEmpty(ticks -> ticks.delayElements(Duration.ofMillis(10))))
+                    .expectNext(1)
+                    .expectComplete()
+                    .verify(TIMEOUT);
+            small.dispose();
+        }
+
+        @Test
+        void shouldFlushAgainWhenTheMaxCountersIsReachedDuringAFlush() {
+            Sinks.One<Integer> firstWrite = Sinks.one();
+            doAnswer(invocation -> {
+                UpdateCommand updateCommand = invocation.getArgument(0);
+                executed.add(updateCommand);
+                return executed.size() == 1 ? firstWrite.asMono().flatMapMany(n -> upserted(updateCommand))
+                        : upserted(updateCommand);
+            }).when(writer).executeWithOutcomes(any());
+            MongoDBCounterSink<Object> small = counterSink(CounterSettings.builder().maxCounters(2)
+                    .flushInterval(Duration.ofHours(1)).build());
+            small.increment("a", "views");
+            small.flush().subscribe();
+
+            small.increment("b", "views");
+            small.increment("c", "views");
+            firstWrite.tryEmitValue(1);
+
+            StepVerifier.create(Mono.fromSupplier(() -> executed.size()).filter(size -> size > 1)
+                    .repeatWhenEmpty(ticks -> ticks.delayElements(Duration.ofMillis(10))))
+                    .expectNext(2)
+                    .expectComplete()
+                    .verify(TIMEOUT);
+            assertThat(executed.get(1).getUpdates()).extracting(statement -> statement.get("q"))
+                    .containsExactlyInAnyOrder(new Document("_id", "b"), new Document("_id", "c"));
+            small.dispose();
+        }
+    }
+
+    @Nested
+    class ConsistencyTest {
+        @Test
+        void shouldNotLoseIncrementsDuringFlushes() throws Exception {
+            int nbProducers = 4;
+            int nbIncrements = 50_000;
+            ExecutorService producers = Executors.newFixedThreadPool(nbProducers);
+            CountDownLatch started = new CountDownLatch(nbProducers);
+            List<Future<?>> produced = new ArrayList<>();
+            for (int p = 0; p < nbProducers; p++) {
+                produced.add(producers.submit(() -> {
+                    started.countDown();
+                    for (int i = 0; i < nbIncrements; i++) {
+                        sink.increment("id" + (i % 10), "views");
+                    }
+                }));
+            }
+            started.await();
+            while (produced.stream().anyMatch(future -> !future.isDone())) {
+                sink.flush().block(TIMEOUT);
+            }
+            for (Future<?> future : produced) {
+                future.get();
+            }
+            producers.shutdown();
+            producers.awaitTermination(5, TimeUnit.SECONDS);
+            sink.flush().block(TIMEOUT);
+
+            assertThat(total("views")).isEqualTo((long) nbProducers * nbIncrements);
+        }
+
+        @Test
+        void shouldRetryTheIncrementsOfAFailedFlush() {
+            doAnswer(invocation -> Flux.fromIterable(WriteOutcome.fromError(invocation.getArgument(0),
+                    new IllegalStateException("timeout")))).when(writer).executeWithOutcomes(any());
+            sink.increment("a", "views", 2);
+
+            StepVerifier.create(sink.flush()).expectNext(0).verifyComplete();
+            sink.increment("a", "views");
+            doAnswer(invocation -> {
+                UpdateCommand updateCommand = invocation.getArgument(0);
+                executed.add(updateCommand);
+                return upserted(updateCommand);
+            }).when(writer).executeWithOutcomes(any());
+
+            StepVerifier.create(sink.flush()).expectNext(1).verifyComplete();
+            assertThat(total("views")).isEqualTo(3);
+        }
+
+        @Test
+        void shouldRetryTheIncrementsOfRejectedStatements() {
+            when(writer.getChunkSize()).thenReturn(2);
+            doAnswer(invocation -> {
+                UpdateCommand updateCommand = invocation.getArgument(0);
+                executed.add(updateCommand);
+                Document reply = new Document("n", 1).append("nModified", 0)
+                        .append("upserted", List.of(new Document("index", 0)))
+                        .append("writeErrors", List.of(new Document("index", 1).append("code", 11000)
+                                .append("errmsg", "E11000 duplicate key")));
+                return Flux.fromIterable(WriteOutcome.fromReply(updateCommand, reply));
+            }).when(writer).executeWithOutcomes(any());
+            sink.increment("a", "views", 2);
+            sink.increment("b", "views", 3);
+
+            StepVerifier.create(sink.flush()).expectNext(1).verifyComplete();
+
+            Document rejected = executed.get(0).getUpdates().get(1);
+            Object rejectedId = rejected.get("q", Document.class).get("_id");
+            assertThat(sink.pendingCounters()).isOne();
+            executed.clear();
+            doAnswer(invocation -> {
+                UpdateCommand updateCommand = invocation.getArgument(0);
+                executed.add(updateCommand);
+                return upserted(updateCommand);
+            }).when(writer).executeWithOutcomes(any());
+
+            StepVerifier.create(sink.flush()).expectNext(1).verifyComplete();
+            assertThat(statements()).extracting(statement -> statement.get("q"))
+                    .containsExactly(new Document("_id", rejectedId));
+            assertThat(incOf(statements().get(0))).isEqualTo(incOf(rejected));
+        }
+    }
+
+    @Nested
+    class CloseTest {
+        @Test
+        void shouldWriteThePendingIncrementsOnClose() {
+            sink.increment("a", "views", 2);
+
+            StepVerifier.create(sink.close()).expectNext(1).verifyComplete();
+
+            assertThat(total("views")).isEqualTo(2);
+            assertThat(sink.isDisposed()).isTrue();
+        }
+
+        @Test
+        void shouldWaitForTheRunningFlushOnClose() {
+            Sinks.One<Integer> firstWrite = Sinks.one();
+            doAnswer(invocation -> {
+                UpdateCommand updateCommand = invocation.getArgument(0);
+                executed.add(updateCommand);
+                return executed.size() == 1 ? firstWrite.asMono().flatMapMany(n -> upserted(updateCommand))
+                        : upserted(updateCommand);
+            }).when(writer).executeWithOutcomes(any());
+            sink.increment("a", "views");
+            sink.flush().subscribe();
+            sink.increment("b", "views");
+
+            StepVerifier.create(sink.close())
+                    .then(() -> firstWrite.tryEmitValue(1))
+                    .expectNext(1)
+                    .expectComplete()
+                    .verify(TIMEOUT);
+            assertThat(executed).hasSize(2);
+            assertThat(executed.get(1).getUpdates()).extracting(statement -> statement.get("q"))
+                    .containsExactly(new Document("_id", "b"));
+        }
+
+        @Test
+        void shouldWriteThePendingIncrementsOnDispose() {
+            sink.increment("a", "views");
+
+            sink.dispose();
+
+            StepVerifier.create(Mono.fromSupplier(() -> executed.size()).filter(size -> size > 0)
+                    .repeatWhenEmpty(ticks -> ticks.delayElements(Duration.ofMillis(10))))
+                    .expectNext(1)
+                    .expectComplete()
+                    .verify(TIMEOUT);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import org.niogatori.mongohelper.models.WriteOutcome;
+import org.niogatori.mongohelper.models.WriteOutcomeException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MongoDBLaneWriterTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private MongoDBBulkWriter<Object> writer;
+    private List<UpdateCommand> executed;
+    private MongoDBLaneWriter<Object> laneWriter;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        writer = mock(MongoDBBulkWriter.class);
+        executed = new CopyOnWriteArrayList<>();
+        when(writer.executeWithOutcomes(any())).thenAnswer(invocation -> {
+            UpdateCommand updateCommand = invocation.getArgument(0);
+            executed.add(updateCommand);
+            return modified(updateCommand);
+        });
+        laneWriter = laneWriter(LaneSettings.builder().lanes(4).maxBatchSize(3).maxBatchDelay(Duration.ofMillis(5))
+                .build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        laneWriter.dispose();
+    }
+
+    private MongoDBLaneWriter<Object> laneWriter(LaneSettings settings) {
+        return new MongoDBLaneWriter<>(writer, "MyCollection", settings);
+    }
+
+    private static UpdateCommand command(String id, String name) {
+        return UpdateCommand.builder()
+                .update("MyCollection")
+                .ordered(true)
+                .build()
+                .withUpdates(Map.of(new Document("_id", id), Optional.of(new Document("name", name))), null, null,
+                        true, false);
+    }
+
+    private static Flux<WriteOutcome> modified(UpdateCommand updateCommand) {
+        return Flux.fromIterable(WriteOutcome.fromReply(updateCommand, new Document("n", updateCommand.getUpdates()
+                .size()).append("nModified", updateCommand.getUpdates().size())));
+    }
+
+    private static String nameOf(Document statement) {
+        return statement.get("u", BsonDocument.class).getDocument("$set").getString("name").getValue();
+    }
+
+    @Nested
+    class OrderingTest {
+        @Test
+        void shouldApplyPatchesOfADocumentInSubmissionOrder() {
+            List<Mono<Void>> submitted = IntStream.range(0, 10)
+                    .mapToObj(i -> laneWriter.submit(command("a", "name" + i)))
+                    .collect(Collectors.toList());
+
+            StepVerifier.create(Mono.when(submitted)).expectComplete().verify(TIMEOUT);
+
+            assertThat(executed).allMatch(UpdateCommand::isOrdered);
+            assertThat(executed.stream().flatMap(cmd -> cmd.getUpdates().stream()).map(MongoDBLaneWriterTest::nameOf))
+                    .containsExactly(IntStream.range(0, 10).mapToObj(i -> "name" + i).toArray(String[]::new));
+        }
+
+        @Test
+        void shouldBatchStatementsOfALane() {
+            MongoDBLaneWriter<Object> slowFlushing = laneWriter(LaneSettings.builder().lanes(1).maxBatchSize(3)
+                    .maxBatchDelay(Duration.ofMillis(500)).build());
+            List<Mono<Void>> submitted = IntStream.range(0, 7)
+                    .mapToObj(i -> slowFlushing.submit(command("a", "name" + i)))
+                    .collect(Collectors.toList());
+
+            Mono.when(submitted).block(TIMEOUT);
+            slowFlushing.dispose();
+
+            assertThat(executed).extracting(cmd -> cmd.getUpdates().size()).containsExactly(3, 3, 1);
+        }
+    }
+
+    @Nested
+    class ConcurrencyTest {
+        @Test
+        void shouldKeepWritingOtherLanesWhileOneIsBusy() {
+            Sinks.Empty<Void> slowWrite = Sinks.empty();
+            Document slowStatement = command("slow", "slow").getUpdates().get(0);
+            String otherId = IntStream.range(0, 100).mapToObj(i -> "id" + i)
+                    .filter(id -> laneWriter.laneOf(command(id, id).getUpdates().get(0)) != laneWriter.laneOf(
+                            slowStatement))
+                    .findFirst()
+                    .orElseThrow();
+            doAnswer(invocation -> {
+                UpdateCommand updateCommand = invocation.getArgument(0);
+                return updateCommand.getUpdates().contains(slowStatement)
+                        ? slowWrite.asMono().thenMany(modified(updateCommand))
+                        : modified(updateCommand);
+            }).when(writer).executeWithOutcomes(any());
+
+            Mono<Void> slow = laneWriter.submit(command("slow", "slow")).cache();
+            slow.subscribe();
+
+            StepVerifier.create(laneWriter.submit(command(otherId, "other"))).expectComplete().verify(TIMEOUT);
+            slowWrite.tryEmitEmpty();
+            StepVerifier.create(slow).expectComplete().verify(TIMEOUT);
+        }
+    }
+
+    @Nested
+    class BackpressureTest {
+        @Test
+        void shouldRejectStatementsOfAFullLane() {
+            Sinks.Empty<Void> blockedWrite = Sinks.empty();
+            doAnswer(invocation -> blockedWrite.asMono().thenMany(modified(invocation.getArgument(0))))
+                    .when(writer).executeWithOutcomes(any());
+            MongoDBLaneWriter<Object> shallow = laneWriter(LaneSettings.builder().lanes(1).queueDepth(2).build());
+
+            shallow.submit(command("a", "first")).subscribe();
+            shallow.submit(command("b", "second")).subscribe();
+
+            StepVerifier.create(shallow.submit(command("c", "third"))).verifyError(IllegalStateException.class);
+            blockedWrite.tryEmitEmpty();
+            shallow.dispose();
+        }
+
+        @Test
+        void shouldFailStatementsOfAFailedBatch() {
+            doAnswer(invocation -> Flux.fromIterable(WriteOutcome.fromError(invocation.getArgument(0),
+                    new IllegalStateException("timeout")))).when(writer).executeWithOutcomes(any());
+
+            StepVerifier.create(laneWriter.submit(command("a", "name"))).expectError(WriteOutcomeException.class)
+                    .verify(TIMEOUT);
+            assertThat(laneWriter.pendingStatements()).allMatch(pending -> pending == 0);
+        }
+
+        @Test
+        void shouldFailTheFailedStatementAndTheOnesNotExecutedAfterIt() {
+            MongoDBLaneWriter<Object> single = laneWriter(LaneSettings.builder().lanes(1).maxBatchSize(3).build());
+            doAnswer(invocation -> Flux.fromIterable(WriteOutcome.fromReply(invocation.getArgument(0),
+                    new Document("n", 1).append("nModified", 1).append("writeErrors", List.of(new Document("index", 1)
+                            .append("code", 121).append("errmsg", "Document failed validation"))))))
+                                    .when(writer).executeWithOutcomes(any());
+
+            // queued right away so that they share a batch
+            List<Mono<Void>> submitted = Stream.of("first", "second", "third")
+                    .map(name -> single.submit(command(name, name)).cache())
+                    .peek(written -> written.subscribe(null, error -> {
+                    }))
+                    .collect(Collectors.toList());
+            Mono<Void> first = submitted.get(0);
+            Mono<Void> second = submitted.get(1);
+            Mono<Void> third = submitted.get(2);
+
+            StepVerifier.create(first).expectComplete().verify(TIMEOUT);
+            StepVerifier.create(second)
+                    .expectErrorSatisfies(error -> assertThat(((WriteOutcomeException) error).getOutcome()
+                            .getErrorCode()).isEqualTo(121))
+                    .verify(TIMEOUT);
+            StepVerifier.create(third)
+                    .expectErrorSatisfies(error -> assertThat(error).hasMessageContaining("Not executed"))
+                    .verify(TIMEOUT);
+            single.dispose();
+        }
+
+        @Test
+        void shouldRejectCommandOfAnotherCollection() {
+            UpdateCommand other = command("a", "name");
+            other.setUpdate("Other");
+
+            StepVerifier.create(laneWriter.submit(other)).verifyError(IllegalArgumentException.class);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import lombok.Data;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.niogatori.mongohelper.config.TestConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Import(TestConfig.class)
+@DataMongoTest
+class MongoDBMergeLoaderTest {
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    private MongoDBMergeLoader<MyObject> mongoDBMergeLoader;
+    private MongoDBBulkWriter<MyObject> mongoDBBulkWriter;
+
+    @Data
+    @org.springframework.data.mongodb.core.mapping.Document("MyObject")
+    static class MyObject {
+        @Id
+        private final String id;
+        private final String name;
+        private final String desc;
+        private final Integer nbItems;
+    }
+
+    @BeforeEach
+    void setup() {
+        this.mongoDBMergeLoader = new MongoDBMergeLoader<>(reactiveMongoTemplate);
+        this.mongoDBMergeLoader.setChunkSize(2);
+        this.mongoDBBulkWriter = new MongoDBBulkWriter<>(reactiveMongoTemplate);
+        reactiveMongoTemplate.dropCollection(MyObject.class).block();
+        reactiveMongoTemplate.insertAll(List.of(new MyObject("existing0", "name0", "desc0", 0),
+                new MyObject("existing1", "name1", "desc1", 1))).blockLast();
+    }
+
+    private List<Document> findAll() {
+        return reactiveMongoTemplate.findAll(Document.class, "MyObject")
+                .sort((first, second) -> first.getString("_id").compareTo(second.getString("_id")))
+                .collectList()
+                .block();
+    }
+
+    @Nested
+    class LoadTest {
+        @Test
+        void shouldInsertAndPatchDocuments() {
+            Map<Document, Optional<Document>> patches = Map.of(
+                    mongoDBBulkWriter.toIdDocument("existing0"), Optional.of(new Document("name", "new0")),
+                    mongoDBBulkWriter.toIdDocument("new2"), Optional.of(new Document("name", "new2")),
+                    mongoDBBulkWriter.toIdDocument("new3"), Optional.of(new Document("name", "new3")));
+
+            StepVerifier.create(mongoDBMergeLoader.load(MyObject.class, patches, List.of("desc"),
+                    Map.of("nbItems", 10)))
+                    .expectNext(3L)
+                    .verifyComplete();
+
+            assertThat(reactiveMongoTemplate.findAll(MyObject.class).collectList().block())
+                    .containsExactlyInAnyOrder(new MyObject("existing0", "new0", null, 0),
+                            new MyObject("existing1", "name1", "desc1", 1),
+                            new MyObject("new2", "new2", null, 10),
+                            new MyObject("new3", "new3", null, 10));
+        }
+
+        @Test
+        void shouldWriteLikeBulkWriterUpserts() {
+            Map<Document, Optional<Document>> patches = Map.of(
+                    mongoDBBulkWriter.toIdDocument("existing1"), Optional.of(new Document("nbItems", 5)),
+                    mongoDBBulkWriter.toIdDocument("new2"), Optional.of(new Document("name", "new2")));
+            mongoDBBulkWriter.upsert(MyObject.class, patches, List.of("desc"), Map.of("nbItems", 10)).block();
+            List<Document> upserted = findAll();
+            setup();
+
+            mongoDBMergeLoader.load(MyObject.class, patches, List.of("desc"), Map.of("nbItems", 10)).block();
+
+            assertThat(findAll()).isEqualTo(upserted);
+        }
+
+        @Test
+        void shouldStreamManyChunksAndDropStagingCollection() {
+            Flux<Map.Entry<Document, Optional<Document>>> patches = Flux.range(0, 11)
+                    .map(i -> Map.entry(mongoDBBulkWriter.toIdDocument("new" + i),
+                            Optional.of(new Document("nbItems", i))));
+
+            StepVerifier.create(mongoDBMergeLoader.load(MyObject.class, patches, null, null))
+                    .expectNext(11L)
+                    .verifyComplete();
+
+            assertThat(reactiveMongoTemplate.count(new Query(),
+                    MyObject.class).block()).isEqualTo(13);
+            assertThat(reactiveMongoTemplate.getCollectionNames().collectList().block())
+                    .noneMatch(name -> name.contains("_staging_"));
+        }
+
+        @Test
+        void shouldDropStagingCollectionOnError() {
+            Flux<Map.Entry<Document, Optional<Document>>> duplicates = Flux.just(
+                    Map.entry(mongoDBBulkWriter.toIdDocument("new"), Optional.of(new Document("nbItems", 1))),
+                    Map.entry(mongoDBBulkWriter.toIdDocument("new"), Optional.of(new Document("nbItems", 2))));
+
+            StepVerifier.create(mongoDBMergeLoader.load(MyObject.class, duplicates, null, null))
+                    .expectError()
+                    .verify();
+
+            assertThat(reactiveMongoTemplate.getCollectionNames().collectList().block())
+                    .noneMatch(name -> name.contains("_staging_"));
+        }
+    }
+
+    @Nested
+    class MergePipelineTest {
+        @Test
+        void shouldKeepSetOnInsertFieldsOutOfMatchedDocuments() {
+            List<Document> pipeline = mongoDBMergeLoader.toMergePipeline("MyObject", List.of("desc"),
+                    new Document("nbItems", 10));
+
+            assertThat(pipeline).extracting(stage -> stage.keySet().iterator().next())
+                    .containsExactly("$replaceWith", "$unset", "$merge");
+            Document merge = pipeline.get(2).get("$merge", Document.class);
+            assertThat(merge.getString("on")).isEqualTo("_id");
+            assertThat(merge.getString("whenNotMatched")).isEqualTo("insert");
+            assertThat(merge.getList("whenMatched", Document.class).get(0).toJson()).contains("\"nbItems\"");
+            assertThat(pipeline.get(0).toJson()).contains("$literal");
+        }
+    }
+}
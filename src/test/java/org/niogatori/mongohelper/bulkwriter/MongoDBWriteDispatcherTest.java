@@ -0,0 +1,219 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import org.niogatori.mongohelper.models.WriteOutcome;
+import org.niogatori.mongohelper.models.WriteOutcomeException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MongoDBWriteDispatcherTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    static class MyProduct {
+    }
+
+    static class MyOrder {
+    }
+
+    private MongoDBBulkWriter<Object> writer;
+    private List<UpdateCommand> executed;
+    private MongoDBWriteDispatcher dispatcher;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        writer = mock(MongoDBBulkWriter.class);
+        executed = new CopyOnWriteArrayList<>();
+        when(writer.getCollectionName(MyProduct.class)).thenReturn("MyProduct");
+        when(writer.getCollectionName(MyOrder.class)).thenReturn("MyOrder");
+        when(writer.toDocument(any())).thenReturn(new Document());
+        when(writer.executeWithOutcomes(any())).thenAnswer(invocation -> {
+            UpdateCommand updateCommand = invocation.getArgument(0);
+            executed.add(updateCommand);
+            return modified(updateCommand);
+        });
+        dispatcher = dispatcher(DispatchSettings.builder().maxBatchSize(100).maxBatchDelay(Duration.ofMillis(50))
+                .build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.dispose();
+    }
+
+    private MongoDBWriteDispatcher dispatcher(DispatchSettings settings) {
+        return new MongoDBWriteDispatcher(writer, settings);
+    }
+
+    private static Flux<WriteOutcome> modified(UpdateCommand updateCommand) {
+        return Flux.fromIterable(WriteOutcome.fromReply(updateCommand, new Document("n", updateCommand.getUpdates()
+                .size()).append("nModified", updateCommand.getUpdates().size())));
+    }
+
+    private static Map<Document, Optional<Document>> patch(String id, String name) {
+        return Map.of(new Document("_id", id), Optional.of(new Document("name", name)));
+    }
+
+    @Nested
+    class BatchingTest {
+        @Test
+        void shouldBatchStatementsByCollection() {
+            List<Mono<Void>> submitted = IntStream.range(0, 10)
+                    .mapToObj(i -> dispatcher.upsert(i % 2 == 0 ? MyProduct.class : MyOrder.class,
+                            patch("id" + i, "name" + i), null, Map.of()))
+                    .collect(Collectors.toList());
+
+            StepVerifier.create(Mono.when(submitted)).expectComplete().verify(TIMEOUT);
+
+            assertThat(executed).extracting(UpdateCommand::getUpdate).containsExactlyInAnyOrder("MyProduct",
+                    "MyOrder");
+            assertThat(executed).allMatch(cmd -> cmd.isOrdered() && cmd.getUpdates().size() == 5);
+            assertThat(dispatcher.pendingStatements()).isZero();
+        }
+
+        @Test
+        void shouldResolveTheCollectionOfAClassOnce() {
+            IntStream.range(0, 3).forEach(i -> dispatcher.upsert(MyProduct.class, patch("id" + i, "name"), null,
+                    Map.of()).block(TIMEOUT));
+
+            verify(writer, times(1)).getCollectionName(MyProduct.class);
+        }
+    }
+
+    @Nested
+    class ConcurrencyTest {
+        @Test
+        void shouldLimitTheCommandsInFlightOverAllCollections() {
+            Sinks.Empty<Void> blockedWrite = Sinks.empty();
+            doAnswer(invocation -> {
+                UpdateCommand updateCommand = invocation.getArgument(0);
+                executed.add(updateCommand);
+                return "MyProduct".equals(updateCommand.getUpdate())
+                        ? blockedWrite.asMono().thenMany(modified(updateCommand))
+                        : modified(updateCommand);
+            }).when(writer).executeWithOutcomes(any());
+            MongoDBWriteDispatcher single = dispatcher(DispatchSettings.builder().maxInFlight(1)
+                    .maxBatchDelay(Duration.ofMillis(5)).build());
+
+            Mono<Void> product = single.upsert(MyProduct.class, patch("a", "name"), null, Map.of()).cache();
+            product.subscribe();
+            Mono<Void> order = single.upsert(MyOrder.class, patch("b", "name"), null, Map.of()).cache();
+            order.subscribe();
+
+            StepVerifier.create(order).expectTimeout(Duration.ofMillis(200)).verify();
+            assertThat(executed).extracting(UpdateCommand::getUpdate).containsExactly("MyProduct");
+            blockedWrite.tryEmitEmpty();
+            StepVerifier.create(Mono.when(product, order)).expectComplete().verify(TIMEOUT);
+            single.dispose();
+        }
+
+        @Test
+        void shouldNotReleaseThePermitOfACancelledWaiter() {
+            MongoDBWriteDispatcher single = dispatcher(DispatchSettings.builder().maxInFlight(1).build());
+            Sinks.Empty<Void> holder = Sinks.empty();
+            List<String> started = new CopyOnWriteArrayList<>();
+
+            single.withPermit(holder.asMono()).subscribe();
+            single.withPermit(Mono.fromRunnable(() -> started.add("first"))).subscribe();
+            Disposable cancelled = single.withPermit(Mono.fromRunnable(() -> started.add("cancelled"))).subscribe();
+            cancelled.dispose();
+
+            assertThat(started).isEmpty();
+            assertThat(single.availablePermits()).isZero();
+            holder.tryEmitEmpty();
+            assertThat(started).containsExactly("first");
+            assertThat(single.availablePermits()).isEqualTo(1);
+            single.dispose();
+        }
+
+        @Test
+        void shouldPassOnThePermitOfAWaiterCancelledAfterTheHandOver() {
+            MongoDBWriteDispatcher single = dispatcher(DispatchSettings.builder().maxInFlight(1).build());
+            Sinks.Empty<Void> holder = Sinks.empty();
+            Sinks.Empty<Void> second = Sinks.empty();
+
+            single.withPermit(holder.asMono()).subscribe();
+            Disposable waiting = single.withPermit(second.asMono()).subscribe();
+            holder.tryEmitEmpty();
+            waiting.dispose();
+
+            assertThat(single.availablePermits()).isEqualTo(1);
+            single.dispose();
+        }
+    }
+
+    @Nested
+    class BackpressureTest {
+        @Test
+        void shouldRejectStatementsWhenFull() {
+            Sinks.Empty<Void> blockedWrite = Sinks.empty();
+            doAnswer(invocation -> blockedWrite.asMono().thenMany(modified(invocation.getArgument(0))))
+                    .when(writer).executeWithOutcomes(any());
+            MongoDBWriteDispatcher shallow = dispatcher(DispatchSettings.builder().queueDepth(2).build());
+
+            shallow.upsert(MyProduct.class, patch("a", "first"), null, Map.of()).subscribe();
+            shallow.upsert(MyOrder.class, patch("b", "second"), null, Map.of()).subscribe();
+
+            StepVerifier.create(shallow.upsert(MyProduct.class, patch("c", "third"), null, Map.of()))
+                    .verifyError(IllegalStateException.class);
+            blockedWrite.tryEmitEmpty();
+            shallow.dispose();
+        }
+
+        @Test
+        void shouldFailStatementsOfAFailedBatch() {
+            doAnswer(invocation -> Flux.fromIterable(WriteOutcome.fromError(invocation.getArgument(0),
+                    new IllegalStateException("timeout")))).when(writer).executeWithOutcomes(any());
+
+            StepVerifier.create(dispatcher.upsert(MyOrder.class, patch("a", "name"), null, Map.of()))
+                    .expectError(WriteOutcomeException.class)
+                    .verify(TIMEOUT);
+            assertThat(dispatcher.pendingStatements()).isZero();
+        }
+
+        @Test
+        void shouldFailTheFailedStatementAndTheOnesNotExecutedAfterIt() {
+            doAnswer(invocation -> Flux.fromIterable(WriteOutcome.fromReply(invocation.getArgument(0),
+                    new Document("n", 1).append("nModified", 1).append("writeErrors", List.of(new Document("index", 1)
+                            .append("code", 121).append("errmsg", "Document failed validation"))))))
+                                    .when(writer).executeWithOutcomes(any());
+            Map<Document, Optional<Document>> patches = new LinkedHashMap<>();
+            patches.put(new Document("_id", "a"), Optional.of(new Document("name", "first")));
+            patches.put(new Document("_id", "b"), Optional.of(new Document("name", "second")));
+            patches.put(new Document("_id", "c"), Optional.of(new Document("name", "third")));
+            UpdateCommand updateCommand = UpdateCommand.builder().update("MyOrder").build()
+                    .withUpdates(patches, null, null, true, false);
+
+            StepVerifier.create(dispatcher.submit(updateCommand))
+                    .expectErrorSatisfies(error -> assertThat(((WriteOutcomeException) error).getOutcome()
+                            .getErrorCode()).isEqualTo(121))
+                    .verify(TIMEOUT);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.niogatori.mongohelper.bulkwriter;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.niogatori.mongohelper.config.TestConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Flux;
+
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the write engines on the embedded Mongo, run with {@code mvn test -Dbenchmark=true
+ * -Dtest=WriteEngineBenchmarkTest}.
+ */
+@Slf4j
+@Import(TestConfig.class)
+@DataMongoTest
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class WriteEngineBenchmarkTest {
+
+    private static final int NB_DOCUMENTS = 100_000;
+    private static final int BATCH_SIZE = 1000;
+    private static final int ROUNDS = 5;
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Data
+    @org.springframework.data.mongodb.core.mapping.Document("BenchmarkObject")
+    static class BenchmarkObject {
+        @Id
+        private final String id;
+        private final String name;
+        private final Integer nbItems;
+    }
+
+    private long run(MongoDBBulkWriter<BenchmarkObject> writer, int round) {
+        long start = System.nanoTime();
+        Integer nbChanges = Flux.range(0, NB_DOCUMENTS / BATCH_SIZE)
+                .concatMap(batch -> writer.upsert(BenchmarkObject.class, IntStream.range(0, BATCH_SIZE)
+                        .mapToObj(i -> "id" + (batch * BATCH_SIZE + i))
+                        .collect(Collectors.toMap(writer::toIdDocument,
+                                id -> Optional.of(new Document("name", id).append("nbItems", round))))))
+                .reduce(0, Integer::sum)
+                .block();
+        assertThat(nbChanges).isEqualTo(NB_DOCUMENTS);
+        return System.nanoTime() - start;
+    }
+
+    private void benchmark(String name, Function<ReactiveMongoTemplate, WriteEngine> engineFactory) {
+        reactiveMongoTemplate.dropCollection(BenchmarkObject.class).block();
+        MongoDBBulkWriter<BenchmarkObject> writer = new MongoDBBulkWriter<>(reactiveMongoTemplate);
+        writer.setEngine(engineFactory.apply(reactiveMongoTemplate));
+        // the first round inserts, the next ones modify
+        run(writer, 0);
+        long total = IntStream.rangeClosed(1, ROUNDS).mapToLong(round -> run(writer, round)).sum();
+        log.info("{}: {} upserts/s", name, NB_DOCUMENTS * ROUNDS * 1_000_000_000L / total);
+    }
+
+    @Test
+    void compareEngines() {
+        benchmark("runCommand", RunCommandWriteEngine::new);
+        benchmark("bulkWrite", BulkWriteEngine::new);
+    }
+}
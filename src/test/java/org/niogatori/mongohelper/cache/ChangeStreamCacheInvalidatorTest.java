@@ -0,0 +1,141 @@
+package org.niogatori.mongohelper.cache;
+
+import lombok.Data;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.niogatori.mongohelper.bulkreader.MongoDBBulkReader;
+import org.niogatori.mongohelper.config.TestConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Import(TestConfig.class)
+@DataMongoTest(properties = "spring.mongodb.embedded.storage.repl-set-name=rs0")
+class ChangeStreamCacheInvalidatorTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    private MongoDBReadThroughCache<MyObject> cache;
+    private MongoResumeTokenStore tokenStore;
+    private ChangeStreamCacheInvalidator invalidator;
+
+    @Data
+    @org.springframework.data.mongodb.core.mapping.Document("MyObject")
+    static class MyObject {
+        @Id
+        private final String id;
+        private final String name;
+    }
+
+    @BeforeEach
+    void setup() {
+        reactiveMongoTemplate.dropCollection(MyObject.class).block();
+        reactiveMongoTemplate.dropCollection(MongoResumeTokenStore.DEFAULT_COLLECTION).block();
+        reactiveMongoTemplate.insertAll(List.of(new MyObject("a", "a"), new MyObject("b", "b"))).blockLast();
+        cache = new MongoDBReadThroughCache<>(new MongoDBBulkReader<>(reactiveMongoTemplate), MyObject.class,
+                CacheSettings.<MyObject>builder().build());
+        CacheInvalidationRegistry registry = new CacheInvalidationRegistry();
+        registry.register(cache);
+        tokenStore = new MongoResumeTokenStore(reactiveMongoTemplate, "node1");
+        invalidator = new ChangeStreamCacheInvalidator(reactiveMongoTemplate, registry, tokenStore);
+        invalidator.setCheckpointInterval(Duration.ZERO);
+        invalidator.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        invalidator.stop();
+    }
+
+    private void awaitCacheSize(long expectedSize) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (cache.size() != expectedSize && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(cache.size()).isEqualTo(expectedSize);
+    }
+
+    // the stream is opened asynchronously, writes made before it is open are not seen
+    private void awaitWatching() throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        do {
+            cache.get("b").block();
+            reactiveMongoTemplate.updateFirst(Query.query(Criteria.where("_id").is("b")),
+                    Update.update("name", "b" + System.nanoTime()), MyObject.class).block();
+            Thread.sleep(50);
+        } while (cache.size() > 0 && System.nanoTime() < deadline);
+    }
+
+    @Nested
+    class EvictionTest {
+        @Test
+        void shouldEvictDocumentsWrittenByAnotherNode() throws InterruptedException {
+            awaitWatching();
+            cache.get("a").block();
+            cache.get("b").block();
+            awaitCacheSize(2);
+
+            reactiveMongoTemplate.updateFirst(Query.query(Criteria.where("_id").is("a")),
+                    Update.update("name", "new"), MyObject.class).block();
+
+            awaitCacheSize(1);
+            assertThat(cache.get("a").block()).isEqualTo(new MyObject("a", "new"));
+        }
+
+        @Test
+        void shouldFlushCachesWhenCollectionIsDropped() throws InterruptedException {
+            awaitWatching();
+            cache.get("a").block();
+            cache.get("b").block();
+
+            reactiveMongoTemplate.dropCollection(MyObject.class).block();
+
+            awaitCacheSize(0);
+        }
+    }
+
+    @Nested
+    class ResumeTokenTest {
+        @Test
+        void shouldCheckpointResumeToken() throws InterruptedException {
+            awaitWatching();
+            reactiveMongoTemplate.updateFirst(Query.query(Criteria.where("_id").is("a")),
+                    Update.update("name", "new"), MyObject.class).block();
+
+            long deadline = System.nanoTime() + TIMEOUT.toNanos();
+            BsonDocument token = null;
+            while (token == null && System.nanoTime() < deadline) {
+                token = tokenStore.load("MyObject").block();
+                Thread.sleep(20);
+            }
+            assertThat(token).isNotNull();
+        }
+
+        @Test
+        void shouldFlushCachesWhenNoTokenIsStored() throws InterruptedException {
+            invalidator.stop();
+            tokenStore.delete("MyObject").block();
+            cache.get("a").block();
+
+            invalidator.start();
+
+            awaitCacheSize(0);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package org.niogatori.mongohelper.cache;
+
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import lombok.Data;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.niogatori.mongohelper.bulkreader.MongoDBBulkReader;
+import org.niogatori.mongohelper.bulkwriter.MongoDBBulkWriter;
+import org.niogatori.mongohelper.mapping.DocumentMapper;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MongoDBReadThroughCacheTest {
+
+    private MappingMongoConverter converter;
+    private MongoDBBulkReader<MyObject> reader;
+    private AtomicInteger nbLoads;
+    private MongoDBReadThroughCache<MyObject> cache;
+
+    @Data
+    @org.springframework.data.mongodb.core.mapping.Document("MyObject")
+    static class MyObject {
+        @Id
+        private final String id;
+        private final String name;
+    }
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        converter.afterPropertiesSet();
+        reader = mock(MongoDBBulkReader.class);
+        when(reader.getDocumentMapper()).thenReturn(new DocumentMapper(converter));
+        when(reader.getCollectionName(MyObject.class)).thenReturn("MyObject");
+        nbLoads = new AtomicInteger();
+        cache = new MongoDBReadThroughCache<>(reader, MyObject.class, CacheSettings.<MyObject>builder().build(),
+                idValue -> {
+                    nbLoads.incrementAndGet();
+                    return "unknown".equals(idValue) ? Mono.empty()
+                            : Mono.just(new MyObject((String) idValue, "name" + nbLoads.get()));
+                });
+    }
+
+    @Nested
+    class ReadThroughTest {
+        @Test
+        void shouldLoadOnMissAndServeHitsFromCache() {
+            StepVerifier.create(cache.get("a")).expectNext(new MyObject("a", "name1")).verifyComplete();
+            StepVerifier.create(cache.get("a")).expectNext(new MyObject("a", "name1")).verifyComplete();
+
+            assertThat(nbLoads).hasValue(1);
+            assertThat(cache.stats().hitCount()).isEqualTo(1);
+            assertThat(cache.stats().missCount()).isEqualTo(1);
+        }
+
+        @Test
+        void shouldNotCacheMissingDocuments() {
+            StepVerifier.create(cache.get("unknown")).verifyComplete();
+            StepVerifier.create(cache.get("unknown")).verifyComplete();
+
+            assertThat(nbLoads).hasValue(2);
+        }
+
+        @Test
+        void shouldEvictBeyondMaximumWeight() {
+            MongoDBReadThroughCache<MyObject> weighted = new MongoDBReadThroughCache<>(reader, MyObject.class,
+                    CacheSettings.<MyObject>builder()
+                            .maximumWeight(1)
+                            .weigher((id, value) -> 1)
+                            .build(),
+                    idValue -> Mono.just(new MyObject((String) idValue, "name")));
+
+            weighted.get("a").block();
+            weighted.get("b").block();
+            weighted.get("c").block();
+
+            assertThat(weighted.size()).isLessThanOrEqualTo(1);
+        }
+
+        @Test
+        void shouldRequireWeigherWithMaximumWeight() {
+            CacheSettings<MyObject> settings = CacheSettings.<MyObject>builder().maximumWeight(10).build();
+
+            assertThrows(IllegalArgumentException.class,
+                    () -> new MongoDBReadThroughCache<>(reader, MyObject.class, settings));
+        }
+    }
+
+    @Nested
+    class InvalidationTest {
+        @Test
+        void shouldReloadInvalidatedDocument() {
+            cache.get("a").block();
+            cache.invalidate(List.of("a"));
+
+            StepVerifier.create(cache.get("a")).expectNext(new MyObject("a", "name2")).verifyComplete();
+        }
+
+        @Test
+        void shouldNotCacheLoadStartedBeforeInvalidation() {
+            Sinks.One<MyObject> slowLoad = Sinks.one();
+            MongoDBReadThroughCache<MyObject> slowCache = new MongoDBReadThroughCache<>(reader, MyObject.class,
+                    CacheSettings.<MyObject>builder().build(), idValue -> slowLoad.asMono());
+
+            Mono<MyObject> pending = slowCache.get("a").cache();
+            pending.subscribe();
+            slowCache.invalidate(List.of("a"));
+            slowLoad.tryEmitValue(new MyObject("a", "stale"));
+
+            StepVerifier.create(pending).expectNext(new MyObject("a", "stale")).verifyComplete();
+            assertThat(slowCache.size()).isZero();
+        }
+
+        @Test
+        void shouldCacheLoadsOfOtherIdsDuringInvalidation() {
+            Map<Object, Sinks.One<MyObject>> slowLoads = Map.of("a", Sinks.one(), "b", Sinks.one());
+            MongoDBReadThroughCache<MyObject> slowCache = new MongoDBReadThroughCache<>(reader, MyObject.class,
+                    CacheSettings.<MyObject>builder().build(), idValue -> slowLoads.get(idValue).asMono());
+
+            Mono<MyObject> pendingA = slowCache.get("a").cache();
+            Mono<MyObject> pendingB = slowCache.get("b").cache();
+            pendingA.subscribe();
+            pendingB.subscribe();
+            slowCache.invalidate(List.of("a"));
+            slowLoads.get("a").tryEmitValue(new MyObject("a", "stale"));
+            slowLoads.get("b").tryEmitValue(new MyObject("b", "fresh"));
+
+            StepVerifier.create(pendingB).expectNext(new MyObject("b", "fresh")).verifyComplete();
+            assertThat(slowCache.size()).isEqualTo(1);
+            StepVerifier.create(slowCache.get("b")).expectNext(new MyObject("b", "fresh")).verifyComplete();
+        }
+
+        @Test
+        void shouldBeInvalidatedByBulkWriterUpserts() {
+            ReactiveMongoTemplate template = mock(ReactiveMongoTemplate.class);
+            MongoDatabase database = mock(MongoDatabase.class);
+            when(template.getConverter()).thenReturn(converter);
+            when(template.getCollectionName(MyObject.class)).thenReturn("MyObject");
+            when(template.getMongoDatabase()).thenReturn(Mono.just(database));
+            when(database.runCommand(any(Bson.class))).thenReturn(Mono.just(new Document("n", 1)
+                    .append("nModified", 1)));
+            CacheInvalidationRegistry registry = new CacheInvalidationRegistry();
+            registry.register(cache);
+            MongoDBBulkWriter<MyObject> writer = new MongoDBBulkWriter<>(template);
+            writer.setCacheInvalidationRegistry(registry);
+            cache.get("a").block();
+            cache.get("b").block();
+
+            writer.upsert(MyObject.class, Map.of(writer.toIdDocument("a"), Optional.of(new Document("name", "new"))))
+                    .block();
+
+            assertThat(cache.size()).isEqualTo(1);
+            cache.get("b").block();
+            assertThat(nbLoads).hasValue(2);
+        }
+
+        @Test
+        void shouldOnlyEvictTheIdsOfVersionedUpserts() {
+            ReactiveMongoTemplate template = mock(ReactiveMongoTemplate.class);
+            MongoDatabase database = mock(MongoDatabase.class);
+            when(template.getConverter()).thenReturn(converter);
+            when(template.getCollectionName(MyObject.class)).thenReturn("MyObject");
+            when(template.getMongoDatabase()).thenReturn(Mono.just(database));
+            when(database.runCommand(any(Bson.class))).thenReturn(Mono.just(new Document("n", 1)
+                    .append("nModified", 1)));
+            CacheInvalidationRegistry registry = new CacheInvalidationRegistry();
+            registry.register(cache);
+            MongoDBBulkWriter<MyObject> writer = new MongoDBBulkWriter<>(template);
+            writer.setCacheInvalidationRegistry(registry);
+            cache.get("a").block();
+            cache.get("b").block();
+
+            writer.upsertVersioned(MyObject.class,
+                    Map.of(writer.toIdDocument("a"), Optional.of(new Document("name", "new"))),
+                    Map.of(writer.toIdDocument("a"), 1L), null, Map.of()).blockLast();
+
+            assertThat(cache.size()).isEqualTo(1);
+        }
+
+        @Test
+        void shouldBeFlushedByBulkWriterQueries() {
+            ReactiveMongoTemplate template = mock(ReactiveMongoTemplate.class);
+            MongoDatabase database = mock(MongoDatabase.class);
+            when(template.getConverter()).thenReturn(converter);
+            when(template.getCollectionName(MyObject.class)).thenReturn("MyObject");
+            when(template.getMongoDatabase()).thenReturn(Mono.just(database));
+            when(database.runCommand(any(Bson.class))).thenReturn(Mono.just(new Document("n", 2)
+                    .append("nModified", 2)));
+            CacheInvalidationRegistry registry = new CacheInvalidationRegistry();
+            registry.register(cache);
+            MongoDBBulkWriter<MyObject> writer = new MongoDBBulkWriter<>(template);
+            writer.setCacheInvalidationRegistry(registry);
+            cache.get("a").block();
+            cache.get("b").block();
+
+            writer.upsertMany(MyObject.class, new Document("name", "name1"), new Document("name", "new")).block();
+
+            assertThat(cache.size()).isZero();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.niogatori.mongohelper.config;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import lombok.Data;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.niogatori.mongohelper.bulkwriter.MongoDBBulkWriter;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.SimpleReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Only runs in the native executable built by the {@code native} profile: an upsert through the converters of
+ * {@link AppConfig}, the writer and the BSON codecs, without any Spring context.
+ */
+@EnabledIfSystemProperty(named = "org.graalvm.nativeimage.imagecode", matches = ".+")
+class NativeImageSmokeTest {
+
+    private static final ZonedDateTime UPDATED_AT = ZonedDateTime.of(2023, 4, 5, 22, 0, 0, 0, ZoneOffset.UTC);
+
+    @Data
+    @org.springframework.data.mongodb.core.mapping.Document("MySmokeObject")
+    static class MySmokeObject {
+        @Id
+        private final String id;
+        private final String name;
+        private final ZonedDateTime updatedAt;
+    }
+
+    private MongoClient client;
+    private ReactiveMongoTemplate template;
+
+    @BeforeEach
+    void setup() {
+        String uri = Objects.requireNonNullElse(System.getenv("MONGODB_URI"), "mongodb://localhost:27017");
+        client = MongoClients.create(uri);
+        SimpleReactiveMongoDatabaseFactory databaseFactory = new SimpleReactiveMongoDatabaseFactory(client,
+                "nativeSmoke");
+        MongoCustomConversions conversions = new AppConfig().mongoCustomConversions();
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        template = new ReactiveMongoTemplate(databaseFactory, converter);
+        template.dropCollection(MySmokeObject.class).block();
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+    }
+
+    @Test
+    void shouldUpsertInANativeImage() {
+        MongoDBBulkWriter<MySmokeObject> writer = new MongoDBBulkWriter<>(template);
+        MySmokeObject object = new MySmokeObject("a", "name", UPDATED_AT);
+
+        StepVerifier.create(writer.upsert(MySmokeObject.class, Map.of(writer.toIdDocument(object.getId()),
+                Optional.of(writer.toDocument(object))))).expectNext(1).verifyComplete();
+
+        Document upserted = template.getCollection("MySmokeObject")
+                .flatMap(collection -> Mono.from(collection.find().first()))
+                .block();
+        assertThat(upserted).isEqualTo(new Document("_id", "a").append("name", "name")
+                .append("updatedAt", Date.from(UPDATED_AT.toInstant())));
+    }
+}
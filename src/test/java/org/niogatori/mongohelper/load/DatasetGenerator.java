@@ -0,0 +1,79 @@
+package org.niogatori.mongohelper.load;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Generates reproducible documents and batches of patches for a {@link LoadProfile}. Ids below
+ * {@code nbExistingDocuments} are preloaded, the next ones are new.
+ */
+public class DatasetGenerator {
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789";
+
+    private final LoadProfile profile;
+    private final Random random;
+    private long nextNewIndex;
+
+    public DatasetGenerator(LoadProfile profile) {
+        this.profile = profile;
+        this.random = new Random(profile.getSeed());
+        this.nextNewIndex = profile.getNbExistingDocuments();
+    }
+
+    public Object idValue(long index) {
+        switch (profile.getIdShape()) {
+            case OBJECT_ID:
+                return new ObjectId(ByteBuffer.allocate(12).putLong(4, index).array());
+            case COMPOSITE:
+                return new Document("reference", "ref-" + index).append("bu", (int) (index % 10));
+            default:
+                return "doc-" + index;
+        }
+    }
+
+    public Document idDocument(long index) {
+        return new Document("_id", idValue(index));
+    }
+
+    public List<Document> existingDocuments() {
+        return LongStream.range(0, profile.getNbExistingDocuments())
+                .mapToObj(index -> new Document("_id", idValue(index)).append("version", 0).append("payload",
+                        payload()))
+                .collect(Collectors.toList());
+    }
+
+    public synchronized Map<Document, Optional<Document>> nextBatch() {
+        Map<Document, Optional<Document>> batch = new LinkedHashMap<>();
+        for (int i = 0; i < profile.getBatchSize(); i++) {
+            boolean existing = profile.getNbExistingDocuments() > 0 && random.nextDouble() < profile.getExistingRatio();
+            long index = existing ? random.nextInt(profile.getNbExistingDocuments()) : nextNewIndex++;
+            batch.put(idDocument(index), Optional.of(patch()));
+        }
+        return batch;
+    }
+
+    private Document patch() {
+        return new Document("version", random.nextInt(1_000_000))
+                .append("updatedAt", new Date())
+                .append("payload", payload());
+    }
+
+    private String payload() {
+        char[] payload = new char[profile.getDocumentSize()];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        }
+        return new String(payload);
+    }
+}
@@ -0,0 +1,59 @@
+package org.niogatori.mongohelper.load;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.niogatori.mongohelper.load.LoadProfile.IdShape;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DatasetGeneratorTest {
+
+    @Nested
+    class BatchTest {
+        @Test
+        void shouldGenerateReproducibleBatches() {
+            LoadProfile profile = LoadProfile.builder().batchSize(10).nbExistingDocuments(100).build();
+
+            assertThat(new DatasetGenerator(profile).nextBatch().keySet())
+                    .isEqualTo(new DatasetGenerator(profile).nextBatch().keySet());
+        }
+
+        @Test
+        void shouldMixExistingAndNewIdsByRatio() {
+            LoadProfile profile = LoadProfile.builder().batchSize(1000).nbExistingDocuments(1_000_000)
+                    .existingRatio(0.2).build();
+            DatasetGenerator generator = new DatasetGenerator(profile);
+
+            long nbExisting = generator.nextBatch().keySet().stream()
+                    .filter(idDocument -> Long.parseLong(idDocument.getString("_id").substring(4)) < 1_000_000)
+                    .count();
+
+            assertThat(nbExisting).isBetween(150L, 250L);
+        }
+
+        @Test
+        void shouldGeneratePatchesOfTheConfiguredSize() {
+            LoadProfile profile = LoadProfile.builder().batchSize(1).documentSize(512).build();
+
+            Map<Document, Optional<Document>> batch = new DatasetGenerator(profile).nextBatch();
+
+            assertThat(batch.values().iterator().next().orElseThrow().getString("payload")).hasSize(512);
+        }
+    }
+
+    @Nested
+    class IdShapeTest {
+        @Test
+        void shouldGenerateIdsOfTheConfiguredShape() {
+            assertThat(new DatasetGenerator(LoadProfile.builder().idShape(IdShape.OBJECT_ID).build()).idValue(1))
+                    .isInstanceOf(ObjectId.class);
+            assertThat(new DatasetGenerator(LoadProfile.builder().idShape(IdShape.COMPOSITE).build()).idValue(12))
+                    .isEqualTo(new Document("reference", "ref-12").append("bu", 2));
+        }
+    }
+}
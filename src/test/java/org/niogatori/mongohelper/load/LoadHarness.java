@@ -0,0 +1,88 @@
+package org.niogatori.mongohelper.load;
+
+import com.mongodb.client.model.InsertManyOptions;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.bson.Document;
+import org.niogatori.mongohelper.bulkwriter.MongoDBBulkWriter;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Drives a {@link MongoDBBulkWriter} with the batches of a {@link DatasetGenerator}, flat out or at a fixed rate, and
+ * measures the throughput and the batch latencies. At a fixed rate, latencies are measured from the time each batch was
+ * scheduled, so a writer falling behind shows up in the percentiles instead of lowering the rate.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class LoadHarness {
+
+    private static final int PRELOAD_CHUNK_SIZE = 10_000;
+
+    private final ReactiveMongoTemplate template;
+
+    public <T> LoadReport run(Class<T> clazz, LoadProfile profile) {
+        return run(new MongoDBBulkWriter<>(template), clazz, profile);
+    }
+
+    public <T> LoadReport run(MongoDBBulkWriter<T> writer, Class<T> clazz, LoadProfile profile) {
+        DatasetGenerator generator = new DatasetGenerator(profile);
+        preload(template.getCollectionName(clazz), generator);
+
+        Histogram latencies = new ConcurrentHistogram(3);
+        AtomicLong nbStatements = new AtomicLong();
+        boolean fixedRate = profile.getBatchesPerSecond() > 0;
+        long periodNanos = fixedRate ? (long) (1_000_000_000L / profile.getBatchesPerSecond()) : 0;
+        Flux<Long> ticks = fixedRate
+                ? Flux.interval(Duration.ofNanos(periodNanos)).onBackpressureBuffer().take(profile.getNbBatches())
+                : Flux.range(0, profile.getNbBatches()).map(Long::valueOf);
+
+        long start = System.nanoTime();
+        ticks.flatMap(tick -> {
+            long scheduledAt = fixedRate ? start + (tick + 1) * periodNanos : System.nanoTime();
+            Map<Document, Optional<Document>> batch = generator.nextBatch();
+            return write(writer, clazz, profile, batch)
+                    .doOnSuccess(nbChanges -> {
+                        latencies.recordValue((System.nanoTime() - scheduledAt) / 1000);
+                        nbStatements.addAndGet(batch.size());
+                    });
+        }, profile.getConcurrency()).blockLast();
+
+        LoadReport report = new LoadReport(profile.getName(), nbStatements.get(),
+                Duration.ofNanos(System.nanoTime() - start), latencies);
+        log.info("{}", report);
+        return report;
+    }
+
+    private void preload(String collectionName, DatasetGenerator generator) {
+        template.dropCollection(collectionName)
+                .then(template.getCollection(collectionName))
+                .flatMapMany(collection -> Flux.fromIterable(generator.existingDocuments())
+                        .buffer(PRELOAD_CHUNK_SIZE)
+                        .concatMap(chunk -> collection.insertMany(chunk, new InsertManyOptions().ordered(false))))
+                .blockLast();
+    }
+
+    private static <T> Mono<Integer> write(MongoDBBulkWriter<T> writer, Class<T> clazz, LoadProfile profile,
+            Map<Document, Optional<Document>> batch) {
+        List<String> fieldsToUnset = profile.getFieldsToUnset().isEmpty() ? null : profile.getFieldsToUnset();
+        if (profile.getOperation() == LoadProfile.Operation.UPSERT_MANY) {
+            List<Object> ids = batch.keySet().stream().map(idDocument -> idDocument.get("_id"))
+                    .collect(Collectors.toList());
+            Document fieldsToSet = batch.values().iterator().next().orElse(null);
+            return writer.upsertMany(clazz, new Document("_id", new Document("$in", ids)), fieldsToSet,
+                    fieldsToUnset, null);
+        }
+        return writer.upsert(clazz, batch, fieldsToUnset, null);
+    }
+}
@@ -0,0 +1,76 @@
+package org.niogatori.mongohelper.load;
+
+import lombok.Data;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.niogatori.mongohelper.config.TestConfig;
+import org.niogatori.mongohelper.load.LoadProfile.IdShape;
+import org.niogatori.mongohelper.load.LoadProfile.Operation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Load scenarios on the embedded Mongo, run with {@code mvn test -Dloadtest=true -Dtest=LoadHarnessTest}. The reports
+ * are logged to compare the throughput between releases.
+ */
+@Import(TestConfig.class)
+@DataMongoTest
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+class LoadHarnessTest {
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Data
+    @org.springframework.data.mongodb.core.mapping.Document("LoadDocument")
+    static class LoadDocument {
+        @Id
+        private final Object id;
+        private final String payload;
+        private final Integer version;
+    }
+
+    private LoadReport run(LoadProfile profile) {
+        LoadReport report = new LoadHarness(reactiveMongoTemplate).run(LoadDocument.class, profile);
+        assertThat(report.getNbStatements()).isPositive();
+        return report;
+    }
+
+    @Test
+    void upsertFlatOut() {
+        run(LoadProfile.builder().name("upsert flat out").build());
+    }
+
+    @Test
+    void upsertNewCompositeIds() {
+        run(LoadProfile.builder().name("upsert new composite ids").idShape(IdShape.COMPOSITE).existingRatio(0)
+                .build());
+    }
+
+    @Test
+    void upsertLargeDocumentsWithUnset() {
+        run(LoadProfile.builder().name("upsert 4KB documents with unset").documentSize(4096)
+                .idShape(IdShape.OBJECT_ID).fieldsToUnset(List.of("obsolete", "legacy.field")).build());
+    }
+
+    @Test
+    void upsertAtFixedRate() {
+        LoadReport report = run(LoadProfile.builder().name("upsert at 20 batches/s").batchesPerSecond(20)
+                .nbBatches(100).build());
+
+        assertThat(report.getElapsed().toMillis()).isGreaterThanOrEqualTo(4_500);
+    }
+
+    @Test
+    void upsertManyFlatOut() {
+        run(LoadProfile.builder().name("upsertMany flat out").operation(Operation.UPSERT_MANY).existingRatio(1)
+                .build());
+    }
+}
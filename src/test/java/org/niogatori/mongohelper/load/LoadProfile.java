@@ -0,0 +1,62 @@
+package org.niogatori.mongohelper.load;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Shape of the dataset and of the load driven by the {@link LoadHarness}.
+ */
+@Getter
+@Builder
+@ToString
+public class LoadProfile {
+
+    public enum IdShape {
+        STRING,
+        OBJECT_ID,
+        // { reference: <string>, bu: <int> }
+        COMPOSITE
+    }
+
+    public enum Operation {
+        // one statement per document
+        UPSERT,
+        // one { _id: { $in: [...] } } statement per batch
+        UPSERT_MANY
+    }
+
+    @NonNull
+    @Builder.Default
+    private final String name = "default";
+    @Builder.Default
+    private final Operation operation = Operation.UPSERT;
+    @Builder.Default
+    private final int nbBatches = 100;
+    @Builder.Default
+    private final int batchSize = 1000;
+    // approximate size of the patch of each document, in bytes
+    @Builder.Default
+    private final int documentSize = 256;
+    @NonNull
+    @Builder.Default
+    private final IdShape idShape = IdShape.STRING;
+    // share of the statements targeting documents loaded before the run
+    @Builder.Default
+    private final double existingRatio = 0.5;
+    @Builder.Default
+    private final int nbExistingDocuments = 10_000;
+    @NonNull
+    @Builder.Default
+    private final List<String> fieldsToUnset = List.of();
+    // batches per second, 0 to drive the writer flat out
+    @Builder.Default
+    private final double batchesPerSecond = 0;
+    @Builder.Default
+    private final int concurrency = 4;
+    @Builder.Default
+    private final long seed = 42;
+}
@@ -0,0 +1,40 @@
+package org.niogatori.mongohelper.load;
+
+import lombok.Value;
+import org.HdrHistogram.Histogram;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Throughput and batch latencies of a run, latencies are in microseconds.
+ */
+@Value
+public class LoadReport {
+    String profileName;
+    long nbStatements;
+    Duration elapsed;
+    Histogram latencies;
+
+    public double getStatementsPerSecond() {
+        return nbStatements * 1_000_000_000d / Math.max(1, elapsed.toNanos());
+    }
+
+    public long getP50() {
+        return latencies.getValueAtPercentile(50);
+    }
+
+    public long getP99() {
+        return latencies.getValueAtPercentile(99);
+    }
+
+    public long getP999() {
+        return latencies.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: %.0f statements/s, batch latency p50=%dus p99=%dus p999=%dus max=%dus",
+                profileName, getStatementsPerSecond(), getP50(), getP99(), getP999(), latencies.getMaxValue());
+    }
+}
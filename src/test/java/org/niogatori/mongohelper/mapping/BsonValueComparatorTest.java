@@ -0,0 +1,76 @@
+package org.niogatori.mongohelper.mapping;
+
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDecimal128;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonMaxKey;
+import org.bson.BsonMinKey;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BsonValueComparatorTest {
+
+    private static final BsonValueComparator COMPARATOR = BsonValueComparator.INSTANCE;
+
+    @Nested
+    class TypeOrderTest {
+        @Test
+        void shouldSortByBsonTypeFirst() {
+            List<BsonValue> expected = List.of(new BsonMinKey(), BsonNull.VALUE, new BsonInt32(100),
+                    new BsonString("a"), new BsonDocument("a", new BsonInt32(1)),
+                    new BsonArray(List.of(new BsonInt32(1))), new BsonObjectId(new ObjectId()),
+                    BsonBoolean.FALSE, new BsonDateTime(0), new BsonMaxKey());
+            List<BsonValue> values = new ArrayList<>(expected);
+            Collections.reverse(values);
+
+            values.sort(COMPARATOR);
+
+            assertThat(values).isEqualTo(expected);
+        }
+    }
+
+    @Nested
+    class ValueOrderTest {
+        @Test
+        void shouldCompareNumbersAcrossTypes() {
+            assertThat(COMPARATOR.compare(new BsonInt32(2), new BsonDouble(2.5))).isNegative();
+            assertThat(COMPARATOR.compare(new BsonInt64(3), new BsonInt32(3))).isZero();
+            assertThat(COMPARATOR.compare(new BsonDecimal128(Decimal128.parse("10.1")), new BsonInt64(10)))
+                    .isPositive();
+            assertThat(COMPARATOR.compare(new BsonDecimal128(Decimal128.NEGATIVE_ZERO), new BsonInt32(0))).isZero();
+        }
+
+        @Test
+        void shouldCompareStringsByUtf8Bytes() {
+            assertThat(COMPARATOR.compare(new BsonString("B"), new BsonString("a"))).isNegative();
+            assertThat(COMPARATOR.compare(new BsonString("�"), new BsonString("😀"))).isNegative();
+        }
+
+        @Test
+        void shouldCompareDocumentsFieldByField() {
+            BsonDocument first = new BsonDocument("reference", new BsonString("a")).append("bu", new BsonInt32(2));
+            BsonDocument second = new BsonDocument("reference", new BsonString("a")).append("bu", new BsonInt32(3));
+            BsonDocument shorter = new BsonDocument("reference", new BsonString("a"));
+
+            assertThat(COMPARATOR.compare(first, second)).isNegative();
+            assertThat(COMPARATOR.compare(shorter, first)).isNegative();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.niogatori.mongohelper.mapping;
+
+import lombok.Data;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mapping.MappingException;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DocumentMapperTest {
+
+    private DocumentMapper documentMapper;
+
+    @Data
+    static class MyId {
+        private final String reference;
+        private final int bu;
+    }
+
+    @Data
+    static class MyPartialObject {
+        private final String name;
+        private final Integer nbItems;
+    }
+
+    @Data
+    @org.springframework.data.mongodb.core.mapping.Document("MyObject")
+    static class MyObject {
+        @Id
+        private final MyId id;
+        private final String name;
+        @Field("description")
+        private final String desc;
+        private final MyPartialObject partialObject;
+    }
+
+    @BeforeEach
+    void setup() {
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE,
+                new MongoMappingContext());
+        converter.afterPropertiesSet();
+        documentMapper = new DocumentMapper(converter);
+    }
+
+    @Nested
+    class ToIdValueTest {
+        @Test
+        void shouldEncodeCompoundId() {
+            assertThat(documentMapper.toIdValue(new MyId("ref", 1)))
+                    .isEqualTo(new Document("reference", "ref").append("bu", 1));
+        }
+
+        @Test
+        void shouldEncodeSimpleId() {
+            assertThat(documentMapper.toIdValue("ref")).isEqualTo("ref");
+        }
+
+        @Test
+        void shouldUnwrapIdDocument() {
+            MyId id = new MyId("ref", 1);
+
+            assertThat(documentMapper.toIdValue(documentMapper.toIdDocument(id)))
+                    .isEqualTo(documentMapper.toIdValue(id));
+        }
+    }
+
+    @Nested
+    class ToIdDocumentTest {
+        @Test
+        void shouldWrapEncodedIdWithoutClass() {
+            assertThat(documentMapper.toIdDocument(new MyId("ref", 1)))
+                    .isEqualTo(new Document("_id", new Document("reference", "ref").append("bu", 1)));
+        }
+    }
+
+    @Nested
+    class ToMaskedDocumentTest {
+        private final MyObject myObject =
+                new MyObject(new MyId("ref", 1), "name", "desc", new MyPartialObject("partial", 3));
+
+        @Test
+        void shouldEncodeOnlyTheMaskedProperties() {
+            assertThat(documentMapper.toDocument(myObject, List.of("desc", "partialObject.nbItems")))
+                    .isEqualTo(new Document("description", "desc").append("partialObject.nbItems", 3));
+        }
+
+        @Test
+        void shouldFlattenNestedObjectsIntoDottedPaths() {
+            MyObject withoutName = new MyObject(null, "name", null, new MyPartialObject(null, 3));
+
+            assertThat(documentMapper.toDocument(withoutName, List.of("name", "partialObject")))
+                    .isEqualTo(new Document("name", "name").append("partialObject.nbItems", 3));
+        }
+
+        @Test
+        void shouldSetMaskedNullProperties() {
+            MyObject withoutPartialObject = new MyObject(null, null, null, null);
+
+            assertThat(documentMapper.toDocument(withoutPartialObject, List.of("name", "partialObject.nbItems")))
+                    .isEqualTo(new Document("name", null).append("partialObject.nbItems", null));
+        }
+
+        @Test
+        void shouldRejectUnknownProperties() {
+            assertThrows(MappingException.class, () -> documentMapper.toDocument(myObject,
+                    List.of("unknown")));
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package org.niogatori.mongohelper.models;
 
+import com.mongodb.WriteConcern;
 import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
 import org.bson.Document;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -9,11 +12,17 @@ import java.time.Clock;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class UpdateCommandTest {
 
@@ -43,6 +52,18 @@ class UpdateCommandTest {
                         .doesNotContainKey("writeConcern");
             });
         }
+
+        @Test
+        void shouldConvertBsonToUpdateCommand() {
+            Document update1 = new Document("q", new Document("_id", "myId"))
+                    .append("u", new Document("$set", new Document("field", "myNewValue")))
+                    .append("upsert", true)
+                    .append("multi", false);
+            UpdateCommand updateCommand = new UpdateCommand("MyCollection", List.of(update1), false,
+                    WriteConcern.MAJORITY.withWTimeout(100, TimeUnit.MILLISECONDS), true, "batch-1", null);
+
+            assertThat(UpdateCommand.fromBson(updateCommand.asBson())).isEqualTo(updateCommand);
+        }
     }
 
     @Nested
@@ -125,4 +146,185 @@ class UpdateCommandTest {
         }
     }
 
+    @Nested
+    class WithUpdateSpecsTest {
+        @Test
+        void shouldAddOneStatementPerSpecInOrder() {
+            UpdateCommand updateCommand = new UpdateCommand("MyCollection", null, true, null, false, null, null)
+                    .withUpdates(List.of(
+                            UpdateSpec.builder()
+                                    .criteria(new Document("supplier", "X"))
+                                    .fieldsToSet(new Document("price", 10))
+                                    .build(),
+                            UpdateSpec.builder()
+                                    .criteria(new Document("_id", "myId"))
+                                    .fieldsToUnset(List.of("price"))
+                                    .fieldsToSetOnInsert(new Document("creationDate", LocalDate.now(CLOCK)))
+                                    .multi(false)
+                                    .build()));
+
+            assertThat(updateCommand.getUpdates()).containsExactly(
+                    new Document("q", new Document("supplier", "X"))
+                            .append("u", new Document("$set", new Document("price", 10)).toBsonDocument())
+                            .append("upsert", true)
+                            .append("multi", true),
+                    new Document("q", new Document("_id", "myId"))
+                            .append("u", new Document("$setOnInsert",
+                                    new Document("creationDate", LocalDate.now(CLOCK))).append("$unset",
+                                            new Document("price", "")).toBsonDocument())
+                            .append("upsert", true)
+                            .append("multi", false));
+        }
+    }
+
+    @Nested
+    class WithVersionedUpdatesTest {
+        @Test
+        void shouldExpectTheVersionAndIncrementIt() {
+            Map<Document, Optional<Document>> patches = new LinkedHashMap<>();
+            patches.put(new Document("_id", "a"), Optional.of(new Document("name", "new").append("version", 7)));
+            patches.put(new Document("_id", "b"), Optional.of(new Document("name", "new")));
+
+            UpdateCommand updateCommand = new UpdateCommand("MyCollection", null, false, null, false, null, null)
+                    .withVersionedUpdates(patches, Map.of(new Document("_id", "a"), 3L), "version", null, null);
+
+            assertThat(updateCommand.getUpdates()).containsExactly(
+                    new Document("q", new Document("_id", "a").append("version", 3L))
+                            .append("u", new Document("$set", new Document("name", "new"))
+                                    .append("$inc", new Document("version", 1)).toBsonDocument())
+                            .append("upsert", true)
+                            .append("multi", false),
+                    new Document("q", new Document("_id", "b").append("version", new Document("$exists", false)))
+                            .append("u", new Document("$set", new Document("name", "new"))
+                                    .append("$inc", new Document("version", 1)).toBsonDocument())
+                            .append("upsert", true)
+                            .append("multi", false));
+        }
+    }
+
+    @Nested
+    class WithGroupedUpdatesTest {
+        private final Document archived = new Document("status", "ARCHIVED");
+
+        private Map<Document, Optional<Document>> patches() {
+            Map<Document, Optional<Document>> patches = new LinkedHashMap<>();
+            patches.put(new Document("_id", "a"), Optional.of(new Document(archived)));
+            patches.put(new Document("_id", "b"), Optional.of(new Document("status", "OPEN")));
+            patches.put(new Document("_id", "c"), Optional.of(new Document(archived)));
+            patches.put(new Document("_id", "d"), Optional.of(new Document(archived)));
+            patches.put(new Document("_id", "missing"), Optional.of(new Document(archived)));
+            return patches;
+        }
+
+        private Set<BsonValue> existing(String... idValues) {
+            return Arrays.stream(idValues).map(BsonString::new).collect(Collectors.toSet());
+        }
+
+        @Test
+        void shouldUpdateExistingIdsOfAPatchTogether() {
+            UpdateCommand updateCommand = new UpdateCommand("MyCollection", null, false, null, false, null, null)
+                    .withGroupedUpdates(patches(), existing("a", "b", "c", "d"), null, new Document("creation", 1),
+                            1000);
+
+            assertThat(updateCommand.getUpdates()).containsExactly(
+                    new Document("q", new Document("_id", new Document("$in", List.of("a", "c", "d"))))
+                            .append("u", new Document("$set", archived).toBsonDocument())
+                            .append("upsert", false)
+                            .append("multi", true),
+                    new Document("q", new Document("_id", "b"))
+                            .append("u", new Document("$set", new Document("status", "OPEN"))
+                                    .append("$setOnInsert", new Document("creation", 1)).toBsonDocument())
+                            .append("upsert", true)
+                            .append("multi", false),
+                    new Document("q", new Document("_id", "missing"))
+                            .append("u", new Document("$set", archived)
+                                    .append("$setOnInsert", new Document("creation", 1)).toBsonDocument())
+                            .append("upsert", true)
+                            .append("multi", false));
+        }
+
+        @Test
+        void shouldSplitLargeGroups() {
+            UpdateCommand updateCommand = new UpdateCommand("MyCollection", null, false, null, false, null, null)
+                    .withGroupedUpdates(patches(), existing("a", "c", "d"), null, null, 2);
+
+            assertThat(updateCommand.getUpdates())
+                    .extracting(statement -> statement.get("q", Document.class).get("_id"))
+                    .containsExactly(new Document("$in", List.of("a", "c")), "d", "b", "missing");
+        }
+
+        @Test
+        void shouldNotGroupEmptyPatches() {
+            Map<Document, Optional<Document>> patches = new LinkedHashMap<>();
+            patches.put(new Document("_id", "a"), Optional.empty());
+            patches.put(new Document("_id", "b"), Optional.empty());
+
+            UpdateCommand updateCommand = new UpdateCommand("MyCollection", null, false, null, false, null, null)
+                    .withGroupedUpdates(patches, existing("a", "b"), null, null, 1000);
+
+            assertThat(updateCommand.getUpdates()).hasSize(2).allMatch(statement -> statement.getBoolean("upsert"));
+        }
+    }
+
+    @Nested
+    class SortedByTest {
+        private Map<Document, Optional<Document>> patches(Object... ids) {
+            Map<Document, Optional<Document>> patches = new LinkedHashMap<>();
+            for (Object id : ids) {
+                patches.put(new Document("_id", id), Optional.of(new Document("field", "value")));
+            }
+            return patches;
+        }
+
+        private List<Object> sortedIds(UpdateCommand updateCommand) {
+            return updateCommand.getUpdates().stream()
+                    .map(statement -> statement.get("q", Document.class).get("_id"))
+                    .collect(Collectors.toList());
+        }
+
+        @Test
+        void shouldSortStatementsByIdInBsonOrder() {
+            UpdateCommand updateCommand = UpdateCommand.builder().update("MyCollection").ordered(false).build()
+                    .withUpdates(patches("b", 10, "a", 2L, 3.5), null, null, true, false);
+
+            assertThat(sortedIds(updateCommand.sortedBy("_id"))).containsExactly(2L, 3.5, 10, "a", "b");
+        }
+
+        @Test
+        void shouldSortStatementsByEmbeddedKey() {
+            UpdateCommand updateCommand = UpdateCommand.builder().update("MyCollection").ordered(false).build()
+                    .withUpdates(patches(new Document("reference", "z").append("bu", 1),
+                            new Document("reference", "a").append("bu", 2)), null, null, true, false);
+
+            assertThat(sortedIds(updateCommand.sortedBy("_id.reference")))
+                    .containsExactly(new Document("reference", "a").append("bu", 2),
+                            new Document("reference", "z").append("bu", 1));
+        }
+
+        @Test
+        void shouldNotReorderOrderedCommand() {
+            UpdateCommand updateCommand = UpdateCommand.builder().update("MyCollection").ordered(true).build()
+                    .withUpdates(patches("b", "a"), null, null, true, false);
+
+            assertThrows(IllegalStateException.class,
+                    () -> updateCommand.sortedBy("_id"));
+        }
+
+        @Test
+        void shouldSortThroughUnorderedWriteOptions() {
+            UpdateCommand updateCommand = UpdateCommand.builder().update("MyCollection").ordered(false).build()
+                    .withUpdates(patches("b", "a"), null, null, true, false);
+            WriteOptions writeOptions = WriteOptions.builder().ordered(false).sortKey("_id").build();
+
+            assertThat(sortedIds(writeOptions.apply(updateCommand))).containsExactly("a", "b");
+        }
+
+        @Test
+        void shouldLeaveCommandAsIsWithDefaultWriteOptions() {
+            UpdateCommand updateCommand = UpdateCommand.builder().update("MyCollection").ordered(true).build()
+                    .withUpdates(patches("b", "a"), null, null, true, false);
+
+            assertThat(WriteOptions.ORDERED.apply(updateCommand)).isSameAs(updateCommand);
+        }
+    }
 }
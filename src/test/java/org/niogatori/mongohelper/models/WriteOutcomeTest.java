@@ -0,0 +1,108 @@
+package org.niogatori.mongohelper.models;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.niogatori.mongohelper.models.WriteOutcome.Status;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WriteOutcomeTest {
+
+    private static UpdateCommand command(boolean ordered, String... ids) {
+        Map<Document, Optional<Document>> patches = new LinkedHashMap<>();
+        for (String id : ids) {
+            patches.put(new Document("_id", id), Optional.of(new Document("name", id)));
+        }
+        return UpdateCommand.builder().update("MyCollection").ordered(ordered).build()
+                .withUpdates(patches, null, null, true, false);
+    }
+
+    @Nested
+    class FromReplyTest {
+        @Test
+        void shouldCorrelateUpsertsAndModifications() {
+            Document reply = new Document("n", 3).append("nModified", 2)
+                    .append("upserted", List.of(new Document("index", 1).append("_id", "b")));
+
+            assertThat(WriteOutcome.fromReply(command(true, "a", "b", "c"), reply))
+                    .extracting(WriteOutcome::getStatus)
+                    .containsExactly(Status.MODIFIED, Status.UPSERTED, Status.MODIFIED);
+        }
+
+        @Test
+        void shouldReportUnchangedDocuments() {
+            Document reply = new Document("n", 2).append("nModified", 0);
+
+            assertThat(WriteOutcome.fromReply(command(false, "a", "b"), reply))
+                    .extracting(WriteOutcome::getStatus)
+                    .containsExactly(Status.UNCHANGED, Status.UNCHANGED);
+        }
+
+        @Test
+        void shouldReportMatchedWhenModificationsAreAmbiguous() {
+            Document reply = new Document("n", 2).append("nModified", 1);
+
+            assertThat(WriteOutcome.fromReply(command(false, "a", "b"), reply))
+                    .extracting(WriteOutcome::getStatus)
+                    .containsExactly(Status.MATCHED, Status.MATCHED);
+        }
+
+        @Test
+        void shouldFailStatementsNotExecutedAfterAnOrderedError() {
+            Document reply = new Document("n", 1).append("nModified", 1)
+                    .append("writeErrors", List.of(new Document("index", 1).append("code", 11000)
+                            .append("errmsg", "E11000 duplicate key")));
+
+            List<WriteOutcome> outcomes = WriteOutcome.fromReply(command(true, "a", "b", "c"), reply);
+
+            assertThat(outcomes).extracting(WriteOutcome::getStatus)
+                    .containsExactly(Status.MODIFIED, Status.FAILED, Status.FAILED);
+            assertThat(outcomes.get(1))
+                    .hasFieldOrPropertyWithValue("idDocument", new Document("_id", "b"))
+                    .hasFieldOrPropertyWithValue("errorCode", 11000);
+            assertThat(outcomes.get(2).getErrorCode()).isNull();
+        }
+
+        @Test
+        void shouldKeepTheKeyPatternOfDuplicateKeyErrors() {
+            Document reply = new Document("n", 0).append("nModified", 0)
+                    .append("writeErrors", List.of(
+                            new Document("index", 0).append("code", 11000).append("keyPattern", new Document("_id", 1))
+                                    .append("keyValue", new Document("_id", "a")),
+                            new Document("index", 1).append("code", 11000)
+                                    .append("errInfo", new Document("keyValue", new Document("sku", "b"))),
+                            new Document("index", 2).append("code", 11000).append("errmsg", "E11000 duplicate key")));
+
+            assertThat(WriteOutcome.fromReply(command(false, "a", "b", "c"), reply))
+                    .extracting(WriteOutcome::getErrorKeyPattern)
+                    .containsExactly(new Document("_id", 1), new Document("sku", 1), null);
+        }
+
+        @Test
+        void shouldOnlyFailErroneousStatementsOfAnUnorderedCommand() {
+            Document reply = new Document("n", 2).append("nModified", 2)
+                    .append("writeErrors", List.of(new Document("index", 1).append("code", 11000)
+                            .append("errmsg", "E11000 duplicate key")));
+
+            assertThat(WriteOutcome.fromReply(command(false, "a", "b", "c"), reply))
+                    .extracting(WriteOutcome::getStatus)
+                    .containsExactly(Status.MODIFIED, Status.FAILED, Status.MODIFIED);
+        }
+    }
+
+    @Nested
+    class FromErrorTest {
+        @Test
+        void shouldFailEveryStatement() {
+            assertThat(WriteOutcome.fromError(command(true, "a", "b"), new IllegalStateException("timeout")))
+                    .allMatch(WriteOutcome::isFailed)
+                    .allMatch(outcome -> "timeout".equals(outcome.getErrorMessage()));
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package org.niogatori.mongohelper.spool;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.niogatori.mongohelper.bulkwriter.MongoDBBulkWriter;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MongoDBWriteAheadSpoolTest {
+
+    @TempDir
+    Path directory;
+
+    private MongoDBBulkWriter<Object> writer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        writer = mock(MongoDBBulkWriter.class);
+        when(writer.execute(any())).thenReturn(Mono.just(1));
+    }
+
+    private MongoDBWriteAheadSpool<Object> spool(int segmentSize, long maxDiskUsage) {
+        return new MongoDBWriteAheadSpool<>(writer, SpoolSettings.builder()
+                .directory(directory)
+                .segmentSize(segmentSize)
+                .maxDiskUsage(maxDiskUsage)
+                .build());
+    }
+
+    private static UpdateCommand command(String id) {
+        return UpdateCommand.builder()
+                .update("MyCollection")
+                .ordered(true)
+                .build()
+                .withUpdates(new Document("_id", id), new Document("name", id), null, null, true, false);
+    }
+
+    private List<String> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(".log"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Nested
+    class ReplayTest {
+        @Test
+        void shouldReplayCommandsInAppendOrder() {
+            MongoDBWriteAheadSpool<Object> spool = spool(4096, 1024 * 1024);
+            spool.append(command("first")).block();
+            spool.append(command("second")).block();
+
+            StepVerifier.create(spool.replay())
+                    .expectNext(2)
+                    .verifyComplete();
+
+            ArgumentCaptor<UpdateCommand> captor = ArgumentCaptor.forClass(UpdateCommand.class);
+            verify(writer, times(2)).execute(captor.capture());
+            assertThat(captor.getAllValues())
+                    .extracting(cmd -> cmd.getUpdates().get(0).get("q", Document.class).getString("_id"))
+                    .containsExactly("first", "second");
+            assertThat(captor.getAllValues().get(0).getUpdate()).isEqualTo("MyCollection");
+            assertThat(spool.isEmpty()).isTrue();
+        }
+
+        @Test
+        void shouldNotReplayAcknowledgedCommandsTwice() {
+            MongoDBWriteAheadSpool<Object> spool = spool(4096, 1024 * 1024);
+            spool.append(command("first")).block();
+            spool.replay().block();
+            spool.append(command("second")).block();
+
+            StepVerifier.create(spool.replay())
+                    .expectNext(1)
+                    .verifyComplete();
+
+            verify(writer, times(2)).execute(any());
+        }
+
+        @Test
+        void shouldKeepFailedCommandForNextReplay() {
+            MongoDBWriteAheadSpool<Object> spool = spool(4096, 1024 * 1024);
+            spool.append(command("first")).block();
+            when(writer.execute(any())).thenReturn(Mono.error(new IllegalStateException("primary stepped down")));
+
+            StepVerifier.create(spool.replay())
+                    .verifyError(IllegalStateException.class);
+
+            when(writer.execute(any())).thenReturn(Mono.just(1));
+            StepVerifier.create(spool.replay())
+                    .expectNext(1)
+                    .verifyComplete();
+            assertThat(spool.isEmpty()).isTrue();
+        }
+
+        @Test
+        void shouldResumeFromCheckpointAfterRestart() {
+            MongoDBWriteAheadSpool<Object> spool = spool(4096, 1024 * 1024);
+            spool.append(command("first")).block();
+            spool.replay().block();
+            spool.append(command("second")).block();
+
+            MongoDBWriteAheadSpool<Object> restarted = spool(4096, 1024 * 1024);
+
+            StepVerifier.create(restarted.replay())
+                    .expectNext(1)
+                    .verifyComplete();
+            verify(writer, times(2)).execute(any());
+        }
+
+        @Test
+        void shouldStopAtCorruptedRecord() throws IOException {
+            MongoDBWriteAheadSpool<Object> spool = spool(4096, 1024 * 1024);
+            spool.append(command("first")).block();
+            try (RandomAccessFile file = new RandomAccessFile(directory.resolve(segmentFiles().get(0)).toFile(),
+                    "rw")) {
+                file.seek(SpoolSegment.RECORD_HEADER_SIZE + 10);
+                file.write(0x7F);
+            }
+
+            StepVerifier.create(spool(4096, 1024 * 1024).replay())
+                    .expectNext(0)
+                    .verifyComplete();
+            verify(writer, never()).execute(any());
+        }
+    }
+
+    @Nested
+    class SegmentTest {
+        @Test
+        void shouldRollSegmentsAndDeleteAppliedOnes() throws IOException {
+            MongoDBWriteAheadSpool<Object> spool = spool(512, 1024 * 1024);
+            for (int i = 0; i < 10; i++) {
+                spool.append(command("object" + i)).block();
+            }
+            assertThat(segmentFiles()).hasSizeGreaterThan(1);
+
+            StepVerifier.create(spool.replay())
+                    .expectNext(10)
+                    .verifyComplete();
+
+            assertThat(segmentFiles()).hasSize(1);
+            assertThat(spool.pendingSegments()).isEqualTo(1);
+        }
+
+        @Test
+        void shouldRejectAppendWhenDiskQuotaIsExceeded() {
+            MongoDBWriteAheadSpool<Object> spool = spool(512, 1024);
+
+            StepVerifier.create(Flux.range(0, 100).concatMap(i -> spool.append(command("object" + i))))
+                    .verifyError(IllegalStateException.class);
+            assertThat(spool.pendingSegments()).isEqualTo(2);
+        }
+
+        @Test
+        void shouldRejectCommandLargerThanSegment() {
+            MongoDBWriteAheadSpool<Object> spool = spool(64, 1024);
+
+            StepVerifier.create(spool.append(command("tooLarge")))
+                    .verifyError(IllegalArgumentException.class);
+        }
+    }
+
+    @Nested
+    class CloseTest {
+        @Test
+        void shouldRejectAppendsAndReplaysOnceClosed() {
+            MongoDBWriteAheadSpool<Object> spool = spool(4096, 1024 * 1024);
+
+            spool.close();
+
+            StepVerifier.create(spool.append(command("first"))).verifyError(IllegalStateException.class);
+            StepVerifier.create(spool.replay()).verifyError(IllegalStateException.class);
+        }
+
+        @Test
+        void shouldReplayCommandsOfAClosedSpoolOnReopen() {
+            MongoDBWriteAheadSpool<Object> spool = spool(4096, 1024 * 1024);
+            spool.append(command("first")).block();
+            spool.close();
+
+            StepVerifier.create(spool(4096, 1024 * 1024).replay())
+                    .expectNext(1)
+                    .verifyComplete();
+        }
+
+        @Test
+        void shouldCloseDeletedSegments() throws IOException {
+            SpoolSegment segment = SpoolSegment.open(directory.resolve("segment.log"), 0, 512);
+            segment.append(new byte[] {1, 2, 3}, false);
+
+            segment.delete();
+
+            assertThat(Files.exists(directory.resolve("segment.log"))).isFalse();
+            assertThrows(IllegalStateException.class, () -> segment.read(0));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.niogatori.mongohelper.staging;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.niogatori.mongohelper.bulkwriter.MongoDBBulkWriter;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class OffHeapStatementBufferTest {
+
+    private MongoDBBulkWriter<Object> writer;
+    private List<List<RawBsonDocument>> written;
+    private OffHeapStatementBuffer<Object> buffer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        writer = mock(MongoDBBulkWriter.class);
+        written = new CopyOnWriteArrayList<>();
+        when(writer.executeRaw(eq("MyCollection"), anyList(), anyBoolean())).thenAnswer(invocation -> {
+            List<RawBsonDocument> statements = invocation.getArgument(1);
+            written.add(statements);
+            return Flux.just(reply(statements.size()));
+        });
+        buffer = buffer(StagingSettings.builder().maxBatchSize(2).flushInterval(Duration.ofHours(1)).maxRetries(1)
+                .retryBackoff(Duration.ofMillis(1)).build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        buffer.dispose();
+    }
+
+    private OffHeapStatementBuffer<Object> buffer(StagingSettings settings) {
+        return new OffHeapStatementBuffer<>(writer, "MyCollection", settings);
+    }
+
+    private static UpdateCommand command(String... ids) {
+        UpdateCommand updateCommand = UpdateCommand.builder().update("MyCollection").ordered(true).build();
+        updateCommand.setUpdates(List.of(ids).stream()
+                .map(id -> new Document("q", new Document("_id", id))
+                        .append("u", new Document("$set", new Document("name", id)))
+                        .append("upsert", true))
+                .collect(Collectors.toList()));
+        return updateCommand;
+    }
+
+    private static Document reply(int nbModified) {
+        return new Document("ok", 1).append("n", nbModified).append("nModified", nbModified);
+    }
+
+    private List<String> writtenIds() {
+        return written.stream()
+                .flatMap(List::stream)
+                .map(statement -> statement.getDocument("q").getString("_id").getValue())
+                .collect(Collectors.toList());
+    }
+
+    @Nested
+    class FlushTest {
+        @Test
+        void shouldWriteStagedStatementsInOrderAndInBatches() {
+            StepVerifier.create(buffer.append(command("a", "b", "c"))).verifyComplete();
+            StepVerifier.create(buffer.append(command("d"))).verifyComplete();
+
+            StepVerifier.create(buffer.flush()).expectNext(4).verifyComplete();
+
+            assertThat(writtenIds()).containsExactly("a", "b", "c", "d");
+            assertThat(written).extracting(List::size).containsExactly(2, 2);
+            assertThat(buffer.pendingBytes()).isZero();
+        }
+
+        @Test
+        void shouldFlushPeriodically() {
+            OffHeapStatementBuffer<Object> periodic = buffer(StagingSettings.builder()
+                    .flushInterval(Duration.ofMillis(10)).build());
+
+            periodic.append(command("a")).block();
+
+            StepVerifier.create(Mono.fromCallable(OffHeapStatementBufferTest.this::writtenIds)
+                    .filter(ids -> !ids.isEmpty())
+                    .repeatWhenEmpty(repeats -> repeats.delayElements(Duration.ofMillis(10))))
+                    .expectNext(List.of("a"))
+                    .expectComplete()
+                    .verify(Duration.ofSeconds(5));
+            periodic.dispose();
+        }
+
+        @Test
+        void shouldKeepFailedBatchesStagedUntilTheyAreWritten() {
+            doReturn(Flux.error(new IllegalStateException("down"))).when(writer).executeRaw(any(), anyList(),
+                    anyBoolean());
+            buffer.append(command("a", "b", "c")).block();
+            long stagedBytes = buffer.pendingBytes();
+
+            StepVerifier.create(buffer.flush()).expectNext(0).verifyComplete();
+
+            assertThat(buffer.pendingBytes()).isEqualTo(stagedBytes);
+            assertThat(buffer.failedStatements()).isZero();
+
+            doAnswer(invocation -> {
+                List<RawBsonDocument> statements = invocation.getArgument(1);
+                written.add(statements);
+                return Flux.just(reply(statements.size()));
+            }).when(writer).executeRaw(any(), anyList(), anyBoolean());
+
+            StepVerifier.create(buffer.flush()).expectNext(3).verifyComplete();
+
+            assertThat(writtenIds()).containsExactly("a", "b", "c");
+            assertThat(buffer.pendingBytes()).isZero();
+        }
+
+        @Test
+        void shouldRetryAFailedBatch() {
+            AtomicInteger nbCalls = new AtomicInteger();
+            doAnswer(invocation -> {
+                List<RawBsonDocument> statements = invocation.getArgument(1);
+                if (nbCalls.getAndIncrement() == 0) {
+                    return Flux.error(new IllegalStateException("down"));
+                }
+                written.add(statements);
+                return Flux.just(reply(statements.size()));
+            }).when(writer).executeRaw(any(), anyList(), anyBoolean());
+            buffer.append(command("a", "b")).block();
+
+            StepVerifier.create(buffer.flush()).expectNext(2).verifyComplete();
+
+            assertThat(writtenIds()).containsExactly("a", "b");
+            assertThat(buffer.pendingBytes()).isZero();
+        }
+
+        @Test
+        void shouldKeepTheStatementsNotRunAfterARejectedStatement() {
+            doAnswer(invocation -> {
+                List<RawBsonDocument> statements = invocation.getArgument(1);
+                written.add(statements);
+                return Flux.just(written.size() == 1 ? reply(0).append("writeErrors",
+                        List.of(new Document("index", 0).append("code", 121).append("errmsg", "invalid")))
+                        : reply(statements.size()));
+            }).when(writer).executeRaw(any(), anyList(), anyBoolean());
+            buffer.append(command("a", "b", "c")).block();
+
+            StepVerifier.create(buffer.flush()).expectNext(2).verifyComplete();
+
+            assertThat(writtenIds()).containsExactly("a", "b", "b", "c");
+            assertThat(buffer.failedStatements()).isOne();
+            assertThat(buffer.pendingBytes()).isZero();
+        }
+    }
+
+    @Nested
+    class BackpressureTest {
+        @Test
+        void shouldRejectStatementsOfAFullBuffer() {
+            OffHeapStatementBuffer<Object> small = buffer(StagingSettings.builder().capacity(128)
+                    .flushInterval(Duration.ofHours(1)).build());
+
+            StepVerifier.create(small.append(command("a", "b", "c", "d"))).verifyError(IllegalStateException.class);
+            small.dispose();
+        }
+
+        @Test
+        void shouldRejectCommandOfAnotherCollection() {
+            UpdateCommand other = command("a");
+            other.setUpdate("Other");
+
+            StepVerifier.create(buffer.append(other)).verifyError(IllegalArgumentException.class);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.niogatori.mongohelper.staging;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StatementRingTest {
+
+    private static final Codec<Document> DOCUMENT_CODEC =
+            MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+
+    private static byte[] encode(Document document) {
+        ByteBuffer encoded = new RawBsonDocument(document, DOCUMENT_CODEC).getByteBuffer().asNIO();
+        byte[] payload = new byte[encoded.remaining()];
+        encoded.get(payload);
+        return payload;
+    }
+
+    private static byte[] statement(int index) {
+        return encode(new Document("q", new Document("_id", index)));
+    }
+
+    private static List<Integer> indexesOf(List<RawBsonDocument> statements) {
+        return statements.stream()
+                .map(statement -> statement.getDocument("q").getInt32("_id").getValue())
+                .collect(Collectors.toList());
+    }
+
+    @Nested
+    class OfferTest {
+        @Test
+        void shouldDrainStatementsInOfferOrder() {
+            StatementRing ring = new StatementRing(1024);
+            IntStream.range(0, 5).forEach(i -> assertThat(ring.offer(statement(i))).isTrue());
+
+            assertThat(indexesOf(ring.drain(3, Integer.MAX_VALUE))).containsExactly(0, 1, 2);
+            assertThat(indexesOf(ring.drain(3, Integer.MAX_VALUE))).containsExactly(3, 4);
+            assertThat(ring.drain(3, Integer.MAX_VALUE)).isEmpty();
+            assertThat(ring.usedBytes()).isZero();
+        }
+
+        @Test
+        void shouldRejectStatementsOfAFullRing() {
+            int recordSize = (StatementRing.HEADER_SIZE + statement(0).length + 7) / 8 * 8;
+            StatementRing ring = new StatementRing(recordSize * 2);
+
+            assertThat(ring.offer(statement(0))).isTrue();
+            assertThat(ring.offer(statement(1))).isTrue();
+            assertThat(ring.offer(statement(2))).isFalse();
+            ring.drain(1, Integer.MAX_VALUE);
+            assertThat(ring.offer(statement(2))).isTrue();
+        }
+
+        @Test
+        void shouldPeekTheSameStatementsUntilReleased() {
+            StatementRing ring = new StatementRing(1024);
+            IntStream.range(0, 3).forEach(i -> ring.offer(statement(i)));
+
+            assertThat(indexesOf(ring.peek(10, Integer.MAX_VALUE))).containsExactly(0, 1, 2);
+            assertThat(indexesOf(ring.peek(10, Integer.MAX_VALUE))).containsExactly(0, 1, 2);
+            ring.release(2);
+
+            assertThat(indexesOf(ring.peek(10, Integer.MAX_VALUE))).containsExactly(2);
+            ring.release(1);
+            assertThat(ring.usedBytes()).isZero();
+        }
+
+        @Test
+        void shouldRejectStatementsLargerThanTheRing() {
+            StatementRing ring = new StatementRing(16);
+
+            assertThrows(IllegalArgumentException.class, () -> ring.offer(statement(0)));
+        }
+
+        @Test
+        void shouldBoundTheBytesOfABatch() {
+            StatementRing ring = new StatementRing(1024);
+            IntStream.range(0, 3).forEach(i -> ring.offer(statement(i)));
+
+            assertThat(indexesOf(ring.drain(10, statement(0).length * 2))).containsExactly(0, 1);
+            assertThat(indexesOf(ring.drain(10, 1))).containsExactly(2);
+        }
+    }
+
+    @Nested
+    class WrapTest {
+        @Test
+        void shouldWrapAroundTheEndOfTheBuffer() {
+            // a capacity that is not a multiple of the record size to pad the end of the buffer
+            StatementRing ring = new StatementRing(100);
+            List<Integer> drained = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                assertThat(ring.offer(statement(i))).isTrue();
+                drained.addAll(indexesOf(ring.drain(10, Integer.MAX_VALUE)));
+            }
+
+            assertThat(drained).containsExactlyElementsOf(IntStream.range(0, 50).boxed()
+                    .collect(Collectors.toList()));
+        }
+
+        @Test
+        void shouldKeepTheOrderOfEachProducer() {
+            StatementRing ring = new StatementRing(4096);
+            int nbProducers = 4;
+            int nbStatements = 2000;
+            List<CompletableFuture<Void>> producers = IntStream.range(0, nbProducers)
+                    .mapToObj(producer -> CompletableFuture.runAsync(() -> {
+                        for (int i = 0; i < nbStatements; i++) {
+                            byte[] payload = encode(new Document("q", new Document("_id", i))
+                                    .append("producer", producer));
+                            while (!ring.offer(payload)) {
+                                Thread.onSpinWait();
+                            }
+                        }
+                    }))
+                    .collect(Collectors.toList());
+
+            Map<Integer, List<Integer>> drainedByProducer = new HashMap<>();
+            int nbDrained = 0;
+            while (nbDrained < nbProducers * nbStatements) {
+                for (RawBsonDocument statement : ring.drain(100, Integer.MAX_VALUE)) {
+                    drainedByProducer.computeIfAbsent(statement.getInt32("producer").getValue(),
+                            producer -> new ArrayList<>())
+                            .add(statement.getDocument("q").getInt32("_id").getValue());
+                    nbDrained++;
+                }
+            }
+            CompletableFuture.allOf(producers.toArray(CompletableFuture[]::new)).join();
+
+            assertThat(drainedByProducer).hasSize(nbProducers).allSatisfy((producer, indexes) -> assertThat(indexes)
+                    .containsExactlyElementsOf(IntStream.range(0, nbStatements).boxed()
+                            .collect(Collectors.toList())));
+        }
+    }
+}
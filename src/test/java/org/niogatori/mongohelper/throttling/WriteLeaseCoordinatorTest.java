@@ -0,0 +1,185 @@
+package org.niogatori.mongohelper.throttling;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.niogatori.mongohelper.config.TestConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Import(TestConfig.class)
+@DataMongoTest
+class WriteLeaseCoordinatorTest {
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+    @Autowired
+    private Clock clock;
+
+    private WriteThrottler firstThrottler;
+    private WriteThrottler secondThrottler;
+    private WriteLeaseCoordinator first;
+    private WriteLeaseCoordinator second;
+
+    @BeforeEach
+    void setup() {
+        reactiveMongoTemplate.dropCollection(WriteLeaseCoordinator.DEFAULT_LEASE_COLLECTION).block();
+        firstThrottler = new WriteThrottler(clock);
+        secondThrottler = new WriteThrottler(clock);
+        first = new WriteLeaseCoordinator(reactiveMongoTemplate, firstThrottler, "first");
+        first.setClock(clock);
+        second = new WriteLeaseCoordinator(reactiveMongoTemplate, secondThrottler, "second");
+        second.setClock(clock);
+        first.setTotalBudget("MyCollection", WriteBudget.builder().statementsPerSecond(100).bytesPerSecond(0).build())
+                .block();
+    }
+
+    @AfterEach
+    void tearDown() {
+        first.dispose();
+        second.dispose();
+    }
+
+    private static WriteBudget statements(long statementsPerSecond) {
+        return WriteBudget.builder().statementsPerSecond(statementsPerSecond).bytesPerSecond(0).build();
+    }
+
+    @Nested
+    class ShareTest {
+        @Test
+        void shouldGiveTheWholeBudgetToASingleInstance() {
+            StepVerifier.create(first.renew("MyCollection")).expectNext(statements(100)).verifyComplete();
+
+            assertThat(firstThrottler.getBudget("MyCollection")).contains(statements(100));
+        }
+
+        @Test
+        void shouldSplitTheBudgetBetweenLiveLeases() {
+            first.renew("MyCollection").block();
+            second.renew("MyCollection").block();
+            second.setClock(Clock.offset(clock, Duration.ofSeconds(10)));
+
+            StepVerifier.create(second.renew("MyCollection")).expectNext(statements(50)).verifyComplete();
+            StepVerifier.create(first.renew("MyCollection")).expectNext(statements(50)).verifyComplete();
+            assertThat(secondThrottler.getBudget("MyCollection")).contains(statements(50));
+        }
+
+        @Test
+        void shouldPauseANewLeaseUntilTheOthersHaveRenewed() {
+            first.renew("MyCollection").block();
+
+            StepVerifier.create(second.renew("MyCollection")).expectNext(WriteBudget.paused()).verifyComplete();
+            assertThat(firstThrottler.getBudget("MyCollection")).contains(statements(100));
+        }
+
+        @Test
+        void shouldSizeTheSharesAgainstTheMostLeasesSeenWithinTheLeaseDuration() {
+            first.renew("MyCollection").block();
+            second.renew("MyCollection").block();
+            first.renew("MyCollection").block();
+            second.release("MyCollection").block();
+
+            StepVerifier.create(first.renew("MyCollection")).expectNext(statements(50)).verifyComplete();
+            first.setClock(Clock.offset(clock, Duration.ofSeconds(31)));
+            StepVerifier.create(first.renew("MyCollection")).expectNext(statements(100)).verifyComplete();
+        }
+
+        @Test
+        void shouldNotShareMoreThanTheTotal() {
+            first.setTotalBudget("MyCollection", statements(1)).block();
+            first.renew("MyCollection").block();
+            second.renew("MyCollection").block();
+            second.setClock(Clock.offset(clock, Duration.ofSeconds(10)));
+
+            StepVerifier.create(first.renew("MyCollection")).expectNext(statements(1)).verifyComplete();
+            StepVerifier.create(second.renew("MyCollection")).expectNext(WriteBudget.paused()).verifyComplete();
+        }
+
+        @Test
+        void shouldDropExpiredLeases() {
+            reactiveMongoTemplate.getCollection(WriteLeaseCoordinator.DEFAULT_LEASE_COLLECTION)
+                    .flatMap(leases -> Mono.from(leases.updateOne(
+                            new Document("_id", "MyCollection"),
+                            new Document("$set", new Document(WriteLeaseCoordinator.LEASES, List.of(
+                                    new Document(WriteLeaseCoordinator.INSTANCE_ID, "dead")
+                                            .append(WriteLeaseCoordinator.EXPIRES_AT, new Date(0))))))))
+                    .block();
+
+            StepVerifier.create(first.renew("MyCollection")).expectNext(statements(100)).verifyComplete();
+        }
+
+        @Test
+        void shouldNotThrottleCollectionsWithoutBudget() {
+            firstThrottler.setBudget("Other", statements(10));
+
+            StepVerifier.create(first.renew("Other")).verifyComplete();
+            assertThat(firstThrottler.getBudget("Other")).isEmpty();
+        }
+    }
+
+    @Nested
+    class ReleaseTest {
+        @Test
+        void shouldGiveTheShareBackOnRelease() {
+            first.renew("MyCollection").block();
+            second.renew("MyCollection").block();
+
+            first.release("MyCollection").block();
+            second.setClock(Clock.offset(clock, Duration.ofSeconds(31)));
+
+            StepVerifier.create(second.renew("MyCollection")).expectNext(statements(100)).verifyComplete();
+            assertThat(firstThrottler.getBudget("MyCollection")).isEmpty();
+        }
+
+        @Test
+        void shouldRenewLeasesPeriodically() {
+            first.setRenewInterval(Duration.ofMillis(50));
+            first.setClock(Clock.systemUTC());
+            second.renew("MyCollection").block();
+
+            first.coordinate("MyCollection");
+
+            StepVerifier.create(Mono.fromSupplier(() -> firstThrottler.getBudget("MyCollection"))
+                    .filter(Optional.of(statements(50))::equals)
+                    .repeatWhenEmpty(ticks -> ticks.delayElements(Duration.ofMillis(20))))
+                    .expectNextCount(1)
+                    .expectComplete()
+                    .verify(Duration.ofSeconds(5));
+        }
+    }
+
+    @Nested
+    class LapseTest {
+        @Test
+        void shouldPauseTheWritesOnceTheLeaseMayHaveExpired() {
+            first.renew("MyCollection").block();
+            first.setClock(Clock.offset(clock, Duration.ofSeconds(31)));
+            // the renewals now fail, the collection name is invalid
+            first.setLeaseCollectionName("");
+            first.setRenewInterval(Duration.ofMillis(50));
+
+            first.coordinate("MyCollection");
+
+            StepVerifier.create(Mono.fromSupplier(() -> firstThrottler.getBudget("MyCollection"))
+                    .filter(Optional.of(WriteBudget.paused())::equals)
+                    .repeatWhenEmpty(ticks -> ticks.delayElements(Duration.ofMillis(20))))
+                    .expectNextCount(1)
+                    .expectComplete()
+                    .verify(Duration.ofSeconds(5));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.niogatori.mongohelper.throttling;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import reactor.test.StepVerifier;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WriteThrottlerTest {
+
+    private final static Clock CLOCK =
+            Clock.fixed(LocalDateTime.of(2023, 4, 10, 12, 0, 0).toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+
+    private WriteThrottler throttler;
+
+    @BeforeEach
+    void setup() {
+        throttler = new WriteThrottler(CLOCK);
+    }
+
+    @Nested
+    class StatementBudgetTest {
+        @Test
+        void shouldNotDelayCollectionWithoutBudget() {
+            StepVerifier.create(throttler.acquire("MyCollection", 1_000_000, 0))
+                    .verifyComplete();
+        }
+
+        @Test
+        void shouldNotDelayWithinBudget() {
+            throttler.setBudget("MyCollection", WriteBudget.builder().statementsPerSecond(10).build());
+
+            StepVerifier.create(throttler.acquire("MyCollection", 10, 0))
+                    .verifyComplete();
+        }
+
+        @Test
+        void shouldDelayWhenBudgetIsExhausted() {
+            throttler.setBudget("MyCollection", WriteBudget.builder().statementsPerSecond(10).build());
+            throttler.acquire("MyCollection", 10, 0).block();
+
+            StepVerifier.withVirtualTime(() -> throttler.acquire("MyCollection", 5, 0))
+                    .expectSubscription()
+                    .expectNoEvent(Duration.ofMillis(499))
+                    .thenAwait(Duration.ofMillis(1))
+                    .verifyComplete();
+        }
+
+        @Test
+        void shouldHoldWritesUntilThePausedCollectionIsResumed() {
+            throttler.setBudget("MyCollection", WriteBudget.paused());
+
+            StepVerifier.withVirtualTime(() -> throttler.acquire("MyCollection", 1, 0))
+                    .expectSubscription()
+                    .expectNoEvent(Duration.ofSeconds(10))
+                    .then(() -> throttler.setBudget("MyCollection",
+                            WriteBudget.builder().statementsPerSecond(10).build()))
+                    .thenAwait(Duration.ofSeconds(1))
+                    .verifyComplete();
+        }
+
+        @Test
+        void shouldApplyBudgetChangedAtRuntime() {
+            throttler.setBudget("MyCollection", WriteBudget.builder().statementsPerSecond(10).build());
+            throttler.acquire("MyCollection", 10, 0).block();
+            throttler.setBudget("MyCollection", WriteBudget.builder().statementsPerSecond(100).build());
+
+            StepVerifier.withVirtualTime(() -> throttler.acquire("MyCollection", 50, 0))
+                    .expectSubscription()
+                    .expectNoEvent(Duration.ofMillis(499))
+                    .thenAwait(Duration.ofMillis(1))
+                    .verifyComplete();
+            assertThat(throttler.getBudget("MyCollection")).hasValue(WriteBudget.builder()
+                    .statementsPerSecond(100)
+                    .build());
+        }
+
+        @Test
+        void shouldNotShareBudgetBetweenCollections() {
+            throttler.setBudget("MyCollection", WriteBudget.builder().statementsPerSecond(10).build());
+            throttler.acquire("MyCollection", 10, 0).block();
+
+            StepVerifier.create(throttler.acquire("MyOtherCollection", 10, 0))
+                    .verifyComplete();
+        }
+    }
+
+    @Nested
+    class ByteBudgetTest {
+        @Test
+        void shouldDelayOnTheMostRestrictiveBudget() {
+            throttler.setBudget("MyCollection", WriteBudget.builder()
+                    .statementsPerSecond(1000)
+                    .bytesPerSecond(1000)
+                    .build());
+
+            StepVerifier.withVirtualTime(() -> throttler.acquire("MyCollection", 1, 3000))
+                    .expectSubscription()
+                    .expectNoEvent(Duration.ofMillis(1999))
+                    .thenAwait(Duration.ofMillis(1))
+                    .verifyComplete();
+        }
+
+        @Test
+        void shouldMeasureUpdateCommandSize() {
+            UpdateCommand updateCommand = UpdateCommand.builder()
+                    .update("MyCollection")
+                    .build()
+                    .withUpdates(new Document("_id", "myId"), new Document("field", "myNewValue"), null, null, true,
+                            false);
+            throttler.setBudget("MyCollection", WriteBudget.builder()
+                    .bytesPerSecond(updateCommand.bsonSize())
+                    .build());
+
+            StepVerifier.create(throttler.acquire(updateCommand))
+                    .verifyComplete();
+            StepVerifier.withVirtualTime(() -> throttler.acquire(updateCommand))
+                    .expectSubscription()
+                    .expectNoEvent(Duration.ofMillis(999))
+                    .thenAwait(Duration.ofMillis(1))
+                    .verifyComplete();
+        }
+
+        @Test
+        void shouldTellWhetherCommandsNeedMeasuring() {
+            throttler.setBudget("MyCollection", WriteBudget.builder()
+                    .statementsPerSecond(10)
+                    .build());
+            throttler.setBudget("MyOtherCollection", WriteBudget.builder()
+                    .bytesPerSecond(1000)
+                    .build());
+
+            assertThat(throttler.isByteLimited("MyCollection")).isFalse();
+            assertThat(throttler.isByteLimited("MyOtherCollection")).isTrue();
+            assertThat(throttler.isByteLimited("UnknownCollection")).isFalse();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.niogatori.mongohelper.timeseries;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.WriteConcernError;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.result.InsertManyResult;
+import com.mongodb.reactivestreams.client.ListCollectionsPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import lombok.Data;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.annotation.AccessType;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.TimeSeries;
+import org.springframework.data.mongodb.core.timeseries.Granularity;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MongoDBTimeSeriesWriterTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final Date NOW = Date.from(Instant.parse("2023-04-05T22:00:00Z"));
+
+    @Data
+    @TimeSeries(collection = "MyMeasurement", timeField = "timestamp", metaField = "sensor",
+            granularity = Granularity.SECONDS)
+    static class MyMeasurement {
+        private final Date timestamp;
+        @Field("sensorId")
+        private final String sensor;
+        private final double value;
+    }
+
+    // read through its getters when mapped
+    @AccessType(AccessType.Type.PROPERTY)
+    static class UnmappableMeasurement extends MyMeasurement {
+        UnmappableMeasurement() {
+            super(NOW, "c", 3);
+        }
+
+        @Override
+        public double getValue() {
+            throw new IllegalStateException("Unmappable value");
+        }
+    }
+
+    @Data
+    static class MyObject {
+        private final String name;
+    }
+
+    private ReactiveMongoTemplate template;
+    private MongoDatabase database;
+    private MongoCollection<Document> collection;
+    private MongoDBTimeSeriesWriter<MyMeasurement> writer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE,
+                new MongoMappingContext());
+        converter.afterPropertiesSet();
+        template = mock(ReactiveMongoTemplate.class);
+        database = mock(MongoDatabase.class);
+        collection = mock(MongoCollection.class);
+        when(template.getConverter()).thenReturn(converter);
+        when(template.getCollectionName(MyMeasurement.class)).thenReturn("MyMeasurement");
+        when(template.getMongoDatabase()).thenReturn(Mono.just(database));
+        when(template.getCollection("MyMeasurement")).thenReturn(Mono.just(collection));
+        when(collection.insertMany(anyList(), any(InsertManyOptions.class)))
+                .thenReturn(Mono.just(mock(InsertManyResult.class)));
+        writer = new MongoDBTimeSeriesWriter<>(template, MyMeasurement.class, TimeSeriesSettings.builder()
+                .maxBatchSize(3).maxBatchDelay(Duration.ofMillis(50)).build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.dispose();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenCollectionInfo(Mono<Document> collectionInfo) {
+        ListCollectionsPublisher<Document> collections = mock(ListCollectionsPublisher.class);
+        when(database.listCollections()).thenReturn(collections);
+        when(collections.filter(any(Bson.class))).thenReturn(collections);
+        when(collections.first()).thenReturn(collectionInfo);
+    }
+
+    @Nested
+    class CollectionTest {
+        @Test
+        void shouldResolveTheFieldsFromTheMetadata() {
+            assertThat(writer.getCollectionName()).isEqualTo("MyMeasurement");
+            assertThat(writer.getTimeField()).isEqualTo("timestamp");
+            assertThat(writer.getMetaField()).isEqualTo("sensorId");
+            assertThat(writer.getGranularity()).isEqualTo(Granularity.SECONDS);
+        }
+
+        @Test
+        void shouldRejectClassesWithoutTimeSeries() {
+            assertThrows(IllegalArgumentException.class, () -> new MongoDBTimeSeriesWriter<>(template,
+                    MyObject.class, TimeSeriesSettings.builder().build()));
+        }
+
+        @Test
+        void shouldCreateTheMissingCollection() {
+            givenCollectionInfo(Mono.empty());
+            when(template.createCollection(eq("MyMeasurement"), any(CollectionOptions.class)))
+                    .thenReturn(Mono.just(collection));
+
+            StepVerifier.create(writer.ensureCollection()).verifyComplete();
+
+            ArgumentCaptor<CollectionOptions> options = ArgumentCaptor.forClass(CollectionOptions.class);
+            verify(template).createCollection(eq("MyMeasurement"), options.capture());
+            CollectionOptions.TimeSeriesOptions timeSeries = options.getValue().getTimeSeriesOptions().orElseThrow();
+            assertThat(timeSeries.getTimeField()).isEqualTo("timestamp");
+            assertThat(timeSeries.getMetaField()).isEqualTo("sensorId");
+            assertThat(timeSeries.getGranularity()).isEqualTo(Granularity.SECONDS);
+        }
+
+        @Test
+        void shouldAcceptAMatchingCollection() {
+            givenCollectionInfo(Mono.just(new Document("name", "MyMeasurement").append("options",
+                    new Document("timeseries", new Document("timeField", "timestamp").append("metaField",
+                            "sensorId").append("granularity", "seconds")))));
+
+            StepVerifier.create(writer.ensureCollection()).verifyComplete();
+            verify(template, never()).createCollection(any(String.class), any(CollectionOptions.class));
+        }
+
+        @Test
+        void shouldRejectARegularCollection() {
+            givenCollectionInfo(Mono.just(new Document("name", "MyMeasurement").append("options", new Document())));
+
+            StepVerifier.create(writer.ensureCollection()).verifyError(IllegalStateException.class);
+        }
+
+        @Test
+        void shouldRejectACollectionWithAnotherGranularity() {
+            givenCollectionInfo(Mono.just(new Document("name", "MyMeasurement").append("options",
+                    new Document("timeseries", new Document("timeField", "timestamp").append("metaField",
+                            "sensorId").append("granularity", "hours")))));
+
+            StepVerifier.create(writer.ensureCollection())
+                    .expectErrorMessage("Time-series collection MyMeasurement has the granularity hours, "
+                            + "expected seconds")
+                    .verify();
+        }
+
+        @Test
+        void shouldRejectACollectionWithOtherFields() {
+            givenCollectionInfo(Mono.just(new Document("name", "MyMeasurement").append("options",
+                    new Document("timeseries", new Document("timeField", "time")))));
+
+            StepVerifier.create(writer.ensureCollection()).verifyError(IllegalStateException.class);
+        }
+    }
+
+    @Nested
+    class InsertTest {
+        @Test
+        @SuppressWarnings("unchecked")
+        void shouldInsertBatchesSortedByMetaThenTime() {
+            List<MyMeasurement> measurements = List.of(new MyMeasurement(new Date(NOW.getTime() + 1000), "b", 1),
+                    new MyMeasurement(NOW, "b", 2), new MyMeasurement(NOW, "a", 3));
+
+            StepVerifier.create(writer.insert(measurements)).expectComplete().verify(TIMEOUT);
+
+            ArgumentCaptor<List<Document>> inserted = ArgumentCaptor.forClass(List.class);
+            ArgumentCaptor<InsertManyOptions> options = ArgumentCaptor.forClass(InsertManyOptions.class);
+            verify(collection).insertMany(inserted.capture(), options.capture());
+            assertThat(options.getValue().isOrdered()).isFalse();
+            assertThat(inserted.getValue()).extracting(document -> document.getDouble("value"))
+                    .containsExactly(3.0, 2.0, 1.0);
+            assertThat(writer.pendingMeasurements()).isZero();
+        }
+
+        @Test
+        void shouldFailOnlyTheRejectedMeasurements() {
+            MongoBulkWriteException exception = mock(MongoBulkWriteException.class);
+            when(exception.getWriteErrors()).thenReturn(List.of(new BulkWriteError(121, "Document failed validation",
+                    new BsonDocument(), 0)));
+            doReturn(Mono.error(exception)).when(collection).insertMany(anyList(), any(InsertManyOptions.class));
+
+            Mono<Void> rejected = writer.insert(new MyMeasurement(NOW, "a", 1)).cache();
+            Mono<Void> inserted = writer.insert(new MyMeasurement(NOW, "b", 2)).cache();
+            rejected.subscribe(null, error -> {
+            });
+            inserted.subscribe();
+
+            StepVerifier.create(rejected).expectError(MongoBulkWriteException.class).verify(TIMEOUT);
+            StepVerifier.create(inserted).expectComplete().verify(TIMEOUT);
+        }
+
+        @Test
+        void shouldFailTheBatchOnAWriteConcernError() {
+            MongoBulkWriteException exception = mock(MongoBulkWriteException.class);
+            when(exception.getWriteErrors()).thenReturn(List.of());
+            when(exception.getWriteConcernError()).thenReturn(new WriteConcernError(64,
+                    "WriteConcernFailed", "waiting for replication timed out", new BsonDocument()));
+            doReturn(Mono.error(exception)).when(collection).insertMany(anyList(), any(InsertManyOptions.class));
+
+            StepVerifier.create(writer.insert(List.of(new MyMeasurement(NOW, "a", 1), new MyMeasurement(NOW, "b", 2))))
+                    .expectErrorSatisfies(error -> assertThat(error).isSameAs(exception))
+                    .verify(TIMEOUT);
+        }
+
+        @Test
+        void shouldQueueNothingWhenAMeasurementCannotBeMapped() {
+            StepVerifier.create(writer.insert(List.of(new MyMeasurement(NOW, "a", 1), new UnmappableMeasurement())))
+                    .expectErrorMessage("Unmappable value")
+                    .verify(TIMEOUT);
+
+            assertThat(writer.pendingMeasurements()).isZero();
+            Mono.delay(Duration.ofMillis(200)).block();
+            verify(collection, never()).insertMany(anyList(), any(InsertManyOptions.class));
+        }
+
+        @Test
+        void shouldRejectMeasurementsWhenFull() {
+            MongoDBTimeSeriesWriter<MyMeasurement> shallow = new MongoDBTimeSeriesWriter<>(template,
+                    MyMeasurement.class, TimeSeriesSettings.builder().queueDepth(1)
+                            .maxBatchDelay(Duration.ofSeconds(10)).build());
+
+            shallow.insert(new MyMeasurement(NOW, "a", 1)).subscribe();
+
+            StepVerifier.create(shallow.insert(new MyMeasurement(NOW, "b", 2)))
+                    .verifyError(IllegalStateException.class);
+            shallow.dispose();
+        }
+
+        @Test
+        void shouldKeepTheMappedFieldNames() {
+            writer.insert(new MyMeasurement(NOW, "a", 1)).block(TIMEOUT);
+
+            verify(collection).insertMany(eq(List.of(new Document("timestamp", NOW)
+                    .append("sensorId", "a").append("value", 1.0))), any(InsertManyOptions.class));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.niogatori.mongohelper.tracing;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.niogatori.mongohelper.bulkwriter.MongoDBBulkWriter;
+import org.niogatori.mongohelper.models.UpdateCommand;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BatchTraceTest {
+
+    private MongoDatabase database;
+    private MongoDBBulkWriter<Object> writer;
+    private List<BatchTrace> traces;
+
+    @BeforeEach
+    void setup() {
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE,
+                new MongoMappingContext());
+        converter.afterPropertiesSet();
+        ReactiveMongoTemplate template = mock(ReactiveMongoTemplate.class);
+        database = mock(MongoDatabase.class);
+        when(template.getConverter()).thenReturn(converter);
+        when(template.getMongoDatabase()).thenReturn(Mono.just(database));
+        when(database.getCodecRegistry()).thenReturn(MongoClientSettings.getDefaultCodecRegistry());
+        when(database.runCommand(any(Bson.class))).thenReturn(Mono.just(new Document("ok", 1).append("n", 1)
+                .append("nModified", 1)));
+        writer = new MongoDBBulkWriter<>(template);
+        traces = new CopyOnWriteArrayList<>();
+        writer.setTraceListener(traces::add);
+    }
+
+    private static UpdateCommand command() {
+        return UpdateCommand.builder()
+                .update("MyCollection")
+                .ordered(true)
+                .comment("nightly import")
+                .build()
+                .withUpdates(Map.of(new Document("_id", "a"), Optional.of(new Document("name", "name"))), null, null,
+                        true, false);
+    }
+
+    @Nested
+    class CommentTest {
+        @Test
+        void shouldTagTheCommandWithTheTraceAndBatchIds() {
+            StepVerifier.create(writer.execute(command()).contextWrite(BatchTrace.withTraceId("trace-1")))
+                    .expectNext(1)
+                    .verifyComplete();
+
+            ArgumentCaptor<Bson> sent = ArgumentCaptor.forClass(Bson.class);
+            verify(database).runCommand(sent.capture());
+            assertThat(sent.getValue()).isInstanceOf(RawBsonDocument.class);
+            String comment = ((RawBsonDocument) sent.getValue()).getString("comment").getValue();
+            assertThat(traces).hasSize(1);
+            assertThat(comment).isEqualTo("traceId=trace-1 batchId=" + traces.get(0).getBatchId() + " nightly import");
+        }
+
+        @Test
+        void shouldKeepTheCommentOfUntracedCommands() {
+            writer.setTraceListener(null);
+
+            StepVerifier.create(writer.execute(command())).expectNext(1).verifyComplete();
+
+            ArgumentCaptor<Bson> sent = ArgumentCaptor.forClass(Bson.class);
+            verify(database).runCommand(sent.capture());
+            assertThat(sent.getValue().toBsonDocument().getString("comment").getValue()).isEqualTo("nightly import");
+        }
+    }
+
+    @Nested
+    class ListenerTest {
+        @Test
+        void shouldReportTheTimingsOfEachBatch() {
+            StepVerifier.create(writer.execute(command()).contextWrite(BatchTrace.withTraceId("trace-1")))
+                    .expectNext(1)
+                    .verifyComplete();
+
+            assertThat(traces).singleElement().satisfies(trace -> {
+                assertThat(trace.getTraceId()).isEqualTo("trace-1");
+                assertThat(trace.getCollectionName()).isEqualTo("MyCollection");
+                assertThat(trace.getNbStatements()).isEqualTo(1);
+                assertThat(List.of(trace.getEncode(), trace.getQueueWait(), trace.getExecution(), trace.getDecode()))
+                        .allMatch(duration -> !duration.isNegative());
+                assertThat(trace.getError()).isNull();
+            });
+        }
+
+        @Test
+        void shouldReportFailedBatches() {
+            when(database.runCommand(any(Bson.class))).thenReturn(Mono.error(new IllegalStateException("down")));
+
+            StepVerifier.create(writer.execute(command())).verifyError(IllegalStateException.class);
+
+            assertThat(traces).singleElement().satisfies(trace -> {
+                assertThat(trace.getTraceId()).isNull();
+                assertThat(trace.getError()).hasMessage("down");
+                assertThat(trace.getExecution()).isGreaterThanOrEqualTo(Duration.ZERO);
+            });
+        }
+    }
+}
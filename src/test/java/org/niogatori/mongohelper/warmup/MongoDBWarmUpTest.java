@@ -0,0 +1,130 @@
+package org.niogatori.mongohelper.warmup;
+
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import lombok.Data;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MongoDBWarmUpTest {
+
+    @Data
+    @org.springframework.data.mongodb.core.mapping.Document("MyObject")
+    static class MyObject {
+        @Id
+        private final String id;
+        private final String name;
+        private final int nbItems;
+    }
+
+    @org.springframework.data.mongodb.core.mapping.Document("Unreadable")
+    static class Unreadable {
+        @Id
+        private final String id;
+
+        Unreadable(String id) {
+            throw new IllegalArgumentException("Not readable");
+        }
+    }
+
+    private MongoMappingContext mappingContext;
+    private MappingMongoConverter converter;
+    private ReactiveMongoTemplate template;
+    private MongoDatabase database;
+    private WarmUpProperties properties;
+
+    @BeforeEach
+    void setup() {
+        mappingContext = new MongoMappingContext();
+        converter = spy(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext));
+        converter.afterPropertiesSet();
+        template = mock(ReactiveMongoTemplate.class);
+        database = mock(MongoDatabase.class);
+        when(template.getConverter()).thenReturn(converter);
+        when(template.getCollectionName(MyObject.class)).thenReturn("MyObject");
+        when(template.getMongoDatabase()).thenReturn(Mono.just(database));
+        when(database.runCommand(any(Bson.class))).thenReturn(Mono.just(new Document("ok", 1)));
+        properties = new WarmUpProperties();
+        properties.setEntityClasses(List.of(MyObject.class));
+        properties.setIterations(10);
+        properties.setConnections(3);
+    }
+
+    @Nested
+    class WarmUpTest {
+        @Test
+        void shouldResolveTheMetadataOfTheEntities() {
+            StepVerifier.create(new MongoDBWarmUp(template, properties).warmUp()).verifyComplete();
+
+            assertThat(mappingContext.hasPersistentEntityFor(MyObject.class)).isTrue();
+            verify(template).getCollectionName(MyObject.class);
+        }
+
+        @Test
+        void shouldConvertInstancesOfTheEntities() {
+            properties.setStatementsPerCommand(2);
+
+            StepVerifier.create(new MongoDBWarmUp(template, properties).warmUp()).verifyComplete();
+
+            verify(converter).read(eq(MyObject.class), any(Bson.class));
+            verify(converter, times(20)).write(eq(new MyObject("warm-up", "warm-up", 0)), any(Bson.class));
+        }
+
+        @Test
+        void shouldWarmUpTheOtherEntitiesWhenOneFails() {
+            when(template.getCollectionName(Unreadable.class)).thenReturn("Unreadable");
+            properties.setEntityClasses(List.of(Unreadable.class, MyObject.class));
+            properties.setStatementsPerCommand(1);
+
+            StepVerifier.create(new MongoDBWarmUp(template, properties).warmUp()).verifyComplete();
+
+            verify(converter, times(10)).write(eq(new MyObject("warm-up", "warm-up", 0)), any(Bson.class));
+        }
+
+        @Test
+        void shouldOpenTheConnections() {
+            StepVerifier.create(new MongoDBWarmUp(template, properties).warmUp()).verifyComplete();
+
+            verify(database, times(3)).runCommand(new Document("ping", 1));
+        }
+
+        @Test
+        void shouldNotFailTheStartup() {
+            when(database.runCommand(any(Bson.class))).thenReturn(Mono.error(new IllegalStateException("down")));
+
+            new MongoDBWarmUp(template, properties).run(null);
+        }
+
+        @Test
+        void shouldNotWaitLongerThanTheTimeout() {
+            when(database.runCommand(any(Bson.class))).thenReturn(Mono.never());
+            properties.setTimeout(Duration.ofMillis(100));
+
+            long start = System.nanoTime();
+            new MongoDBWarmUp(template, properties).run(null);
+
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+        }
+    }
+}